@@ -21,6 +21,7 @@ public class BleDefinedUUIDs {
 	
 	public static class Service {
 		final static public UUID HEART_RATE               = UUID.fromString("0000180d-0000-1000-8000-00805f9b34fb");
+		final static public UUID ECG_TEST                 = UUID.fromString("6e400001-b5a3-f393-e0a9-e50e24dcca9e");
 	};
 	
 	public static class Characteristic {
@@ -31,7 +32,7 @@ public class BleDefinedUUIDs {
 		final static public UUID APPEARANCE               = UUID.fromString("00002a01-0000-1000-8000-00805f9b34fb");
 		final static public UUID BODY_SENSOR_LOCATION     = UUID.fromString("00002a38-0000-1000-8000-00805f9b34fb");
 		final static public UUID BATTERY_LEVEL            = UUID.fromString("00002a19-0000-1000-8000-00805f9b34fb");
-		//final static public UUID ECG_TEST				  = UUID.fromString("6e400001-b5a3-f393-e0a9-e50e24dcca9e");
+		final static public UUID ECG_WAVE                 = UUID.fromString("6e400002-b5a3-f393-e0a9-e50e24dcca9e");
 	}
 	
 	public static class Descriptor {
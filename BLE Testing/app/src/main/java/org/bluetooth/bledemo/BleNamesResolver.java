@@ -6,6 +6,9 @@ Wearable ECG Sensor Design FYP Project. These codes shall not be made public
 or redistributed without permission.
 
 This program defines the rest of pre-defined UUIDs.
+Names are looked up straight from the UUID: standard SIG UUIDs by their
+32 bit short form with a binary search over sorted int arrays, the few vendor
+ones by comparing both halves, so resolving a name allocates nothing.
 More important comments are above each method in the code.
 
 @author 		Cloudi Ng
@@ -15,42 +18,58 @@ More important comments are above each method in the code.
 
 *******************************************************************************/
 
-import java.util.HashMap;
-
-import android.util.SparseArray;
+import java.util.Arrays;
+import java.util.UUID;
 
 public class BleNamesResolver {
-	private static HashMap<String, String> mServices = new HashMap<String, String>();
-	private static HashMap<String, String> mCharacteristics = new HashMap<String, String>();
-	private static SparseArray<String> mValueFormats = new SparseArray<String>();
-	private static SparseArray<String> mAppearance = new SparseArray<String>();
-	private static SparseArray<String> mHeartRateSensorLocation = new SparseArray<String>();
+	// Bluetooth SIG base UUID 0000xxxx-0000-1000-8000-00805f9b34fb, only xxxx (or xxxxxxxx) differs
+	private static final long BASE_UUID_MSB_MASK = 0x00000000FFFFFFFFL;
+	private static final long BASE_UUID_MSB_LOW = 0x0000000000001000L;
+	private static final long BASE_UUID_LSB = 0x800000805F9B34FBL;
+
+	private static UuidTable mServices = new UuidTable();
+	private static UuidTable mCharacteristics = new UuidTable();
+	private static IntTable mValueFormats = new IntTable();
+	private static IntTable mAppearance = new IntTable();
+	private static IntTable mHeartRateSensorLocation = new IntTable();
 	
-	static public String resolveServiceName(final String uuid)
+	// name lookups below allocate nothing, they are called from getView and GATT callbacks
+	static public String resolveServiceName(final UUID uuid)
 	{
 		String result = mServices.get(uuid);
 		if(result == null) result = "Unknown Service";
 		return result;
 	}
 
+	static public String resolveCharacteristicName(final UUID uuid)
+	{
+		String result = mCharacteristics.get(uuid);
+		if(result == null) result = "Unknown Characteristic";
+		return result;
+	}
+
+	// string versions parse the UUID first, use the UUID ones where possible
+	static public String resolveServiceName(final String uuid)
+	{
+		return resolveServiceName(parse(uuid));
+	}
+
 	static public String resolveValueTypeDescription(final int format)
 	{
-		Integer tmp = Integer.valueOf(format);
-		return mValueFormats.get(tmp, "Unknown Format");
+		return mValueFormats.get(format, "Unknown Format");
 	}	
 	
 	static public String resolveCharacteristicName(final String uuid)
 	{
-		String result = mCharacteristics.get(uuid);
-		if(result == null) result = "Unknown Characteristic";
-		return result;
+		return resolveCharacteristicName(parse(uuid));
 	}
 	
 	static public String resolveUuid(final String uuid) {
-		String result = mServices.get(uuid);
+		UUID key = parse(uuid);
+		String result = mServices.get(key);
 		if(result != null) return "Service: " + result;
 		
-		result = mCharacteristics.get(uuid);
+		result = mCharacteristics.get(key);
 		if(result != null) return "Characteristic: " + result;
 		
 		result = "Unknown UUID";
@@ -58,161 +77,264 @@ public class BleNamesResolver {
 	}
 	
 	static public String resolveAppearance(int key) {
-		Integer tmp = Integer.valueOf(key);
-		return mAppearance.get(tmp, "Unknown Appearance");		
+		return mAppearance.get(key, "Unknown Appearance");		
 	}
 	
 	static public String resolveHeartRateSensorLocation(int key) {
-		Integer tmp = Integer.valueOf(key);
-		return mHeartRateSensorLocation.get(tmp, "Other");		
+		return mHeartRateSensorLocation.get(key, "Other");		
 	}
 	
+	static public boolean isService(final UUID uuid) {
+		return mServices.get(uuid) != null;
+	}
+
+	static public boolean isCharacteristic(final UUID uuid) {
+		return mCharacteristics.get(uuid) != null;
+	}	
+
 	static public boolean isService(final String uuid) {
-		return mServices.containsKey(uuid);
+		return isService(parse(uuid));
 	}
 
 	static public boolean isCharacteristic(final String uuid) {
-		return mCharacteristics.containsKey(uuid);
+		return isCharacteristic(parse(uuid));
 	}	
 
+	// null for anything that is not a UUID, so it resolves to "Unknown"
+	private static UUID parse(final String uuid) {
+		try {
+			return (uuid != null) ? UUID.fromString(uuid) : null;
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	private static void addService(String uuid, String name) {
+		mServices.put(UUID.fromString(uuid), name);
+	}
+
+	private static void addCharacteristic(String uuid, String name) {
+		mCharacteristics.put(UUID.fromString(uuid), name);
+	}
+
+	// int -> name, sorted keys searched with binary search, no boxing
+	private static class IntTable {
+		private int[] mKeys = new int[16];
+		private String[] mNames = new String[16];
+		private int mSize = 0;
+
+		// later put of the same key replaces the name
+		void put(int key, String name) {
+			int i = Arrays.binarySearch(mKeys, 0, mSize, key);
+			if(i >= 0) {
+				mNames[i] = name;
+				return;
+			}
+			i = -(i + 1);
+			if(mSize == mKeys.length) {
+				mKeys = Arrays.copyOf(mKeys, mSize * 2);
+				mNames = Arrays.copyOf(mNames, mSize * 2);
+			}
+			System.arraycopy(mKeys, i, mKeys, i + 1, mSize - i);
+			System.arraycopy(mNames, i, mNames, i + 1, mSize - i);
+			mKeys[i] = key;
+			mNames[i] = name;
+			mSize++;
+		}
+
+		String get(int key, String fallback) {
+			int i = Arrays.binarySearch(mKeys, 0, mSize, key);
+			return (i >= 0) ? mNames[i] : fallback;
+		}
+	}
+
+	// UUID -> name. SIG UUIDs are kept by their 16/32 bit short form in an IntTable,
+	// the few vendor UUIDs (e.g. ECG Wave) as msb / lsb pairs searched one by one
+	private static class UuidTable {
+		private final IntTable mShort = new IntTable();
+		private long[] mMsb = new long[4];
+		private long[] mLsb = new long[4];
+		private String[] mNames = new String[4];
+		private int mSize = 0;
+
+		void put(UUID uuid, String name) {
+			final long msb = uuid.getMostSignificantBits();
+			final long lsb = uuid.getLeastSignificantBits();
+			if(isSigBase(msb, lsb)) {
+				mShort.put((int)(msb >>> 32), name);
+				return;
+			}
+			for(int i = 0; i < mSize; i++) {
+				if(mMsb[i] == msb && mLsb[i] == lsb) {
+					mNames[i] = name;
+					return;
+				}
+			}
+			if(mSize == mMsb.length) {
+				mMsb = Arrays.copyOf(mMsb, mSize * 2);
+				mLsb = Arrays.copyOf(mLsb, mSize * 2);
+				mNames = Arrays.copyOf(mNames, mSize * 2);
+			}
+			mMsb[mSize] = msb;
+			mLsb[mSize] = lsb;
+			mNames[mSize] = name;
+			mSize++;
+		}
+
+		String get(UUID uuid) {
+			if(uuid == null) return null;
+			final long msb = uuid.getMostSignificantBits();
+			final long lsb = uuid.getLeastSignificantBits();
+			if(isSigBase(msb, lsb)) return mShort.get((int)(msb >>> 32), null);
+			for(int i = 0; i < mSize; i++) {
+				if(mMsb[i] == msb && mLsb[i] == lsb) return mNames[i];
+			}
+			return null;
+		}
+
+		private static boolean isSigBase(long msb, long lsb) {
+			return lsb == BASE_UUID_LSB && (msb & BASE_UUID_MSB_MASK) == BASE_UUID_MSB_LOW;
+		}
+	}
+
 	//listing predefined UUIDs
 	static {
-		mServices.put("00001811-0000-1000-8000-00805f9b34fb", "Alert Notification Service");
-		mServices.put("0000180f-0000-1000-8000-00805f9b34fb", "Battery Service");
-		mServices.put("00001810-0000-1000-8000-00805f9b34fb", "Blood Pressure");
-		mServices.put("00001805-0000-1000-8000-00805f9b34fb", "Current Time Service");
-		mServices.put("00001818-0000-1000-8000-00805f9b34fb", "Cycling Power");
-		mServices.put("00001816-0000-1000-8000-00805f9b34fb", "Cycling Speed and Cadence");
-		mServices.put("0000180a-0000-1000-8000-00805f9b34fb", "Device Information");
-		mServices.put("00001800-0000-1000-8000-00805f9b34fb", "Generic Access");
-		mServices.put("00001801-0000-1000-8000-00805f9b34fb", "Generic Attribute");
-		mServices.put("00001808-0000-1000-8000-00805f9b34fb", "Glucose");
-		mServices.put("00001809-0000-1000-8000-00805f9b34fb", "Health Thermometer");
-		mServices.put("0000180d-0000-1000-8000-00805f9b34fb", "Heart Rate");
-		mServices.put("00001812-0000-1000-8000-00805f9b34fb", "Human Interface Device");
-		mServices.put("00001802-0000-1000-8000-00805f9b34fb", "Immediate Alert");
-		mServices.put("00001803-0000-1000-8000-00805f9b34fb", "Link Loss");
-		mServices.put("00001819-0000-1000-8000-00805f9b34fb", "Location and Navigation");
-		mServices.put("00001807-0000-1000-8000-00805f9b34fb", "Next DST Change Service");
-		mServices.put("0000180e-0000-1000-8000-00805f9b34fb", "Phone Alert Status Service");
-		mServices.put("00001806-0000-1000-8000-00805f9b34fb", "Reference Time Update Service");
-		mServices.put("00001814-0000-1000-8000-00805f9b34fb", "Running Speed and Cadence");
-		mServices.put("00001813-0000-1000-8000-00805f9b34fb", "Scan Parameters");
-		mServices.put("00001804-0000-1000-8000-00805f9b34fb", "Tx Power");
-		mServices.put("6e400001-b5a3-f393-e0a9-e50e24dcca9e", "ECG Test");
+		addService("00001811-0000-1000-8000-00805f9b34fb", "Alert Notification Service");
+		addService("0000180f-0000-1000-8000-00805f9b34fb", "Battery Service");
+		addService("00001810-0000-1000-8000-00805f9b34fb", "Blood Pressure");
+		addService("00001805-0000-1000-8000-00805f9b34fb", "Current Time Service");
+		addService("00001818-0000-1000-8000-00805f9b34fb", "Cycling Power");
+		addService("00001816-0000-1000-8000-00805f9b34fb", "Cycling Speed and Cadence");
+		addService("0000180a-0000-1000-8000-00805f9b34fb", "Device Information");
+		addService("00001800-0000-1000-8000-00805f9b34fb", "Generic Access");
+		addService("00001801-0000-1000-8000-00805f9b34fb", "Generic Attribute");
+		addService("00001808-0000-1000-8000-00805f9b34fb", "Glucose");
+		addService("00001809-0000-1000-8000-00805f9b34fb", "Health Thermometer");
+		addService("0000180d-0000-1000-8000-00805f9b34fb", "Heart Rate");
+		addService("00001812-0000-1000-8000-00805f9b34fb", "Human Interface Device");
+		addService("00001802-0000-1000-8000-00805f9b34fb", "Immediate Alert");
+		addService("00001803-0000-1000-8000-00805f9b34fb", "Link Loss");
+		addService("00001819-0000-1000-8000-00805f9b34fb", "Location and Navigation");
+		addService("00001807-0000-1000-8000-00805f9b34fb", "Next DST Change Service");
+		addService("0000180e-0000-1000-8000-00805f9b34fb", "Phone Alert Status Service");
+		addService("00001806-0000-1000-8000-00805f9b34fb", "Reference Time Update Service");
+		addService("00001814-0000-1000-8000-00805f9b34fb", "Running Speed and Cadence");
+		addService("00001813-0000-1000-8000-00805f9b34fb", "Scan Parameters");
+		addService("00001804-0000-1000-8000-00805f9b34fb", "Tx Power");
+		addService("6e400001-b5a3-f393-e0a9-e50e24dcca9e", "ECG Test");
 		
-		mCharacteristics.put("00002a43-0000-1000-8000-00805f9b34fb", "Alert Category ID");
-		mCharacteristics.put("00002a42-0000-1000-8000-00805f9b34fb", "Alert Category ID Bit Mask");
-		mCharacteristics.put("00002a06-0000-1000-8000-00805f9b34fb", "Alert Level");
-		mCharacteristics.put("00002a44-0000-1000-8000-00805f9b34fb", "Alert Notification Control Point");
-		mCharacteristics.put("00002a3f-0000-1000-8000-00805f9b34fb", "Alert Status");
-		mCharacteristics.put("00002a01-0000-1000-8000-00805f9b34fb", "Appearance");
-		mCharacteristics.put("00002a19-0000-1000-8000-00805f9b34fb", "Battery Level");
-		mCharacteristics.put("00002a49-0000-1000-8000-00805f9b34fb", "Blood Pressure Feature");
-		mCharacteristics.put("00002a35-0000-1000-8000-00805f9b34fb", "Blood Pressure Measurement");
-		mCharacteristics.put("00002a38-0000-1000-8000-00805f9b34fb", "Body Sensor Location");
-		mCharacteristics.put("00002a22-0000-1000-8000-00805f9b34fb", "Boot Keyboard Input Report");
-		mCharacteristics.put("00002a32-0000-1000-8000-00805f9b34fb", "Boot Keyboard Output Report");
-		mCharacteristics.put("00002a33-0000-1000-8000-00805f9b34fb", "Boot Mouse Input Report");
-		mCharacteristics.put("00002a5c-0000-1000-8000-00805f9b34fb", "CSC Feature");
-		mCharacteristics.put("00002a5b-0000-1000-8000-00805f9b34fb", "CSC Measurement");
-		mCharacteristics.put("00002a2b-0000-1000-8000-00805f9b34fb", "Current Time");
-		mCharacteristics.put("00002a66-0000-1000-8000-00805f9b34fb", "Cycling Power Control Point");
-		mCharacteristics.put("00002a65-0000-1000-8000-00805f9b34fb", "Cycling Power Feature");
-		mCharacteristics.put("00002a63-0000-1000-8000-00805f9b34fb", "Cycling Power Measurement");
-		mCharacteristics.put("00002a64-0000-1000-8000-00805f9b34fb", "Cycling Power Vector");
-		mCharacteristics.put("00002a08-0000-1000-8000-00805f9b34fb", "Date Time");
-		mCharacteristics.put("00002a0a-0000-1000-8000-00805f9b34fb", "Day Date Time");
-		mCharacteristics.put("00002a09-0000-1000-8000-00805f9b34fb", "Day of Week");
-		mCharacteristics.put("00002a00-0000-1000-8000-00805f9b34fb", "Device Name");
-		mCharacteristics.put("00002a0d-0000-1000-8000-00805f9b34fb", "DST Offset");
-		mCharacteristics.put("00002a0c-0000-1000-8000-00805f9b34fb", "Exact Time 256");
-		mCharacteristics.put("00002a26-0000-1000-8000-00805f9b34fb", "Firmware Revision String");
-		mCharacteristics.put("00002a51-0000-1000-8000-00805f9b34fb", "Glucose Feature");
-		mCharacteristics.put("00002a18-0000-1000-8000-00805f9b34fb", "Glucose Measurement");
-		mCharacteristics.put("00002a34-0000-1000-8000-00805f9b34fb", "Glucose Measurement Context");
-		mCharacteristics.put("00002a27-0000-1000-8000-00805f9b34fb", "Hardware Revision String");
-		mCharacteristics.put("00002a39-0000-1000-8000-00805f9b34fb", "Heart Rate Control Point");
-		mCharacteristics.put("00002a37-0000-1000-8000-00805f9b34fb", "Heart Rate Measurement");
-		mCharacteristics.put("00002a4c-0000-1000-8000-00805f9b34fb", "HID Control Point");
-		mCharacteristics.put("00002a4a-0000-1000-8000-00805f9b34fb", "HID Information");
-		mCharacteristics.put("00002a2a-0000-1000-8000-00805f9b34fb", "IEEE 11073-20601 Regulatory Certification Data List");
-		mCharacteristics.put("00002a36-0000-1000-8000-00805f9b34fb", "Intermediate Cuff Pressure");
-		mCharacteristics.put("00002a1e-0000-1000-8000-00805f9b34fb", "Intermediate Temperature");
-		mCharacteristics.put("00002a6b-0000-1000-8000-00805f9b34fb", "LN Control Point");
-		mCharacteristics.put("00002a6a-0000-1000-8000-00805f9b34fb", "LN Feature");
-		mCharacteristics.put("00002a0f-0000-1000-8000-00805f9b34fb", "Local Time Information");
-		mCharacteristics.put("00002a67-0000-1000-8000-00805f9b34fb", "Location and Speed");
-		mCharacteristics.put("00002a29-0000-1000-8000-00805f9b34fb", "Manufacturer Name String");
-		mCharacteristics.put("00002a21-0000-1000-8000-00805f9b34fb", "Measurement Interval");
-		mCharacteristics.put("00002a24-0000-1000-8000-00805f9b34fb", "Model Number String");
-		mCharacteristics.put("00002a68-0000-1000-8000-00805f9b34fb", "Navigation");
-		mCharacteristics.put("00002a46-0000-1000-8000-00805f9b34fb", "New Alert");
-		mCharacteristics.put("00002a04-0000-1000-8000-00805f9b34fb", "Peripheral Preferred Connection Parameters");
-		mCharacteristics.put("00002a02-0000-1000-8000-00805f9b34fb", "Peripheral Privacy Flag");
-		mCharacteristics.put("00002a50-0000-1000-8000-00805f9b34fb", "PnP ID");
-		mCharacteristics.put("00002a69-0000-1000-8000-00805f9b34fb", "Position Quality");
-		mCharacteristics.put("00002a4e-0000-1000-8000-00805f9b34fb", "Protocol Mode");
-		mCharacteristics.put("00002a03-0000-1000-8000-00805f9b34fb", "Reconnection Address");
-		mCharacteristics.put("00002a52-0000-1000-8000-00805f9b34fb", "Record Access Control Point");
-		mCharacteristics.put("00002a14-0000-1000-8000-00805f9b34fb", "Reference Time Information");
-		mCharacteristics.put("00002a4d-0000-1000-8000-00805f9b34fb", "Report");
-		mCharacteristics.put("00002a4b-0000-1000-8000-00805f9b34fb", "Report Map");
-		mCharacteristics.put("00002a40-0000-1000-8000-00805f9b34fb", "Ringer Control Point");
-		mCharacteristics.put("00002a41-0000-1000-8000-00805f9b34fb", "Ringer Setting");
-		mCharacteristics.put("00002a54-0000-1000-8000-00805f9b34fb", "RSC Feature");
-		mCharacteristics.put("00002a53-0000-1000-8000-00805f9b34fb", "RSC Measurement");
-		mCharacteristics.put("00002a55-0000-1000-8000-00805f9b34fb", "SC Control Point");
-		mCharacteristics.put("00002a4f-0000-1000-8000-00805f9b34fb", "Scan Interval Window");
-		mCharacteristics.put("00002a31-0000-1000-8000-00805f9b34fb", "Scan Refresh");
-		mCharacteristics.put("00002a5d-0000-1000-8000-00805f9b34fb", "Sensor Location");
-		mCharacteristics.put("00002a25-0000-1000-8000-00805f9b34fb", "Serial Number String");
-		mCharacteristics.put("00002a05-0000-1000-8000-00805f9b34fb", "Service Changed");
-		mCharacteristics.put("00002a28-0000-1000-8000-00805f9b34fb", "Software Revision String");
-		mCharacteristics.put("00002a47-0000-1000-8000-00805f9b34fb", "Supported New Alert Category");
-		mCharacteristics.put("00002a48-0000-1000-8000-00805f9b34fb", "Supported Unread Alert Category");
-		mCharacteristics.put("00002a23-0000-1000-8000-00805f9b34fb", "System ID");
-		mCharacteristics.put("00002a1c-0000-1000-8000-00805f9b34fb", "Temperature Measurement");
-		mCharacteristics.put("00002a1d-0000-1000-8000-00805f9b34fb", "Temperature Type");
-		mCharacteristics.put("00002a12-0000-1000-8000-00805f9b34fb", "Time Accuracy");
-		mCharacteristics.put("00002a13-0000-1000-8000-00805f9b34fb", "Time Source");
-		mCharacteristics.put("00002a16-0000-1000-8000-00805f9b34fb", "Time Update Control Point");
-		mCharacteristics.put("00002a17-0000-1000-8000-00805f9b34fb", "Time Update State");
-		mCharacteristics.put("00002a11-0000-1000-8000-00805f9b34fb", "Time with DST");
-		mCharacteristics.put("00002a0e-0000-1000-8000-00805f9b34fb", "Time Zone");
-		mCharacteristics.put("00002a07-0000-1000-8000-00805f9b34fb", "Tx Power Level");
-		mCharacteristics.put("00002a45-0000-1000-8000-00805f9b34fb", "Unread Alert Status");
-		mCharacteristics.put("6e400002-b5a3-f393-e0a9-e50e24dcca9e", "ECG Wave");
+		addCharacteristic("00002a43-0000-1000-8000-00805f9b34fb", "Alert Category ID");
+		addCharacteristic("00002a42-0000-1000-8000-00805f9b34fb", "Alert Category ID Bit Mask");
+		addCharacteristic("00002a06-0000-1000-8000-00805f9b34fb", "Alert Level");
+		addCharacteristic("00002a44-0000-1000-8000-00805f9b34fb", "Alert Notification Control Point");
+		addCharacteristic("00002a3f-0000-1000-8000-00805f9b34fb", "Alert Status");
+		addCharacteristic("00002a01-0000-1000-8000-00805f9b34fb", "Appearance");
+		addCharacteristic("00002a19-0000-1000-8000-00805f9b34fb", "Battery Level");
+		addCharacteristic("00002a49-0000-1000-8000-00805f9b34fb", "Blood Pressure Feature");
+		addCharacteristic("00002a35-0000-1000-8000-00805f9b34fb", "Blood Pressure Measurement");
+		addCharacteristic("00002a38-0000-1000-8000-00805f9b34fb", "Body Sensor Location");
+		addCharacteristic("00002a22-0000-1000-8000-00805f9b34fb", "Boot Keyboard Input Report");
+		addCharacteristic("00002a32-0000-1000-8000-00805f9b34fb", "Boot Keyboard Output Report");
+		addCharacteristic("00002a33-0000-1000-8000-00805f9b34fb", "Boot Mouse Input Report");
+		addCharacteristic("00002a5c-0000-1000-8000-00805f9b34fb", "CSC Feature");
+		addCharacteristic("00002a5b-0000-1000-8000-00805f9b34fb", "CSC Measurement");
+		addCharacteristic("00002a2b-0000-1000-8000-00805f9b34fb", "Current Time");
+		addCharacteristic("00002a66-0000-1000-8000-00805f9b34fb", "Cycling Power Control Point");
+		addCharacteristic("00002a65-0000-1000-8000-00805f9b34fb", "Cycling Power Feature");
+		addCharacteristic("00002a63-0000-1000-8000-00805f9b34fb", "Cycling Power Measurement");
+		addCharacteristic("00002a64-0000-1000-8000-00805f9b34fb", "Cycling Power Vector");
+		addCharacteristic("00002a08-0000-1000-8000-00805f9b34fb", "Date Time");
+		addCharacteristic("00002a0a-0000-1000-8000-00805f9b34fb", "Day Date Time");
+		addCharacteristic("00002a09-0000-1000-8000-00805f9b34fb", "Day of Week");
+		addCharacteristic("00002a00-0000-1000-8000-00805f9b34fb", "Device Name");
+		addCharacteristic("00002a0d-0000-1000-8000-00805f9b34fb", "DST Offset");
+		addCharacteristic("00002a0c-0000-1000-8000-00805f9b34fb", "Exact Time 256");
+		addCharacteristic("00002a26-0000-1000-8000-00805f9b34fb", "Firmware Revision String");
+		addCharacteristic("00002a51-0000-1000-8000-00805f9b34fb", "Glucose Feature");
+		addCharacteristic("00002a18-0000-1000-8000-00805f9b34fb", "Glucose Measurement");
+		addCharacteristic("00002a34-0000-1000-8000-00805f9b34fb", "Glucose Measurement Context");
+		addCharacteristic("00002a27-0000-1000-8000-00805f9b34fb", "Hardware Revision String");
+		addCharacteristic("00002a39-0000-1000-8000-00805f9b34fb", "Heart Rate Control Point");
+		addCharacteristic("00002a37-0000-1000-8000-00805f9b34fb", "Heart Rate Measurement");
+		addCharacteristic("00002a4c-0000-1000-8000-00805f9b34fb", "HID Control Point");
+		addCharacteristic("00002a4a-0000-1000-8000-00805f9b34fb", "HID Information");
+		addCharacteristic("00002a2a-0000-1000-8000-00805f9b34fb", "IEEE 11073-20601 Regulatory Certification Data List");
+		addCharacteristic("00002a36-0000-1000-8000-00805f9b34fb", "Intermediate Cuff Pressure");
+		addCharacteristic("00002a1e-0000-1000-8000-00805f9b34fb", "Intermediate Temperature");
+		addCharacteristic("00002a6b-0000-1000-8000-00805f9b34fb", "LN Control Point");
+		addCharacteristic("00002a6a-0000-1000-8000-00805f9b34fb", "LN Feature");
+		addCharacteristic("00002a0f-0000-1000-8000-00805f9b34fb", "Local Time Information");
+		addCharacteristic("00002a67-0000-1000-8000-00805f9b34fb", "Location and Speed");
+		addCharacteristic("00002a29-0000-1000-8000-00805f9b34fb", "Manufacturer Name String");
+		addCharacteristic("00002a21-0000-1000-8000-00805f9b34fb", "Measurement Interval");
+		addCharacteristic("00002a24-0000-1000-8000-00805f9b34fb", "Model Number String");
+		addCharacteristic("00002a68-0000-1000-8000-00805f9b34fb", "Navigation");
+		addCharacteristic("00002a46-0000-1000-8000-00805f9b34fb", "New Alert");
+		addCharacteristic("00002a04-0000-1000-8000-00805f9b34fb", "Peripheral Preferred Connection Parameters");
+		addCharacteristic("00002a02-0000-1000-8000-00805f9b34fb", "Peripheral Privacy Flag");
+		addCharacteristic("00002a50-0000-1000-8000-00805f9b34fb", "PnP ID");
+		addCharacteristic("00002a69-0000-1000-8000-00805f9b34fb", "Position Quality");
+		addCharacteristic("00002a4e-0000-1000-8000-00805f9b34fb", "Protocol Mode");
+		addCharacteristic("00002a03-0000-1000-8000-00805f9b34fb", "Reconnection Address");
+		addCharacteristic("00002a52-0000-1000-8000-00805f9b34fb", "Record Access Control Point");
+		addCharacteristic("00002a14-0000-1000-8000-00805f9b34fb", "Reference Time Information");
+		addCharacteristic("00002a4d-0000-1000-8000-00805f9b34fb", "Report");
+		addCharacteristic("00002a4b-0000-1000-8000-00805f9b34fb", "Report Map");
+		addCharacteristic("00002a40-0000-1000-8000-00805f9b34fb", "Ringer Control Point");
+		addCharacteristic("00002a41-0000-1000-8000-00805f9b34fb", "Ringer Setting");
+		addCharacteristic("00002a54-0000-1000-8000-00805f9b34fb", "RSC Feature");
+		addCharacteristic("00002a53-0000-1000-8000-00805f9b34fb", "RSC Measurement");
+		addCharacteristic("00002a55-0000-1000-8000-00805f9b34fb", "SC Control Point");
+		addCharacteristic("00002a4f-0000-1000-8000-00805f9b34fb", "Scan Interval Window");
+		addCharacteristic("00002a31-0000-1000-8000-00805f9b34fb", "Scan Refresh");
+		addCharacteristic("00002a5d-0000-1000-8000-00805f9b34fb", "Sensor Location");
+		addCharacteristic("00002a25-0000-1000-8000-00805f9b34fb", "Serial Number String");
+		addCharacteristic("00002a05-0000-1000-8000-00805f9b34fb", "Service Changed");
+		addCharacteristic("00002a28-0000-1000-8000-00805f9b34fb", "Software Revision String");
+		addCharacteristic("00002a47-0000-1000-8000-00805f9b34fb", "Supported New Alert Category");
+		addCharacteristic("00002a48-0000-1000-8000-00805f9b34fb", "Supported Unread Alert Category");
+		addCharacteristic("00002a23-0000-1000-8000-00805f9b34fb", "System ID");
+		addCharacteristic("00002a1c-0000-1000-8000-00805f9b34fb", "Temperature Measurement");
+		addCharacteristic("00002a1d-0000-1000-8000-00805f9b34fb", "Temperature Type");
+		addCharacteristic("00002a12-0000-1000-8000-00805f9b34fb", "Time Accuracy");
+		addCharacteristic("00002a13-0000-1000-8000-00805f9b34fb", "Time Source");
+		addCharacteristic("00002a16-0000-1000-8000-00805f9b34fb", "Time Update Control Point");
+		addCharacteristic("00002a17-0000-1000-8000-00805f9b34fb", "Time Update State");
+		addCharacteristic("00002a11-0000-1000-8000-00805f9b34fb", "Time with DST");
+		addCharacteristic("00002a0e-0000-1000-8000-00805f9b34fb", "Time Zone");
+		addCharacteristic("00002a07-0000-1000-8000-00805f9b34fb", "Tx Power Level");
+		addCharacteristic("00002a45-0000-1000-8000-00805f9b34fb", "Unread Alert Status");
+		addCharacteristic("6e400002-b5a3-f393-e0a9-e50e24dcca9e", "ECG Wave");
 		
-		mValueFormats.put(Integer.valueOf(52), "32bit float");
-		mValueFormats.put(Integer.valueOf(50), "16bit float");
-		mValueFormats.put(Integer.valueOf(34), "16bit signed int");
-		mValueFormats.put(Integer.valueOf(36), "32bit signed int");
-		mValueFormats.put(Integer.valueOf(33), "8bit signed int");
-		mValueFormats.put(Integer.valueOf(18), "16bit unsigned int");
-		mValueFormats.put(Integer.valueOf(20), "32bit unsigned int");
-		mValueFormats.put(Integer.valueOf(17), "8bit unsigned int");
+		mValueFormats.put(52, "32bit float");
+		mValueFormats.put(50, "16bit float");
+		mValueFormats.put(34, "16bit signed int");
+		mValueFormats.put(36, "32bit signed int");
+		mValueFormats.put(33, "8bit signed int");
+		mValueFormats.put(18, "16bit unsigned int");
+		mValueFormats.put(20, "32bit unsigned int");
+		mValueFormats.put(17, "8bit unsigned int");
 		
 		// appearance string description
 		// https://developer.bluetooth.org/gatt/characteristics/Pages/CharacteristicViewer.aspx?u=org.bluetooth.characteristic.gap.appearance.xml
-		mAppearance.put(Integer.valueOf(833), "Heart Rate Sensor: Belt");
-		mAppearance.put(Integer.valueOf(832), "Generic Heart Rate Sensor");
-		mAppearance.put(Integer.valueOf(0), "Unknown");
-		mAppearance.put(Integer.valueOf(64), "Generic Phone");
-		mAppearance.put(Integer.valueOf(1157), "Cycling: Speed and Cadence Sensor");
-		mAppearance.put(Integer.valueOf(1152), "General Cycling");
-		mAppearance.put(Integer.valueOf(1153), "Cycling Computer");
-		mAppearance.put(Integer.valueOf(1154), "Cycling: Speed Sensor");
-		mAppearance.put(Integer.valueOf(1155), "Cycling: Cadence Sensor");
-		mAppearance.put(Integer.valueOf(1156), "Cycling: Speed and Cadence Sensor");
-		mAppearance.put(Integer.valueOf(1157), "Cycling: Power Sensor");
+		mAppearance.put(833, "Heart Rate Sensor: Belt");
+		mAppearance.put(832, "Generic Heart Rate Sensor");
+		mAppearance.put(0, "Unknown");
+		mAppearance.put(64, "Generic Phone");
+		mAppearance.put(1157, "Cycling: Speed and Cadence Sensor");
+		mAppearance.put(1152, "General Cycling");
+		mAppearance.put(1153, "Cycling Computer");
+		mAppearance.put(1154, "Cycling: Speed Sensor");
+		mAppearance.put(1155, "Cycling: Cadence Sensor");
+		mAppearance.put(1156, "Cycling: Speed and Cadence Sensor");
+		mAppearance.put(1157, "Cycling: Power Sensor");
 		
-		mHeartRateSensorLocation.put(Integer.valueOf(0), "Other");
-		mHeartRateSensorLocation.put(Integer.valueOf(1), "Chest");
-		mHeartRateSensorLocation.put(Integer.valueOf(2), "Wrist");
-		mHeartRateSensorLocation.put(Integer.valueOf(3), "Finger");
-		mHeartRateSensorLocation.put(Integer.valueOf(4), "Hand");
-		mHeartRateSensorLocation.put(Integer.valueOf(5), "Ear Lobe");
-		mHeartRateSensorLocation.put(Integer.valueOf(6), "Foot");
+		mHeartRateSensorLocation.put(0, "Other");
+		mHeartRateSensorLocation.put(1, "Chest");
+		mHeartRateSensorLocation.put(2, "Wrist");
+		mHeartRateSensorLocation.put(3, "Finger");
+		mHeartRateSensorLocation.put(4, "Hand");
+		mHeartRateSensorLocation.put(5, "Ear Lobe");
+		mHeartRateSensorLocation.put(6, "Foot");
 	}
 }
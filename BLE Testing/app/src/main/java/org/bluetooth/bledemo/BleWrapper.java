@@ -7,6 +7,8 @@ or redistributed without permission.
 
 This program is a wrapper class for BLE. It does the set up of the application
 and handles BLE callbacks. 
+It is also the GATT EcgTransport: ECG Wave notifications (live or replayed
+from a FileTransport) go to its EcgAcquisition, which owns the pipeline.
 More important comments are above each method in the code.
 
 @author         Cloudi Ng
@@ -16,11 +18,11 @@ More important comments are above each method in the code.
 
 *******************************************************************************/
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Locale;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 import android.app.Activity;
 import android.bluetooth.BluetoothAdapter;
@@ -32,17 +34,27 @@ import android.bluetooth.BluetoothGattDescriptor;
 import android.bluetooth.BluetoothGattService;
 import android.bluetooth.BluetoothManager;
 import android.bluetooth.BluetoothProfile;
+import android.bluetooth.le.BluetoothLeScanner;
 import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanRecord;
 import android.bluetooth.le.ScanResult;
 import android.bluetooth.le.ScanSettings;
 import android.content.Context;
 import android.content.pm.PackageManager;
 import android.os.Handler;
+import android.os.ParcelUuid;
+import android.os.SystemClock;
 import android.util.Log;
 
-public class BleWrapper {
+public class BleWrapper implements EcgTransport {
 	// defines (in milliseconds) how often RSSI should be updated
     private static final int RSSI_UPDATE_TIME_INTERVAL = 1500; // 1.5 seconds
+    // ATT MTU every link starts with, leaves 20 bytes per notification
+    public static final int DEFAULT_MTU = 23;
+    // asked for right after connecting. 247 fills one LE data length extension PDU (251 - 4 byte L2CAP header),
+    // so a 244 byte notification (122 samples) still goes out in a single radio packet
+    public static final int REQUESTED_MTU = 247;
 
     // callback object through which we are returning results to the caller
     private BleWrapperUiCallbacks mUiCallback = null;
@@ -52,8 +64,23 @@ public class BleWrapper {
     // creates BleWrapper object, set its parent activity and callback object
     public BleWrapper(Activity parent, BleWrapperUiCallbacks callback) {
     	this.mParent = parent;
+    	mReplayService.addCharacteristic(mReplayCharacteristic);
     	mUiCallback = callback;
     	if(mUiCallback == null) mUiCallback = NULL_CALLBACK;
+    	// becomes our transport listener, ECG Wave packets go straight to its pipeline
+    	mAcquisition = new EcgAcquisition(this, new EcgPipeline());
+    	mParserRegistry.register(BleDefinedUUIDs.Characteristic.ECG_WAVE,
+    			new CharacteristicParserRegistry.EcgWaveParser(mAcquisition.getPipeline().getDecoder()));
+
+    	// link side numbers go next to the pipeline ones
+    	final MetricsRegistry metrics = getMetrics();
+    	mNotificationsMetric = metrics.counter("ble.notifications");
+    	metrics.gauge("ble.mtu", new MetricsRegistry.Gauge() {
+    		@Override public long get() { return mMtu; }
+    	});
+    	metrics.gauge("gatt.pending", new MetricsRegistry.Gauge() {
+    		@Override public long get() { return mGattQueue.getPendingCount(); }
+    	});
     }
 
     public BluetoothManager           getManager() { return mBluetoothManager; }
@@ -62,7 +89,53 @@ public class BleWrapper {
     public BluetoothGatt              getGatt()    { return mBluetoothGatt; }
     public BluetoothGattService       getCachedService() { return mBluetoothSelectedService; }
     public List<BluetoothGattService> getCachedServices() { return mBluetoothGattServices; }
-    public boolean                    isConnected() { return mConnected; }
+    public boolean                    isReplaying() { return mReplay != null; }
+    // ATT MTU agreed with the device, notifications carry up to getMtu() - 3 bytes
+    public int                        getMtu() { return mMtu; }
+    public EcgAcquisition             getAcquisition() { return mAcquisition; }
+    public EcgPipeline                getEcgPipeline() { return mAcquisition.getPipeline(); }
+    public SampleRingBuffer           getEcgSamples() { return getEcgPipeline().getSamples(); }
+    public GattOperationQueue         getGattQueue() { return mGattQueue; }
+    public MetricsRegistry            getMetrics() { return getEcgPipeline().getMetrics(); }
+
+    @Override
+    public boolean isConnected() {
+    	return mConnected;
+    }
+
+    @Override
+    public String getDeviceAddress() {
+    	return mDeviceAddress;
+    }
+
+    // notifications carry up to MTU - 3 bytes (ATT opcode and handle)
+    @Override
+    public int getMaxPacketSize() {
+    	return mMtu - 3;
+    }
+
+    // EcgAcquisition is the listener unless someone else takes over the ECG Wave packets
+    @Override
+    public void setListener(EcgTransport.Listener listener) {
+    	mTransportListener = listener;
+    }
+
+    // turn ECG Wave notifications on / off on the connected sensor (or the replay)
+    // services have to be discovered first
+    @Override
+    public boolean subscribe(boolean enabled) {
+    	final FileTransport replay = mReplay;
+    	if(replay != null) return replay.subscribe(enabled);
+    	if(mBluetoothGattServices == null) return false;
+    	for(BluetoothGattService service : mBluetoothGattServices) {
+    		BluetoothGattCharacteristic ch = service.getCharacteristic(BleDefinedUUIDs.Characteristic.ECG_WAVE);
+    		if(ch != null) {
+    			setNotificationForCharacteristic(ch, enabled);
+    			return true;
+    		}
+    	}
+    	return false;
+    }
 
 	// run test and check if this device has BT and BLE hardware available
 	public boolean checkBleHardwareAvailable() {
@@ -91,15 +164,50 @@ public class BleWrapper {
 		return adapter.isEnabled();
 	}
 	
+	// ScanSettings.SCAN_MODE_LOW_POWER / _BALANCED / _LOW_LATENCY, used from the next startScanning()
+	public void setScanMode(int scanMode) {
+		mScanMode = scanMode;
+	}
+
+	// > 0 lets the controller collect results and hand them over in batches every delayMillis
+	// (onBatchScanResults), 0 reports every advertisement right away
+	public void setScanReportDelay(long delayMillis) {
+		mScanReportDelay = delayMillis;
+	}
+
+	// true only reports devices advertising our ECG service, filtered by the controller when it can
+	public void setScanEcgOnly(boolean ecgOnly) {
+		mScanEcgOnly = ecgOnly;
+	}
+
+	public int     getScanMode()        { return mScanMode; }
+	public long    getScanReportDelay() { return mScanReportDelay; }
+	public boolean isScanEcgOnly()      { return mScanEcgOnly; }
+
 	// scan for BLE devices around
+	// with a filter the app is not woken up for every other advertiser in range
 	public void startScanning() {
+		List<ScanFilter> filters = null;
+		if(mScanEcgOnly) {
+			filters = new ArrayList<ScanFilter>();
+			filters.add(new ScanFilter.Builder().setServiceUuid(new ParcelUuid(BleDefinedUUIDs.Service.ECG_TEST)).build());
+		}
+
         ScanSettings.Builder builder = new ScanSettings.Builder();
-        mBluetoothAdapter.getBluetoothLeScanner().startScan(null, builder.build(), mDeviceFoundCallback);
+        builder.setScanMode(mScanMode);
+        // batching only helps when the controller does it, otherwise the stack just delays results
+        mScanBatching = mScanReportDelay > 0 && mBluetoothAdapter.isOffloadedScanBatchingSupported();
+        if(mScanBatching) builder.setReportDelay(mScanReportDelay);
+        mBluetoothAdapter.getBluetoothLeScanner().startScan(filters, builder.build(), mDeviceFoundCallback);
 	}
 	
 	// stop scanning after timeout
 	public void stopScanning() {
-		mBluetoothAdapter.getBluetoothLeScanner().stopScan(mDeviceFoundCallback);
+		BluetoothLeScanner scanner = mBluetoothAdapter.getBluetoothLeScanner();
+		if(scanner == null) return; // BT got turned off
+		// hand over whatever is still waiting in the controller's batch
+		if(mScanBatching) scanner.flushPendingScanResults(mDeviceFoundCallback);
+		scanner.stopScan(mDeviceFoundCallback);
 	}
 
     // initialise BLE
@@ -120,6 +228,7 @@ public class BleWrapper {
     }
 
     // connect to device that has a specific address
+    @Override
     public boolean connect(final String deviceAddress) {
         if (mBluetoothAdapter == null || deviceAddress == null) return false;
         mDeviceAddress = deviceAddress;
@@ -127,6 +236,7 @@ public class BleWrapper {
         // check if we need to connect from scratch or just reconnect to previous device
         if(mBluetoothGatt != null && mBluetoothGatt.getDevice().getAddress().equals(deviceAddress)) {
         	// just reconnect
+        	mGattQueue.setGatt(mBluetoothGatt);
         	return mBluetoothGatt.connect();
         }
         else {
@@ -139,6 +249,7 @@ public class BleWrapper {
             }
             // connect with remote device
         	mBluetoothGatt = mBluetoothDevice.connectGatt(mParent, false, mBleCallback);
+        	mGattQueue.setGatt(mBluetoothGatt);
         }
         return true;
     }  
@@ -146,17 +257,94 @@ public class BleWrapper {
     // disconnect device.
     // suppose to reconnect to device later with GATT client, but sometimes don't work
     // to be worked on
+    @Override
     public void disconnect() {
+    	stopReplay();
     	if(mBluetoothGatt != null) mBluetoothGatt.disconnect();
     	 mUiCallback.uiDeviceDisconnected(mBluetoothGatt, mBluetoothDevice);
     }
 
     // close GATT client completely
+    @Override
     public void close() {
     	if(mBluetoothGatt != null) mBluetoothGatt.close();
     	mBluetoothGatt = null;
+    	mGattQueue.setGatt(null);
+    	// characteristics of the old connection are gone, a new one comes with new objects
+    	mResolvedParsers.clear();
     }    
 
+    // play a recording back instead of talking to a device, see FileTransport
+    // UI gets connected, the ECG service and the ECG Wave details, then every recorded packet
+    // exactly like from the sensor. BleWrapper owns the reader from now on
+    public void startReplay(final EcgRecordingReader reader, final float speed) {
+    	stopReplay();
+    	final FileTransport replay = new FileTransport(reader, speed);
+    	// packets have to look like what our decoder expects, counter or not
+    	replay.setSequenceCounter(getEcgPipeline().getDecoder().hasSequenceCounter());
+    	replay.setListener(mReplayListener);
+    	mReplay = replay;
+    	mDeviceAddress = reader.getDeviceAddress();
+    	mBluetoothSelectedService = mReplayService;
+    	mBluetoothGattServices = new ArrayList<BluetoothGattService>();
+    	mBluetoothGattServices.add(mBluetoothSelectedService);
+    	mConnected = true;
+
+    	mUiCallback.uiDeviceConnected(mBluetoothGatt, mBluetoothDevice);
+    	mUiCallback.uiAvailableServices(mBluetoothGatt, mBluetoothDevice, mBluetoothGattServices);
+    	mUiCallback.uiCharacteristicsDetails(mBluetoothGatt, mBluetoothDevice, mBluetoothSelectedService, mReplayCharacteristic);
+    	replay.connect(mDeviceAddress);
+    }
+
+    // stop replay, no more callbacks come from it once this returns
+    public void stopReplay() {
+    	FileTransport replay = mReplay;
+    	if(replay == null) return;
+    	// taken out first, so its last onDisconnected is not reported to the UI a second time
+    	mReplay = null;
+    	mConnected = false;
+    	replay.close();
+    }
+
+    // sits between the replay and our own listener / UI, as if the packets came from the GATT callback
+    private final EcgTransport.Listener mReplayListener = new EcgTransport.Listener() {
+    	@Override
+    	public void onConnected(EcgTransport transport) {
+    		final EcgTransport.Listener listener = mTransportListener;
+    		if(listener != null) listener.onConnected(BleWrapper.this);
+    	}
+
+    	@Override
+    	public void onReady(EcgTransport transport) {
+    		// a recording is all ECG Wave, it always streams
+    		transport.subscribe(true);
+    		final EcgTransport.Listener listener = mTransportListener;
+    		if(listener != null) listener.onReady(BleWrapper.this);
+    	}
+
+    	@Override
+    	public void onPacket(EcgTransport transport, byte[] packet, long arrivalNanos) {
+    		mReplayCharacteristic.setValue(packet);
+    		handleNotification(mReplayCharacteristic, arrivalNanos);
+    	}
+
+    	@Override
+    	public void onDisconnected(EcgTransport transport) {
+    		final FileTransport replay = (FileTransport) transport;
+    		if(replay.getError() != null) Log.e("EcgReplay", "Replay of " + replay.getReader().getFile() + " failed", replay.getError());
+    		Log.i("EcgReplay", replay.getPacketsReplayed() + " packets in " + replay.getElapsedNanos() / 1000000 + " ms, speed "
+    				+ replay.getSpeed() + ", worst lateness " + replay.getMaxLateNanos() / 1000 + " us");
+    		final EcgTransport.Listener listener = mTransportListener;
+    		if(listener != null) listener.onDisconnected(BleWrapper.this);
+    		// reached the end on its own, behave like the sensor going away
+    		if(replay != mReplay) return;
+    		mReplay = null;
+    		mConnected = false;
+    		replay.close();
+    		mUiCallback.uiDeviceDisconnected(mBluetoothGatt, mBluetoothDevice);
+    	}
+    };
+
     // prompt to read new RSSI value in accordance to the #ms set above
     public void readPeriodicalyRssiValue(final boolean repeat) {
     	mTimerEnabled = repeat;
@@ -177,8 +365,8 @@ public class BleWrapper {
 					return;
 				}
 				
-				// request RSSI value
-				mBluetoothGatt.readRemoteRssi();
+				// request RSSI value, waits behind anything more important
+				mGattQueue.readRemoteRssi();
 				// add call it once more
 				readPeriodicalyRssiValue(mTimerEnabled);
 			}
@@ -198,7 +386,7 @@ public class BleWrapper {
     // call to discover all available services on the device
     // results returned to by calling the callback object
     public void startServicesDiscovery() {
-    	if(mBluetoothGatt != null) mBluetoothGatt.discoverServices();
+    	if(mBluetoothGatt != null) mGattQueue.discoverServices();
     }
 
     // get the appropriate services the device handles, then use the UI callback to deal with this shit
@@ -226,7 +414,7 @@ public class BleWrapper {
     public void requestCharacteristicValue(BluetoothGattCharacteristic ch) {
         if (mBluetoothAdapter == null || mBluetoothGatt == null) return;
         
-        mBluetoothGatt.readCharacteristic(ch);
+        mGattQueue.readCharacteristic(ch, GattOperationQueue.PRIORITY_NORMAL);
         // new value available will be notified in Callback Object
     }
 
@@ -235,89 +423,60 @@ public class BleWrapper {
     // after that, call this mtd
     // MUST RMB TO UPDATE THE VALUE BY CALLING REQUESTCHARACTERISTICVALUE() FIRST
     public void getCharacteristicValue(BluetoothGattCharacteristic ch) {
-        if (mBluetoothAdapter == null || mBluetoothGatt == null || ch == null) return;
-        
-        byte[] rawValue = ch.getValue();
-        String strValue = null;
-        int intValue = 0;
+        reportValue(ch, SystemClock.elapsedRealtimeNanos());
+    }
 
-        // read and parse characteristic to read value
-        UUID uuid = ch.getUuid();
+    // parse the current value of ch with its parser and hand it to the UI
+    // GATT callback (or replay) thread only
+    private void reportValue(BluetoothGattCharacteristic ch, long arrivalNanos) {
+        if (ch == null) return;
+        // a replay has no adapter or gatt behind it
+        if (mReplay == null && (mBluetoothAdapter == null || mBluetoothGatt == null)) return;
         
-        if(uuid.equals(BleDefinedUUIDs.Characteristic.HEART_RATE_MEASUREMENT)) { // heart rate by default as ref frm def code
-        	// follow https://developer.bluetooth.org/gatt/characteristics/Pages/CharacteristicViewer.aspx?u=org.bluetooth.characteristic.heart_rate_measurement.xml
-        	// first check format used by the device - it is specified in bit 0 and tells us if we should ask for index 1 (and uint8) or index 2 (and uint16)
-        	int index = ((rawValue[0] & 0x01) == 1) ? 2 : 1;
-        	// define format
-        	int format = (index == 1) ? BluetoothGattCharacteristic.FORMAT_UINT8 : BluetoothGattCharacteristic.FORMAT_UINT16;
-        	// get the value
-        	intValue = ch.getIntValue(format, index);
-        	strValue = intValue + " bpm";
-
-
-        }
-        else if (uuid.equals(BleDefinedUUIDs.Characteristic.HEART_RATE_MEASUREMENT) || // manufacturer name string
-        		 uuid.equals(BleDefinedUUIDs.Characteristic.MODEL_NUMBER_STRING) || // model number string)
-        		 uuid.equals(BleDefinedUUIDs.Characteristic.FIRMWARE_REVISION_STRING)) // firmware revision string
-        {
-        	// follow https://developer.bluetooth.org/gatt/characteristics/Pages/CharacteristicViewer.aspx?u=org.bluetooth.characteristic.manufacturer_name_string.xml etc.
-        	// string value are usually simple utf8s string at index 0
-        	strValue = ch.getStringValue(0);
-        }
-        else if(uuid.equals(BleDefinedUUIDs.Characteristic.APPEARANCE)) { // appearance
-        	// follow: https://developer.bluetooth.org/gatt/characteristics/Pages/CharacteristicViewer.aspx?u=org.bluetooth.characteristic.gap.appearance.xml
-        	intValue  = ((int)rawValue[1]) << 8;
-        	intValue += rawValue[0];
-        	strValue = BleNamesResolver.resolveAppearance(intValue);
-        }
-        else if(uuid.equals(BleDefinedUUIDs.Characteristic.BODY_SENSOR_LOCATION)) { // body sensor location
-        	// follow: https://developer.bluetooth.org/gatt/characteristics/Pages/CharacteristicViewer.aspx?u=org.bluetooth.characteristic.body_sensor_location.xml
-        	intValue = rawValue[0];
-        	strValue = BleNamesResolver.resolveHeartRateSensorLocation(intValue);
-        }
-        else if(uuid.equals(BleDefinedUUIDs.Characteristic.BATTERY_LEVEL)) { // battery level
-        	// follow: https://developer.bluetooth.org/gatt/characteristics/Pages/CharacteristicViewer.aspx?u=org.bluetooth.characteristic.battery_level.xml
-        	intValue = rawValue[0];
-        	strValue = "" + intValue + "% battery level";
-        }        
-        else {
-        	// not known type of characteristic, so we need to handle this in "general" way
-        	// get first four bytes and transform it to integer
-        	intValue = 0;
-        	if(rawValue.length > 0) intValue = (int)rawValue[0];
-        	if(rawValue.length > 1) intValue = intValue + ((int)rawValue[1] << 8); 
-        	if(rawValue.length > 2) intValue = intValue + ((int)rawValue[2] << 8); 
-        	if(rawValue.length > 3) intValue = intValue + ((int)rawValue[3] << 8); 
-
-        	// try catch error.
-            // invalid unicode point after value of 127.
-            // stupid reason why unable to print MSB =1 values
-            
-        	try {
-            if (rawValue.length > 0) {
-                final StringBuilder stringBuilder = new StringBuilder(rawValue.length);
-                for(byte byteChar : rawValue) {
-                    if (((byteChar & 0x08) >> 7) == 0) {
-                        stringBuilder.append(String.format("%c", byteChar));
-                    }
-                }
-                strValue = stringBuilder.toString();
-            }} catch (Exception e) {
-        	    strValue = "-"; //to prevent null exception
-            }
+        byte[] rawValue = ch.getValue();
+        if (rawValue == null) return;
+
+        // nothing is formatted here, text / hex / time are built by the value when a view shows them
+        // ECG Wave comes with every packet, its values are reused instead of made new, see getEcgValues()
+        final boolean ecg = BleDefinedUUIDs.Characteristic.ECG_WAVE.equals(ch.getUuid());
+        final CharacteristicValue value;
+        if (ecg) {
+        	value = mEcgValues.getWriteValue();
+        	value.set(rawValue, arrivalNanos);
         }
+        else value = new CharacteristicValue(rawValue, arrivalNanos);
+        resolveParser(ch).parse(rawValue, arrivalNanos, value);
+        if (ecg) mEcgValues.publish();
         
-        String timestamp = new SimpleDateFormat("yyyy.MM.dd HH:mm:ss.SSS").format(new Date());
         mUiCallback.uiNewValueForCharacteristic(mBluetoothGatt,
                                                 mBluetoothDevice,
                                                 mBluetoothSelectedService,
         		                                ch,
-        		                                strValue,
-        		                                intValue,
-        		                                rawValue,
-        		                                timestamp);
+        		                                value);
     }    
 
+    // parsers are looked up by UUID only the first time a characteristic is seen, after that
+    // it is a single map get on the characteristic object itself (no equals / hashCode of its own)
+    private CharacteristicParser resolveParser(BluetoothGattCharacteristic ch) {
+        CharacteristicParser parser = mResolvedParsers.get(ch);
+        if (parser == null) {
+            parser = mParserRegistry.get(ch.getUuid());
+            mResolvedParsers.put(ch, parser);
+        }
+        return parser;
+    }
+
+    // latest ECG Wave value for the UI, take it with acquire(). The value handed to
+    // uiNewValueForCharacteristic for ECG Wave is reused for later packets, do not keep it
+    public ValueTripleBuffer getEcgValues() {
+        return mEcgValues;
+    }
+
+    // parsers for every characteristic UUID, register() more before connecting
+    public CharacteristicParserRegistry getParserRegistry() {
+        return mParserRegistry;
+    }
+
     // return the format as indicated by characteristic's properties
     // for shitz some use some dont use wtf?
     public int getValueFormat(BluetoothGattCharacteristic ch) {
@@ -339,15 +498,15 @@ public class BleWrapper {
     public void writeDataToCharacteristic(final BluetoothGattCharacteristic ch, final byte[] dataToWrite) {
     	if (mBluetoothAdapter == null || mBluetoothGatt == null || ch == null) return;
     	
-    	// set value locally
-    	ch.setValue(dataToWrite);
-    	// push the change and commit to peripheral
-    	mBluetoothGatt.writeCharacteristic(ch);
+    	// value is set locally and pushed to peripheral once the queue gets to it
+    	mGattQueue.writeCharacteristic(ch, dataToWrite, GattOperationQueue.PRIORITY_NORMAL);
     }
 
     // set if that characteristic should be using set notify
     public void setNotificationForCharacteristic(BluetoothGattCharacteristic ch, boolean enabled) {
         if (mBluetoothAdapter == null || mBluetoothGatt == null) return;
+        // work out the parser now, not on the first packet
+        if (enabled) resolveParser(ch);
         
         boolean success = mBluetoothGatt.setCharacteristicNotification(ch, enabled);
         if(!success) {
@@ -360,15 +519,40 @@ public class BleWrapper {
         BluetoothGattDescriptor descriptor = ch.getDescriptor(UUID.fromString("00002902-0000-1000-8000-00805f9b34fb"));
         if(descriptor != null) {
         	byte[] val = enabled ? BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE : BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE;
-	        descriptor.setValue(val);
-	        mBluetoothGatt.writeDescriptor(descriptor);
+	        // goes ahead of anything else waiting, no data flows before this is written
+	        mGattQueue.writeDescriptor(descriptor, val, GattOperationQueue.PRIORITY_HIGH);
         }
     }
 
 
+    // every notification goes through here, from the radio or from a replay
+    // arrivalNanos is elapsedRealtimeNanos when the packet arrived
+    private void handleNotification(BluetoothGattCharacteristic characteristic, long arrivalNanos) {
+    	mNotificationsMetric.increment();
+    	// ECG samples go to the transport listener first (EcgAcquisition, decode / filter / ring),
+    	// so the ring already has them when the UI hears about the value
+    	final EcgTransport.Listener listener = mTransportListener;
+    	if(listener != null && BleDefinedUUIDs.Characteristic.ECG_WAVE.equals(characteristic.getUuid())) {
+    		final byte[] packet = characteristic.getValue();
+    		if(packet != null) listener.onPacket(this, packet, arrivalNanos);
+    	}
+    	// characteristic's value was updated due to enabled notification, lets get this value
+    	// the value itself will be reported to the UI inside reportValue. UI drains the ECG ring
+    	// in batches so we dont need to post anything per packet
+    	reportValue(characteristic, arrivalNanos);
+    	// also, notify UI that notification are enabled for particular characteristic
+    	EcgTrace.recordValue(EcgTrace.EVENT_NOTIFICATION, characteristic.getUuid(), characteristic.getValue());
+    	mUiCallback.uiGotNotification(mBluetoothGatt, mBluetoothDevice, mBluetoothSelectedService, characteristic);
+    }
+
+    private void reportScanResult(ScanResult result) {
+        ScanRecord record = result.getScanRecord();
+        mUiCallback.uiDeviceFound(result.getDevice(), result.getRssi(), (record != null) ? record.getBytes() : null);
+    }
+
     private ScanCallback mDeviceFoundCallback = new ScanCallback() {
         public void onScanResult(int callbackType, ScanResult result) {
-            mUiCallback.uiDeviceFound(result.getDevice(), result.getRssi(), result.getScanRecord().getBytes());
+            reportScanResult(result);
         }
 
         /**
@@ -377,6 +561,7 @@ public class BleWrapper {
          * @param results List of scan results that are previously scanned.
          */
         public void onBatchScanResults(List<ScanResult> results) {
+            for(int i = 0; i < results.size(); i++) reportScanResult(results.get(i));
         }
 
         /**
@@ -385,6 +570,7 @@ public class BleWrapper {
          * @param errorCode Error code (one of SCAN_FAILED_*) for scan failure.
          */
         public void onScanFailed(int errorCode) {
+            Log.e("------", "Scan failed, error " + errorCode);
         }
 
     };
@@ -396,20 +582,31 @@ public class BleWrapper {
             if (newState == BluetoothProfile.STATE_CONNECTED) {
             	mConnected = true;
             	mUiCallback.uiDeviceConnected(mBluetoothGatt, mBluetoothDevice);
+            	final EcgTransport.Listener listener = mTransportListener;
+            	if(listener != null) listener.onConnected(BleWrapper.this);
 
-                // talk w device
-            	mBluetoothGatt.readRemoteRssi();
-            	// this is updated by throwing value to callback obj
+                // bigger MTU first, so the device can send fewer and longer notifications from the start
+            	mGattQueue.requestMtu(REQUESTED_MTU);
 
                 // auto call to discover service
             	startServicesDiscovery();
+
+                // talk w device
+            	mGattQueue.readRemoteRssi();
+            	// this is updated by throwing value to callback obj
             	
             	// update RSSI periodically as stated above
             	startMonitoringRssiValue();
             }
             else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
                 mConnected = false;
+                mMtu = DEFAULT_MTU;
+                // nothing waiting will ever get its callback now
+                mGattQueue.clear();
+                Log.i("------", "GATT operations:\n" + mGattQueue.dump());
                 mUiCallback.uiDeviceDisconnected(mBluetoothGatt, mBluetoothDevice);
+                final EcgTransport.Listener listener = mTransportListener;
+                if(listener != null) listener.onDisconnected(BleWrapper.this);
 //                try {
 //                    mBluetoothGatt.close();
 //                } catch (Exception e) {
@@ -423,7 +620,11 @@ public class BleWrapper {
             if (status == BluetoothGatt.GATT_SUCCESS) {
             	// services discovery is finished, we can call getServices() for Gatt
             	getSupportedServices();
+            	// ECG Wave can be subscribed to from now on
+            	final EcgTransport.Listener listener = mTransportListener;
+            	if(listener != null) listener.onReady(BleWrapper.this);
             }
+            mGattQueue.onCompleted(GattOperationQueue.TYPE_DISCOVER_SERVICES, status == BluetoothGatt.GATT_SUCCESS);
         }
 
         @Override
@@ -434,28 +635,25 @@ public class BleWrapper {
         	// fetch characteristic value after req
             if (status == BluetoothGatt.GATT_SUCCESS) {
             	// and it success, so we can get the value
-                Log.e("test", "read");
+            	EcgTrace.recordValue(EcgTrace.EVENT_READ, characteristic.getUuid(), characteristic.getValue());
             	getCharacteristicValue(characteristic);
             }
+            // next operation only after the value is taken, it could be a write to the same characteristic
+            mGattQueue.onCompleted(characteristic, GattOperationQueue.TYPE_READ_CHARACTERISTIC, status == BluetoothGatt.GATT_SUCCESS);
         }
 
         @Override
         public void onCharacteristicChanged(BluetoothGatt gatt,
                                             BluetoothGattCharacteristic characteristic)
         {
-        	// characteristic's value was updated due to enabled notification, lets get this value
-        	// the value itself will be reported to the UI inside getCharacteristicValue
-        	getCharacteristicValue(characteristic);
-        	// also, notify UI that notification are enabled for particular characteristic
-            Log.e("test", "changed");
-        	mUiCallback.uiGotNotification(mBluetoothGatt, mBluetoothDevice, mBluetoothSelectedService, characteristic);
+        	handleNotification(characteristic, SystemClock.elapsedRealtimeNanos());
         }
         
         @Override
         public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
         	String deviceName = gatt.getDevice().getName();
-        	String serviceName = BleNamesResolver.resolveServiceName(characteristic.getService().getUuid().toString().toLowerCase(Locale.getDefault()));
-        	String charName = BleNamesResolver.resolveCharacteristicName(characteristic.getUuid().toString().toLowerCase(Locale.getDefault()));
+        	String serviceName = BleNamesResolver.resolveServiceName(characteristic.getService().getUuid());
+        	String charName = BleNamesResolver.resolveCharacteristicName(characteristic.getUuid());
         	String description = "Device: " + deviceName + " Service: " + serviceName + " Characteristic: " + charName;
         	
         	// we got response regarding our request to write new value to the characteristic
@@ -466,7 +664,24 @@ public class BleWrapper {
         	else {
         		 mUiCallback.uiFailedWrite(mBluetoothGatt, mBluetoothDevice, mBluetoothSelectedService, characteristic, description + " STATUS = " + status);
         	}
+        	mGattQueue.onCompleted(characteristic, GattOperationQueue.TYPE_WRITE_CHARACTERISTIC, status == BluetoothGatt.GATT_SUCCESS);
         };
+
+        @Override
+        public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+        	// device may agree on less than we asked for, keep whatever we got
+        	if(status == BluetoothGatt.GATT_SUCCESS) mMtu = mtu;
+        	Log.i("------", "MTU " + mMtu + " (status " + status + ")");
+        	mGattQueue.onCompleted(GattOperationQueue.TYPE_REQUEST_MTU, status == BluetoothGatt.GATT_SUCCESS);
+        }
+
+        @Override
+        public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
+        	if(status != BluetoothGatt.GATT_SUCCESS) {
+        		Log.e("------", "Writing descriptor " + descriptor.getUuid() + " failed, STATUS = " + status);
+        	}
+        	mGattQueue.onCompleted(descriptor, status == BluetoothGatt.GATT_SUCCESS);
+        }
         
         @Override
         public void onReadRemoteRssi(BluetoothGatt gatt, int rssi, int status) {
@@ -474,11 +689,13 @@ public class BleWrapper {
         		// we got new value of RSSI of the connection, pass it to the UI
         		 mUiCallback.uiNewRssiAvailable(mBluetoothGatt, mBluetoothDevice, rssi);
         	}
+        	mGattQueue.onCompleted(GattOperationQueue.TYPE_READ_RSSI, status == BluetoothGatt.GATT_SUCCESS);
         };
     };
     
 	private Activity mParent = null;    
 	private boolean mConnected = false;
+	private volatile int mMtu = DEFAULT_MTU;
 	private String mDeviceAddress = "";
 
     private BluetoothManager mBluetoothManager = null;
@@ -490,4 +707,33 @@ public class BleWrapper {
     
     private Handler mTimerHandler = new Handler();
     private boolean mTimerEnabled = false;
+
+    // scanning setup, see startScanning()
+    private int mScanMode = ScanSettings.SCAN_MODE_BALANCED;
+    private long mScanReportDelay = 0;
+    private boolean mScanEcgOnly = true;
+    private boolean mScanBatching = false;
+    // only one GATT operation may be outstanding, everything goes through here
+    private GattOperationQueue mGattQueue = new GattOperationQueue(mTimerHandler);
+
+    // ECG Wave packets -> decode / filter stages, handing samples over from the GATT callback thread to the UI
+    private final EcgAcquisition mAcquisition;
+    // gets connection events and ECG Wave packets, mAcquisition unless replaced
+    private volatile EcgTransport.Listener mTransportListener = null;
+    // characteristic UUID -> parser
+    private CharacteristicParserRegistry mParserRegistry = new CharacteristicParserRegistry();
+    // parser of every characteristic seen so far, filled from UI and GATT threads
+    private final Map<BluetoothGattCharacteristic, CharacteristicParser> mResolvedParsers =
+            new ConcurrentHashMap<BluetoothGattCharacteristic, CharacteristicParser>();
+    // latest parsed ECG Wave value, reused from packet to packet
+    private final ValueTripleBuffer mEcgValues = new ValueTripleBuffer();
+    // every notification of any characteristic
+    private final MetricsRegistry.Counter mNotificationsMetric;
+    // set while a recording is played back instead of a live device
+    private volatile FileTransport mReplay = null;
+    // stand-ins for what service discovery gives us on the real sensor
+    private final BluetoothGattService mReplayService =
+            new BluetoothGattService(BleDefinedUUIDs.Service.ECG_TEST, BluetoothGattService.SERVICE_TYPE_PRIMARY);
+    private final BluetoothGattCharacteristic mReplayCharacteristic = new BluetoothGattCharacteristic(BleDefinedUUIDs.Characteristic.ECG_WAVE,
+            BluetoothGattCharacteristic.PROPERTY_NOTIFY, BluetoothGattCharacteristic.PERMISSION_READ);
 }
@@ -50,10 +50,7 @@ public interface BleWrapperUiCallbacks {
             								final BluetoothDevice device,
             								final BluetoothGattService service,
             								final BluetoothGattCharacteristic ch,
-            								final String strValue,
-            								final int intValue,
-            								final byte[] rawValue,
-            								final String timestamp);
+            								final CharacteristicValue value);
 	
 	public void uiGotNotification(final BluetoothGatt gatt,
                                   final BluetoothDevice device,
@@ -94,8 +91,7 @@ public interface BleWrapperUiCallbacks {
 		@Override
 		public void uiNewValueForCharacteristic(BluetoothGatt gatt,
 				BluetoothDevice device, BluetoothGattService service,
-				BluetoothGattCharacteristic ch, String strValue, int intValue,
-				byte[] rawValue, String timestamp) {}
+				BluetoothGattCharacteristic ch, CharacteristicValue value) {}
 		@Override
 		public void uiGotNotification(BluetoothGatt gatt, BluetoothDevice device,
 				BluetoothGattService service,
@@ -16,14 +16,12 @@ screen refreshes. More important comments are above each method in the code.
 
 *******************************************************************************/
 
-import java.util.Arrays;
 import java.util.Locale;
-import java.util.Random;
 import java.util.UUID;
 
+import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothGattCharacteristic;
 
-import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -34,39 +32,70 @@ import android.widget.EditText;
 import android.widget.TextView;
 import android.widget.ToggleButton;
 
-import com.jjoe64.graphview.GraphView;
-import com.jjoe64.graphview.series.DataPoint;
-import com.jjoe64.graphview.series.LineGraphSeries;
-
 public class CharacteristicDetailsAdapter extends BaseAdapter {
    	
 	private BluetoothGattCharacteristic mCharacteristic = null;
 	private LayoutInflater mInflater;
 	private BleWrapper mBleWrapper = null;
-	private byte[] mRawValue = null;
-	private int mIntValue = 0;
-	private String mAsciiValue = "";
-	private String mStrValue = "";
-	private String mLastUpdateTime = "";
-	private boolean mNotificationEnabled = false;
-
-	private LineGraphSeries<DataPoint> mSeries2 = new LineGraphSeries<>();
-	private double graph2LastXValue = 0;
+	// latest value, formatted by bindValueFields only when the row is shown
+	private CharacteristicValue mValue = null;
+	private volatile boolean mNotificationEnabled = false;
+
+	// heart rate strip keeps this many readings
+	private static final int HR_DISPLAY_POINTS = 40;
+	// block used to drain ECG samples out of the BleWrapper ring
+	private static final int ECG_DRAIN_BLOCK = 256;
+	private int[] mEcgSamples = new int[ECG_DRAIN_BLOCK];
+	// ECG graph always shows this much time with this many points, whatever the sample rate
+	private static final float ECG_WINDOW_SECONDS = 10f;
+	private static final int ECG_DISPLAY_POINTS = 600;
+	private EcgDecimator mDecimator;
+	private long mDecimatorPointsShown = 0;
+	private int mEcgStripMode = EcgStripView.MODE_SWEEP;
 	private boolean newValueExist = false;
+	// fields of the row that is currently shown, only one row in this adapter
+	private FieldReferences mBoundFields = null;
 	
 	public CharacteristicDetailsAdapter(PeripheralActivity parent, BleWrapper ble) {
 		super();
 		mBleWrapper = ble;
 		mInflater = parent.getLayoutInflater();
+		setEcgDisplayMode(EcgDecimator.MODE_MINMAX);
+	}
+
+	// EcgDecimator.MODE_MINMAX (keeps every QRS at full height) or MODE_LTTB (smoother at rest)
+	public void setEcgDisplayMode(int mode) {
+		mDecimator = new EcgDecimator(mBleWrapper.getEcgPipeline().getFilter().getSampleRate(),
+				ECG_WINDOW_SECONDS, ECG_DISPLAY_POINTS, mode);
+		mDecimatorPointsShown = 0;
+		// start the strip over, the new decimator has nothing of the old window
+		if(isEcgShown()) mBoundFields.lineGraph.setPointCount(mDecimator.getPointCount());
+	}
+
+	public int getEcgDisplayMode() {
+		return mDecimator.getMode();
+	}
+
+	// EcgStripView.MODE_SWEEP (monitor style, erase bar) or MODE_SCROLL for the ECG strip
+	public void setEcgStripMode(int mode) {
+		mEcgStripMode = mode;
+		if(isEcgShown()) mBoundFields.lineGraph.setMode(mode);
+	}
+
+	public int getEcgStripMode() {
+		return mEcgStripMode;
+	}
+
+	// is there an ECG Wave strip on screen to draw into?
+	private boolean isEcgShown() {
+		return mBoundFields != null && mCharacteristic != null
+				&& mCharacteristic.getUuid().equals(BleDefinedUUIDs.Characteristic.ECG_WAVE);
 	}
 	
 	public void setCharacteristic(BluetoothGattCharacteristic ch) {
 		this.mCharacteristic = ch;
-		mRawValue = null;
-		mIntValue = 0;
-		mAsciiValue = "";
-		mStrValue = "";
-		mLastUpdateTime = "-";
+		mValue = null;
+		newValueExist = false;
 		mNotificationEnabled = false;
 	}
 	
@@ -76,6 +105,7 @@ public class CharacteristicDetailsAdapter extends BaseAdapter {
 
 	public void clearCharacteristic() {
 		mCharacteristic = null;
+		mBoundFields = null;
 	}
 	
 	@Override
@@ -93,33 +123,58 @@ public class CharacteristicDetailsAdapter extends BaseAdapter {
 		return position;
 	}
 
-	public void newValueForCharacteristic(final BluetoothGattCharacteristic ch, final String strVal, final int intVal, final byte[] rawValue, final String timestamp) {
+	public void newValueForCharacteristic(final BluetoothGattCharacteristic ch, final CharacteristicValue value) {
 		if(!ch.equals(this.mCharacteristic)) return;
 		
-		mIntValue = intVal;
-		mStrValue = strVal;
-		mRawValue = rawValue;
-		Log.e("bytecheck3", "testing" + Arrays.toString(rawValue));
-        if (mRawValue != null && mRawValue.length > 0) {
-            final StringBuilder stringBuilder = new StringBuilder(mRawValue.length);
-            for(byte byteChar : mRawValue)
-                stringBuilder.append(String.format("%02X", byteChar));
-            mAsciiValue = "0x" + stringBuilder.toString();
-        }
-        else mAsciiValue = "";
-        
-        mLastUpdateTime = timestamp;
-        if(mLastUpdateTime == null) mLastUpdateTime = "";
-
+		mValue = value;
+		EcgTrace.recordValue(EcgTrace.EVENT_VALUE, ch.getUuid(), value.getRaw());
         newValueExist = true;
 	}
 	
+	// move whatever ECG samples arrived since last call into the strip and redraw it once
+	// samples are decoded on the GATT thread, see BleWrapper.getEcgSamples(), and reduced to
+	// ECG_DISPLAY_POINTS per ECG_WINDOW_SECONDS by the decimator before they reach the strip
+	// returns number of samples drained
+	public int drainEcgSamples(final SampleRingBuffer ring) {
+		if(mCharacteristic == null || !mCharacteristic.getUuid().equals(BleDefinedUUIDs.Characteristic.ECG_WAVE)) {
+			ring.clear();
+			return 0;
+		}
+
+		int count;
+		int total = 0;
+		while((count = ring.drain(mEcgSamples, 0, mEcgSamples.length)) > 0) {
+			total += count;
+			// samples are already band-pass / notch filtered by EcgPipeline
+			mDecimator.add(mEcgSamples, 0, count);
+		}
+
+		// points made since last time, they wait in the decimator while no strip is shown
+		if(mBoundFields == null || mBoundFields.lineGraph.getTraceCount() == 0) return total;
+		final EcgStripView strip = mBoundFields.lineGraph;
+		final int available = mDecimator.getAvailable();
+		final int fresh = (int)Math.min(mDecimator.getPointsWritten() - mDecimatorPointsShown, available);
+		mDecimatorPointsShown = mDecimator.getPointsWritten();
+		for (int i = available - fresh; i < available; i++) {
+			// lost samples (NaN) keep their place and break the line
+			strip.append(0, mDecimator.getPoint(i));
+		}
+		if(fresh > 0) strip.invalidate();
+		return total;
+	}
+
+	public boolean isNotificationEnabled() {
+		return mNotificationEnabled;
+	}
+
 	public void setNotificationEnabledForService(final BluetoothGattCharacteristic ch) {
-		Log.e("test", "notified_1");
-		if((!ch.equals(this.mCharacteristic)) || (mNotificationEnabled == true)) return;
+		if((!ch.equals(this.mCharacteristic)) || (mNotificationEnabled == true)) {
+			EcgTrace.record(EcgTrace.EVENT_NOTIFY_ENABLED, EcgTrace.shortUuid(ch.getUuid()), 0);
+			return;
+		}
 		//if((!ch.equals(this.mCharacteristic))) return;
 		mNotificationEnabled = true;
-		Log.e("test", "notified_2");
+		EcgTrace.record(EcgTrace.EVENT_NOTIFY_ENABLED, EcgTrace.shortUuid(ch.getUuid()), 1);
 		notifyDataSetChanged();
 	}
 	
@@ -158,6 +213,7 @@ public class CharacteristicDetailsAdapter extends BaseAdapter {
         	fields.charDecValue = (TextView) convertView.findViewById(R.id.char_details_decimal_value);
         	fields.charHexValue = (EditText) convertView.findViewById(R.id.char_details_hex_value);
         	fields.charDateValue = (TextView) convertView.findViewById(R.id.char_details_timestamp);
+        	fields.charHeartRate = (TextView) convertView.findViewById(R.id.char_details_heart_rate);
         	
         	fields.notificationBtn = (ToggleButton) convertView.findViewById(R.id.char_details_notification_switcher);
         	fields.readBtn = (Button) convertView.findViewById(R.id.char_details_read_btn);
@@ -166,36 +222,22 @@ public class CharacteristicDetailsAdapter extends BaseAdapter {
 
 			//empty graph
 
-        	fields.lineGraph = (GraphView) convertView.findViewById(R.id.graph);
-			fields.lineGraph.getGridLabelRenderer().setHorizontalLabelsVisible(false);
-			fields.lineGraph.addSeries(mSeries2);
-
-			String uuid = mCharacteristic.getUuid().toString().toLowerCase(Locale.getDefault());
-			String name = BleNamesResolver.resolveCharacteristicName(uuid);
+        	fields.lineGraph = (EcgStripView) convertView.findViewById(R.id.graph);
 
 			//setting range of print in x and y axis
-			if (name.equals("ECG Wave") ) {
-				fields.lineGraph.getViewport().setXAxisBoundsManual(true);
-				//fields.lineGraph.getViewport().scrollToEnd();
-				fields.lineGraph.getViewport().setMinX(0);
-				fields.lineGraph.getViewport().setMaxX(600); //init 100
-				fields.lineGraph.getViewport().setYAxisBoundsManual(true);
-				fields.lineGraph.getViewport().setMinY(-6000);
-				fields.lineGraph.getViewport().setMaxY(20000);
-				//fields.lineGraph.getViewport().setScrollable(false); // enables horizontal scrolling
+			if (mCharacteristic.getUuid().equals(BleDefinedUUIDs.Characteristic.ECG_WAVE)) {
+				// ECG_WINDOW_SECONDS across, one point per decimator point
+				fields.lineGraph.setPointCount(mDecimator.getPointCount());
+				fields.lineGraph.addTrace(-6000, 20000);
+				fields.lineGraph.setMode(mEcgStripMode);
+				// new strip is empty, give it the whole window the decimator still has
+				mDecimatorPointsShown = 0;
 			}
 
-			else if (name.equals("Heart Rate Measurement")){
-				fields.lineGraph.getViewport().setXAxisBoundsManual(true);
-				fields.lineGraph.getViewport().setMinX(0);
-				fields.lineGraph.getViewport().setMaxX(40);
-				fields.lineGraph.getViewport().setYAxisBoundsManual(true);
-				fields.lineGraph.getViewport().setMinY(0);
-				fields.lineGraph.getViewport().setMaxY(300);
-				//fields.lineGraph.getViewport().setScrollable(true); // enables horizontal scrolling
-				//fields.lineGraph.getViewport().setScrollableY(true); // enables vertical scrolling
-				//fields.lineGraph.getViewport().setScalable(true); // enables horizontal zooming and scrolling
-				//fields.lineGraph.getViewport().setScalableY(true); // enables vertical zooming and scrolling
+			else if (mCharacteristic.getUuid().equals(BleDefinedUUIDs.Characteristic.HEART_RATE_MEASUREMENT)) {
+				fields.lineGraph.setPointCount(HR_DISPLAY_POINTS);
+				fields.lineGraph.addTrace(0, 300);
+				fields.lineGraph.setMode(EcgStripView.MODE_SCROLL);
 			}
 
 
@@ -232,18 +274,17 @@ public class CharacteristicDetailsAdapter extends BaseAdapter {
         }			
 		
         // set proper values into the view
-        fields.charPeripheralName.setText(mBleWrapper.getDevice().getName());
-        fields.charPeripheralAddress.setText(mBleWrapper.getDevice().getAddress());
+        // no device behind a replay, only the address saved in the recording
+        BluetoothDevice device = mBleWrapper.getDevice();
+        fields.charPeripheralName.setText(device != null ? device.getName() : "Replay");
+        fields.charPeripheralAddress.setText(mBleWrapper.getDeviceAddress());
         
-        String tmp = mCharacteristic.getService().getUuid().toString().toLowerCase(Locale.getDefault());
-        fields.charServiceUuid.setText(tmp);
-        fields.charServiceName.setText(BleNamesResolver.resolveServiceName(tmp));
+        UUID serviceUuid = mCharacteristic.getService().getUuid();
+        fields.charServiceUuid.setText(serviceUuid.toString());
+        fields.charServiceName.setText(BleNamesResolver.resolveServiceName(serviceUuid));
         
-        String uuid = mCharacteristic.getUuid().toString().toLowerCase(Locale.getDefault());
-        String name = BleNamesResolver.resolveCharacteristicName(uuid);
-        
-        fields.charName.setText(name);
-        fields.charUuid.setText(uuid);
+        fields.charName.setText(BleNamesResolver.resolveCharacteristicName(mCharacteristic.getUuid()));
+        fields.charUuid.setText(mCharacteristic.getUuid().toString());
         
         int format = mBleWrapper.getValueFormat(mCharacteristic);
         fields.charDataType.setText(BleNamesResolver.resolveValueTypeDescription(format));
@@ -262,71 +303,55 @@ public class CharacteristicDetailsAdapter extends BaseAdapter {
         fields.writeBtn.setEnabled((props & (BluetoothGattCharacteristic.PROPERTY_WRITE | BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE)) != 0);
         fields.charHexValue.setEnabled(fields.writeBtn.isEnabled());
         
-        fields.charHexValue.setText(mAsciiValue);
-        fields.charStrValue.setText(mStrValue);
-        //Value sent
-        fields.charDecValue.setText(String.format("%d", mIntValue));
-        fields.charDateValue.setText(mLastUpdateTime);
+        bindValueFields(fields);
+        mBoundFields = fields;
 		if(newValueExist) {
-			populateGraph(mRawValue, name);
+			populateGraph(mCharacteristic.getUuid());
 			newValueExist = false;
 		}
    
         return convertView;
 	}
 
-	//Draw Graph here. Refer to documentation. http://www.android-graphview.org/realtime-chart/
-
-	private void populateGraph(byte[] byteValues, String name){
-		//From 40 to 100
-		if (name.equals("ECG Wave")){
-			for (int i =0; i<20; i=i+2) {
-				mSeries2.appendData(new DataPoint(graph2LastXValue, generatePoints(byteValues, name, i)), true, 600);
-				graph2LastXValue += 1d;
-				Log.e("bytecheck", "testing graph2LastXValue: " + graph2LastXValue + "i= " + i);
-			}
-
-		}
-
-		else if (name.equals("Heart Rate Measurement")){
-			mSeries2.appendData(new DataPoint(graph2LastXValue, mIntValue), true, 40);
-			graph2LastXValue += 1d;
-		}
+	// only rebind fields that change with every new value, used by EcgFrameRenderer instead of
+	// notifyDataSetChanged() so the whole row is not rebuilt on every frame
+	public void updateValueFields() {
+		if(mBoundFields == null || mCharacteristic == null) return;
+		bindValueFields(mBoundFields);
+		newValueExist = false;
+	}
 
+	// heart rate derived from R-peaks of the ECG Wave stream, see RPeakDetector
+	public void updateHeartRate(final float heartRate, final float averageHeartRate) {
+		if(mBoundFields == null) return;
+		if(heartRate <= 0) mBoundFields.charHeartRate.setText("-");
+		else mBoundFields.charHeartRate.setText(String.format(Locale.US, "%.0f bpm (avg %.0f bpm)", heartRate, averageHeartRate));
 	}
 
-	//Compute Points
-	//mIntValue, light shift << and OR
-	private int generatePoints(byte[] byteValues, String name, int i){
-		//double mLastRandom = 2;
-		//Random mRand = new Random();
-		//mLastRandom += mRand.nextDouble() * 0.5 - 0.25;
-		//mIntValue += mRand.nextDouble() * 0.5 - 0.25;
-
-		//return (int) mLastRandom;
-
-		short intVal = 0;
-		if(byteValues != null && name.equals("ECG Wave")) {
-			//Log.e("bytecheck", "testing" + Arrays.toString(byteValues) + " " + intVal);
-			/* for testing
-			intVal = (short)(byteValues[1] | ((byteValues[0] & 0xf) << 4) | ((byteValues[3] & 0xf) << 8) | ((byteValues[2] & 0xf) << 12)); */
-			/* used this
-			intVal = (short)(byteValues[3] | ((byteValues[2] & 0xf) << 4) | ((byteValues[1] & 0xf) << 8) | ((byteValues[0] & 0xf) << 12)); */
-
-			// masking to prevent possible extension of bits
-			intVal = (short)((byteValues[i+1] & 0xff) | ((byteValues[i] & 0xff) << 8));
-			//intVal = (short)((byteValues[1]) | (byteValues[0] << 8));
-//1 0 3 2
-			//3 2 1 0
-		}
+	private void bindValueFields(FieldReferences fields) {
+        if(mValue == null) {
+        	fields.charHexValue.setText("");
+        	fields.charStrValue.setText("");
+        	fields.charDecValue.setText("0");
+        	fields.charDateValue.setText("-");
+        	return;
+        }
+        fields.charHexValue.setText(mValue.getHex());
+        fields.charStrValue.setText(mValue.getText());
+        //Value sent
+        fields.charDecValue.setText(Integer.toString(mValue.intValue));
+        fields.charDateValue.setText(mValue.getTimestamp());
+	}
 
-		//byte byte1 = (byte)(intVal >> 8 & 0xff);
-		//byte byte2 = (byte)(intVal & 0xff);
-		Log.e("bytecheck2", "testing" + intVal);
+	//Draw Graph here, see EcgStripView
 
-		//implement butterworth / FIR filter here.
+	private void populateGraph(UUID uuid){
+		// ECG Wave samples do not go through here, they are drained from the ring in drainEcgSamples()
+		if (uuid.equals(BleDefinedUUIDs.Characteristic.HEART_RATE_MEASUREMENT) && mBoundFields != null && mBoundFields.lineGraph.getTraceCount() > 0){
+			mBoundFields.lineGraph.append(0, mValue.intValue);
+			mBoundFields.lineGraph.invalidate();
+		}
 
-		return (int) intVal;
 	}
     	
 	private class FieldReferences {
@@ -341,9 +366,10 @@ public class CharacteristicDetailsAdapter extends BaseAdapter {
 		EditText charHexValue;
 		TextView charDecValue;
 		TextView charDateValue;
+		TextView charHeartRate;
 		TextView charProperties;
 
-		GraphView lineGraph;
+		EcgStripView lineGraph;
 		
 		ToggleButton notificationBtn;
 		Button readBtn;
@@ -0,0 +1,15 @@
+package org.bluetooth.bledemo;
+
+/******************************************************************************
+CharacteristicParser is what turns the raw bytes of one kind of characteristic into
+a typed ParsedValue. One parser is registered per characteristic UUID in
+CharacteristicParserRegistry, BleWrapper looks it up once per characteristic
+and from then on calls it directly for every value.
+*******************************************************************************/
+
+public interface CharacteristicParser {
+	// fill out from raw, called on the GATT callback (or replay) thread for every value
+	// arrivalNanos is elapsedRealtimeNanos when the value arrived
+	// out may be a reused value (ECG Wave is), everything the parser does not set has already been cleared
+	public void parse(final byte[] raw, final long arrivalNanos, final ParsedValue out);
+}
@@ -0,0 +1,135 @@
+package org.bluetooth.bledemo;
+
+/******************************************************************************
+CharacteristicParserRegistry maps characteristic UUIDs to the CharacteristicParser that
+understands them. It replaces the long if / else chain that used to run for
+every value in BleWrapper.getCharacteristicValue: the UUID is looked up once
+per characteristic (when notifications are turned on or on the first value)
+and the parser found is then called directly. Anything not registered gets
+RAW, which only takes the first bytes as a number and formats nothing.
+Every BleWrapper has its own registry, more parsers can be added with
+register() before connecting.
+*******************************************************************************/
+
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+public class CharacteristicParserRegistry {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	// GAP device name, not in BleDefinedUUIDs as nothing else uses it
+	private static final UUID DEVICE_NAME = UUID.fromString("00002a00-0000-1000-8000-00805f9b34fb");
+
+	private final Map<UUID, CharacteristicParser> mParsers = new HashMap<UUID, CharacteristicParser>();
+
+	// registry with parsers for the standard characteristics we know, ECG Wave has to be added
+	// by whoever owns the decoder, see EcgWaveParser
+	public CharacteristicParserRegistry() {
+		register(BleDefinedUUIDs.Characteristic.HEART_RATE_MEASUREMENT, HEART_RATE);
+		register(BleDefinedUUIDs.Characteristic.BATTERY_LEVEL, BATTERY_LEVEL);
+		register(BleDefinedUUIDs.Characteristic.APPEARANCE, APPEARANCE);
+		register(BleDefinedUUIDs.Characteristic.BODY_SENSOR_LOCATION, BODY_SENSOR_LOCATION);
+		register(BleDefinedUUIDs.Characteristic.MANUFACTURER_STRING, TEXT);
+		register(BleDefinedUUIDs.Characteristic.MODEL_NUMBER_STRING, TEXT);
+		register(BleDefinedUUIDs.Characteristic.FIRMWARE_REVISION_STRING, TEXT);
+		register(DEVICE_NAME, TEXT);
+	}
+
+	// replaces whatever was registered for uuid. characteristics already resolved keep their parser
+	public synchronized void register(UUID uuid, CharacteristicParser parser) {
+		mParsers.put(uuid, parser);
+	}
+
+	// parser for uuid, RAW when nothing is registered. meant to be called once per characteristic
+	public synchronized CharacteristicParser get(UUID uuid) {
+		CharacteristicParser parser = mParsers.get(uuid);
+		return (parser != null) ? parser : RAW;
+	}
+
+	// unknown characteristic: first (up to) four bytes as little-endian number, text is left to the UI
+	public static final CharacteristicParser RAW = new CharacteristicParser() {
+		@Override
+		public void parse(byte[] raw, long arrivalNanos, ParsedValue out) {
+			int value = 0;
+			final int n = Math.min(raw.length, 4);
+			for(int i = 0; i < n; i++) value |= (raw[i] & 0xFF) << (8 * i);
+			out.type = ParsedValue.TYPE_RAW;
+			out.intValue = value;
+		}
+	};
+
+	// follow https://developer.bluetooth.org/gatt/characteristics/Pages/CharacteristicViewer.aspx?u=org.bluetooth.characteristic.heart_rate_measurement.xml
+	// bit 0 of the flags tells if the value is uint8 at index 1 or uint16 at index 1-2
+	public static final CharacteristicParser HEART_RATE = new CharacteristicParser() {
+		@Override
+		public void parse(byte[] raw, long arrivalNanos, ParsedValue out) {
+			out.type = ParsedValue.TYPE_HEART_RATE;
+			if(raw.length < 2) return;
+			if((raw[0] & 0x01) == 0) out.intValue = raw[1] & 0xFF;
+			else if(raw.length >= 3) out.intValue = (raw[1] & 0xFF) | ((raw[2] & 0xFF) << 8);
+		}
+	};
+
+	// follow: https://developer.bluetooth.org/gatt/characteristics/Pages/CharacteristicViewer.aspx?u=org.bluetooth.characteristic.battery_level.xml
+	public static final CharacteristicParser BATTERY_LEVEL = new CharacteristicParser() {
+		@Override
+		public void parse(byte[] raw, long arrivalNanos, ParsedValue out) {
+			out.type = ParsedValue.TYPE_BATTERY;
+			if(raw.length > 0) out.intValue = raw[0] & 0xFF;
+		}
+	};
+
+	// follow: https://developer.bluetooth.org/gatt/characteristics/Pages/CharacteristicViewer.aspx?u=org.bluetooth.characteristic.gap.appearance.xml
+	public static final CharacteristicParser APPEARANCE = new CharacteristicParser() {
+		@Override
+		public void parse(byte[] raw, long arrivalNanos, ParsedValue out) {
+			out.type = ParsedValue.TYPE_APPEARANCE;
+			if(raw.length < 2) return;
+			out.intValue = (raw[0] & 0xFF) | ((raw[1] & 0xFF) << 8);
+			out.text = BleNamesResolver.resolveAppearance(out.intValue);
+		}
+	};
+
+	// follow: https://developer.bluetooth.org/gatt/characteristics/Pages/CharacteristicViewer.aspx?u=org.bluetooth.characteristic.body_sensor_location.xml
+	public static final CharacteristicParser BODY_SENSOR_LOCATION = new CharacteristicParser() {
+		@Override
+		public void parse(byte[] raw, long arrivalNanos, ParsedValue out) {
+			out.type = ParsedValue.TYPE_SENSOR_LOCATION;
+			if(raw.length < 1) return;
+			out.intValue = raw[0] & 0xFF;
+			out.text = BleNamesResolver.resolveHeartRateSensorLocation(out.intValue);
+		}
+	};
+
+	// manufacturer name, model number, firmware revision etc. are plain utf8 strings at index 0
+	public static final CharacteristicParser TEXT = new CharacteristicParser() {
+		@Override
+		public void parse(byte[] raw, long arrivalNanos, ParsedValue out) {
+			out.type = ParsedValue.TYPE_TEXT;
+			out.text = new String(raw, UTF8);
+		}
+	};
+
+	// ECG Wave: only describes the packet for the UI, the samples themselves reach the pipeline
+	// through EcgTransport (see BleWrapper.handleNotification and EcgAcquisition)
+	public static class EcgWaveParser implements CharacteristicParser {
+		private final EcgPacketDecoder mDecoder;
+
+		// decoder the packets are decoded with, tells if there is a counter in front
+		public EcgWaveParser(EcgPacketDecoder decoder) {
+			mDecoder = decoder;
+		}
+
+		@Override
+		public void parse(byte[] raw, long arrivalNanos, ParsedValue out) {
+			out.type = ParsedValue.TYPE_ECG;
+			final int start = mDecoder.hasSequenceCounter() ? EcgPacketDecoder.SEQUENCE_SIZE : 0;
+			out.sampleCount = Math.max(0, (raw.length - start) / EcgPacketDecoder.BYTES_PER_SAMPLE);
+			// first sample as sent, big-endian signed 16 bit
+			if(raw.length >= start + EcgPacketDecoder.BYTES_PER_SAMPLE) {
+				out.intValue = (short)((raw[start] << 8) | (raw[start + 1] & 0xFF));
+			}
+		}
+	}
+}
@@ -0,0 +1,102 @@
+package org.bluetooth.bledemo;
+
+/******************************************************************************
+CharacteristicValue is one value of a characteristic as handed to the UI by
+BleWrapperUiCallbacks.uiNewValueForCharacteristic. It carries the raw bytes,
+the monotonic arrival time and what its parser made of it (see ParsedValue).
+Text, hex and the wall clock time are only worked out when a view asks for
+them and are then kept, so values that are never shown (most of them at ECG
+rates) cost no formatting at all.
+Getters for the formatted fields are meant for the UI thread.
+ECG Wave values are reused through set() (see ValueTripleBuffer), the
+others are made new for every value.
+*******************************************************************************/
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import android.os.SystemClock;
+
+public class CharacteristicValue extends ParsedValue {
+	private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+	// UI thread only, like the getters using it
+	private static final SimpleDateFormat TIMESTAMP_FORMAT = new SimpleDateFormat("yyyy.MM.dd HH:mm:ss.SSS");
+
+	private byte[] mRaw;
+	private long mArrivalNanos;
+
+	// built on first use
+	private String mDisplayText = null;
+	private String mHex = null;
+	private String mTimestamp = null;
+
+	// raw is kept as it is, not copied. arrivalNanos from SystemClock.elapsedRealtimeNanos()
+	public CharacteristicValue(final byte[] raw, final long arrivalNanos) {
+		mRaw = raw;
+		mArrivalNanos = arrivalNanos;
+	}
+
+	// empty value to be filled with set()
+	public CharacteristicValue() {
+		mRaw = new byte[0];
+	}
+
+	// make this a new value: raw is copied (the array is only made again when the length changes),
+	// parsed fields are cleared for the parser and cached text is dropped
+	public void set(final byte[] raw, final long arrivalNanos) {
+		if(mRaw.length != raw.length) mRaw = new byte[raw.length];
+		System.arraycopy(raw, 0, mRaw, 0, raw.length);
+		mArrivalNanos = arrivalNanos;
+		mDisplayText = null;
+		mHex = null;
+		mTimestamp = null;
+		clear();
+	}
+
+	public byte[] getRaw()          { return mRaw; }
+	public long   getArrivalNanos() { return mArrivalNanos; }
+
+	// what the parser says as text, for unknown characteristics the bytes as latin-1 characters
+	public String getText() {
+		if(mDisplayText == null) {
+			final String text = getDisplayText();
+			if(text != null) mDisplayText = text;
+			else {
+				final char[] chars = new char[mRaw.length];
+				for(int i = 0; i < mRaw.length; i++) chars[i] = (char)(mRaw[i] & 0xFF);
+				mDisplayText = new String(chars);
+			}
+		}
+		return mDisplayText;
+	}
+
+	// e.g. 0x0A1B, empty for no bytes
+	public String getHex() {
+		if(mHex == null) {
+			if(mRaw.length == 0) mHex = "";
+			else {
+				final char[] chars = new char[2 + 2 * mRaw.length];
+				chars[0] = '0';
+				chars[1] = 'x';
+				for(int i = 0; i < mRaw.length; i++) {
+					chars[2 + 2*i] = HEX_DIGITS[(mRaw[i] >> 4) & 0x0F];
+					chars[3 + 2*i] = HEX_DIGITS[mRaw[i] & 0x0F];
+				}
+				mHex = new String(chars);
+			}
+		}
+		return mHex;
+	}
+
+	// wall clock time of arrival, worked back from how long ago it arrived
+	public long getArrivalTimeMillis() {
+		final long ageMillis = (SystemClock.elapsedRealtimeNanos() - mArrivalNanos) / 1000000;
+		return System.currentTimeMillis() - ageMillis;
+	}
+
+	// e.g. 2018.04.11 13:37:00.123
+	public String getTimestamp() {
+		if(mTimestamp == null) mTimestamp = TIMESTAMP_FORMAT.format(new Date(getArrivalTimeMillis()));
+		return mTimestamp;
+	}
+}
@@ -17,7 +17,6 @@ More important comments are above each method in the code.
 *******************************************************************************/
 
 import java.util.ArrayList;
-import java.util.Locale;
 
 import android.app.Activity;
 import android.bluetooth.BluetoothGattCharacteristic;
@@ -82,11 +81,8 @@ public class CharacteristicsListAdapter extends BaseAdapter {
 			
             // set proper values into the view
             BluetoothGattCharacteristic ch = getCharacteristic(position);
-            String uuid = ch.getUuid().toString().toLowerCase(Locale.getDefault());
-            String name = BleNamesResolver.resolveCharacteristicName(uuid);
-            
-            fields.charName.setText(name);
-            fields.charUuid.setText(uuid);
+            fields.charName.setText(BleNamesResolver.resolveCharacteristicName(ch.getUuid()));
+            fields.charUuid.setText(ch.getUuid().toString());
    
 			return convertView;
 		}
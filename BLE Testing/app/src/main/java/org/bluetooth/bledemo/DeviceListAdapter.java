@@ -17,9 +17,11 @@ More important comments are above each method in the code.
 *******************************************************************************/
 
 import java.util.ArrayList;
+import java.util.HashMap;
 
 import android.app.Activity;
 import android.bluetooth.BluetoothDevice;
+import android.os.SystemClock;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -28,39 +30,112 @@ import android.widget.TextView;
 
 public class DeviceListAdapter extends BaseAdapter {
 	
-	private ArrayList<BluetoothDevice> mDevices;
-	private ArrayList<byte[]> mRecords;
-	private ArrayList<Integer> mRSSIs;
+	// one row of the list, updated in place whenever the device is seen again
+	private static class Entry {
+		BluetoothDevice device;
+		int rssi;
+		byte[] record;
+		long lastSeen; // SystemClock.elapsedRealtime()
+	}
+
+	// rows in the order devices were found, plus the same rows by address for O(1) lookup
+	private ArrayList<Entry> mDevices;
+	private HashMap<String, Entry> mByAddress;
+	// sightings from the scan callback waiting for the next applyPending(), guarded by itself
+	private HashMap<String, Entry> mPending;
 	private LayoutInflater mInflater;
 	
 	public DeviceListAdapter(Activity par) {
 		super();
-		mDevices  = new ArrayList<BluetoothDevice>();
-		mRecords = new ArrayList<byte[]>();
-		mRSSIs = new ArrayList<Integer>();
+		mDevices = new ArrayList<Entry>();
+		mByAddress = new HashMap<String, Entry>();
+		mPending = new HashMap<String, Entry>();
 		mInflater = par.getLayoutInflater();
 	}
 	
+	// add new device or refresh RSSI / record / last seen of a known one. UI thread only
 	public void addDevice(BluetoothDevice device, int rssi, byte[] scanRecord) {
-		if(mDevices.contains(device) == false) {
-			mDevices.add(device);
-			mRSSIs.add(rssi);
-			mRecords.add(scanRecord);
+		addDevice(device, rssi, scanRecord, SystemClock.elapsedRealtime());
+	}
+
+	// returns true if something shown in the list changed
+	private boolean addDevice(BluetoothDevice device, int rssi, byte[] scanRecord, long seen) {
+		Entry entry = mByAddress.get(device.getAddress());
+		boolean changed = false;
+		if(entry == null) {
+			entry = new Entry();
+			entry.device = device;
+			mByAddress.put(device.getAddress(), entry);
+			mDevices.add(entry);
+			changed = true;
+		}
+		changed |= entry.rssi != rssi;
+		entry.rssi = rssi;
+		entry.record = scanRecord;
+		entry.lastSeen = seen;
+		return changed;
+	}
+
+	// same as addDevice but from any thread, nothing reaches the list until applyPending()
+	// a device seen many times in between only keeps its latest sighting
+	public void offerDevice(BluetoothDevice device, int rssi, byte[] scanRecord) {
+		synchronized(mPending) {
+			Entry entry = mPending.get(device.getAddress());
+			if(entry == null) {
+				entry = new Entry();
+				entry.device = device;
+				mPending.put(device.getAddress(), entry);
+			}
+			entry.rssi = rssi;
+			entry.record = scanRecord;
+			entry.lastSeen = SystemClock.elapsedRealtime();
 		}
 	}
+
+	// move offered sightings into the list. UI thread only
+	// returns true if the list changed and needs notifyDataSetChanged()
+	public boolean applyPending() {
+		boolean changed = false;
+		synchronized(mPending) {
+			if(mPending.isEmpty()) return false;
+			for(Entry pending : mPending.values()) {
+				changed |= addDevice(pending.device, pending.rssi, pending.record, pending.lastSeen);
+			}
+			mPending.clear();
+		}
+		return changed;
+	}
+
+	// drop devices not seen for maxAgeMillis. UI thread only
+	// returns true if anything was removed
+	public boolean evictStale(long maxAgeMillis) {
+		final long oldest = SystemClock.elapsedRealtime() - maxAgeMillis;
+		int kept = 0;
+		for(int i = 0; i < mDevices.size(); i++) {
+			Entry entry = mDevices.get(i);
+			if(entry.lastSeen < oldest) mByAddress.remove(entry.device.getAddress());
+			else mDevices.set(kept++, entry);
+		}
+		if(kept == mDevices.size()) return false;
+		// one pass over the list, removing from the end does not shift anything
+		for(int i = mDevices.size() - 1; i >= kept; i--) mDevices.remove(i);
+		return true;
+	}
 	
 	public BluetoothDevice getDevice(int index) {
-		return mDevices.get(index);
+		return mDevices.get(index).device;
 	}
 	
 	public int getRssi(int index) {
-		return mRSSIs.get(index);
+		return mDevices.get(index).rssi;
 	}
 	
 	public void clearList() {
 		mDevices.clear();
-		mRSSIs.clear();
-		mRecords.clear();
+		mByAddress.clear();
+		synchronized(mPending) {
+			mPending.clear();
+		}
 	}
 	
 	@Override
@@ -94,8 +169,8 @@ public class DeviceListAdapter extends BaseAdapter {
         }			
 		
         // set proper values into the view
-        BluetoothDevice device = mDevices.get(position);
-        int rssi = mRSSIs.get(position);
+        BluetoothDevice device = mDevices.get(position).device;
+        int rssi = mDevices.get(position).rssi;
         String rssiString = (rssi == 0) ? "N/A" : rssi + " db";
         String name = device.getName();
         String address = device.getAddress();
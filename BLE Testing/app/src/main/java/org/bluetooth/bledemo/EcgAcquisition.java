@@ -0,0 +1,128 @@
+package org.bluetooth.bledemo;
+
+/******************************************************************************
+EcgAcquisition is the acquisition side of one sensor, without knowing how its
+packets travel: it listens on an EcgTransport, optionally turns ECG Wave
+notifications on as soon as the transport is ready, runs every packet through
+its EcgPipeline (decode, gaps, timebase, filter, beats, recorder, ring) and
+keeps the link state and throughput. No Android classes are used, so the
+whole chain can be driven from a file or memory on a plain JVM.
+onPacket runs on the transport's delivery thread, throughput and the getters
+can be used from anywhere (rates from the thread calling updateThroughput).
+*******************************************************************************/
+
+public class EcgAcquisition implements EcgTransport.Listener {
+	public static final int STATE_CONNECTING   = 0;
+	public static final int STATE_CONNECTED    = 1;
+	public static final int STATE_STREAMING    = 2;
+	public static final int STATE_DISCONNECTED = 3;
+	private static final String[] STATE_NAMES = { "connecting", "connected", "streaming", "disconnected" };
+
+	// a stream counts as sustained while it delivers at least this part of the nominal rate
+	private static final float SUSTAINED_RATIO = 0.95f;
+
+	private final EcgTransport mTransport;
+	private final EcgPipeline mPipeline;
+	private volatile boolean mAutoSubscribe = false;
+	private volatile int mState = STATE_DISCONNECTED;
+
+	// total bytes of ECG Wave payload and samples of the last packet, written on delivery thread
+	private volatile long mBytesReceived = 0;
+	private volatile int mLastSampleCount = 0;
+
+	// throughput, only touched by the thread calling updateThroughput()
+	private long mLastUpdateNanos = 0;
+	private long mLastPackets = 0;
+	private long mLastSamples = 0;
+	private long mLastBytes = 0;
+	private float mPacketRate = 0;
+	private float mSampleRate = 0;
+	private float mByteRate = 0;
+
+	// becomes the listener of transport
+	public EcgAcquisition(EcgTransport transport, EcgPipeline pipeline) {
+		mTransport = transport;
+		mPipeline = pipeline;
+		transport.setListener(this);
+	}
+
+	public EcgTransport getTransport()  { return mTransport; }
+	public EcgPipeline getPipeline()    { return mPipeline; }
+	public int         getState()       { return mState; }
+	public String      getStateName()   { return STATE_NAMES[mState]; }
+	public float       getPacketRate()  { return mPacketRate; }
+	public float       getSampleRate()  { return mSampleRate; }
+	public float       getByteRate()    { return mByteRate; }
+	public long        getBytesReceived() { return mBytesReceived; }
+	// samples the last packet gave, gap fill included
+	public int         getLastSampleCount() { return mLastSampleCount; }
+
+	// true turns ECG Wave on by itself whenever the transport is ready, false leaves it to the caller
+	public void setAutoSubscribe(boolean enabled) {
+		mAutoSubscribe = enabled;
+	}
+
+	// streaming at (close to) the sample rate the pipeline was set up for?
+	public boolean isSustained() {
+		return mState == STATE_STREAMING && mSampleRate >= SUSTAINED_RATIO * mPipeline.getSampleRate();
+	}
+
+	public boolean start(String deviceAddress) {
+		mState = STATE_CONNECTING;
+		if(mTransport.connect(deviceAddress)) return true;
+		mState = STATE_DISCONNECTED;
+		return false;
+	}
+
+	public void stop() {
+		mTransport.disconnect();
+		mState = STATE_DISCONNECTED;
+	}
+
+	// every connection starts a new stream, nothing of the previous one may carry over
+	// (otherwise the whole disconnect would count as one big gap)
+	@Override
+	public void onConnected(EcgTransport transport) {
+		mPipeline.reset();
+		mState = STATE_CONNECTED;
+	}
+
+	@Override
+	public void onReady(EcgTransport transport) {
+		if(mAutoSubscribe) transport.subscribe(true);
+	}
+
+	@Override
+	public void onPacket(EcgTransport transport, byte[] packet, long arrivalNanos) {
+		mLastSampleCount = mPipeline.onPacket(packet, arrivalNanos);
+		EcgTrace.record(EcgTrace.EVENT_PACKET, mLastSampleCount, arrivalNanos);
+		mBytesReceived += packet.length;
+		mState = STATE_STREAMING;
+	}
+
+	@Override
+	public void onDisconnected(EcgTransport transport) {
+		mState = STATE_DISCONNECTED;
+	}
+
+	// work out rates since the previous call, nowNanos on the same clock as the arrival times
+	public void updateThroughput(long nowNanos) {
+		final EcgPacketDecoder decoder = mPipeline.getDecoder();
+		final long packets = decoder.getPacketCount();
+		final long samples = decoder.getSampleCount();
+		final long bytes = mBytesReceived;
+
+		// counters went back to 0 with a new connection, start measuring again
+		if(packets < mLastPackets) mLastUpdateNanos = 0;
+		if(mLastUpdateNanos != 0 && nowNanos > mLastUpdateNanos) {
+			final float seconds = (nowNanos - mLastUpdateNanos) / 1e9f;
+			mPacketRate = (packets - mLastPackets) / seconds;
+			mSampleRate = (samples - mLastSamples) / seconds;
+			mByteRate = (bytes - mLastBytes) / seconds;
+		}
+		mLastUpdateNanos = nowNanos;
+		mLastPackets = packets;
+		mLastSamples = samples;
+		mLastBytes = bytes;
+	}
+}
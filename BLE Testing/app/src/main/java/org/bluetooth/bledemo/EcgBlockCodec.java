@@ -0,0 +1,177 @@
+package org.bluetooth.bledemo;
+
+/******************************************************************************
+EcgBlockCodec compresses blocks of int16 ECG samples without losing anything.
+Every block stands on its own so any block can be decoded without the ones
+before it (random access by block):
+  1. linear prediction, order 0, 1 or 2, whichever gives smallest residuals
+     order 1: r[n] = x[n] - x[n-1]
+     order 2: r[n] = x[n] - 2x[n-1] + x[n-2]
+  2. residuals zigzag mapped to unsigned (0,-1,1,-2,.. -> 0,1,2,3,..)
+  3. Rice coded with one parameter k per block: quotient (u >> k) in unary,
+     then k low bits. Quotients of ESCAPE_QUOTIENT or more are written as
+     ESCAPE_QUOTIENT ones followed by the raw ESCAPE_BITS value.
+
+Block layout (big-endian):
+  short  sample count
+  byte   predictor order
+  byte   rice parameter k
+  short  x[0] .. x[order-1] as warm up samples
+  bits   residuals of x[order] .. x[count-1], padded to a whole byte
+*******************************************************************************/
+
+import java.nio.ByteBuffer;
+
+public class EcgBlockCodec {
+	public static final int BLOCK_HEADER_SIZE = 4;
+	private static final int MAX_ORDER = 2;
+	private static final int ESCAPE_QUOTIENT = 24;
+	// zigzag of a 2nd order residual of int16 needs at most 19 bits
+	private static final int ESCAPE_BITS = 20;
+	private static final int MAX_K = 16;
+
+	// bit writer state
+	private long mBits = 0;
+	private int mBitCount = 0;
+
+	// worst case size of one encoded block, use it to size output buffers
+	public static int maxEncodedSize(int count) {
+		return BLOCK_HEADER_SIZE + MAX_ORDER * 2 + (count * (ESCAPE_QUOTIENT + ESCAPE_BITS) + 7) / 8;
+	}
+
+	// encode count samples starting at offset into out, at its current position
+	// returns number of bytes written. out must have maxEncodedSize(count) bytes left
+	public int encode(final short[] samples, final int offset, final int count, final ByteBuffer out) {
+		final int start = out.position();
+		final int order = chooseOrder(samples, offset, count);
+
+		// pick k from mean of residuals: k ~ log2(mean)
+		long sum = 0;
+		for(int i = order; i < count; i++) {
+			sum += zigzag(residual(samples, offset + i, order));
+		}
+		final int n = count - order;
+		int k = 0;
+		if(n > 0) {
+			final long mean = sum / n;
+			while(k < MAX_K && (1L << (k + 1)) <= mean) k++;
+		}
+
+		out.putShort((short)count);
+		out.put((byte)order);
+		out.put((byte)k);
+		for(int i = 0; i < order && i < count; i++) out.putShort(samples[offset + i]);
+
+		mBits = 0;
+		mBitCount = 0;
+		final long mask = (1L << k) - 1;
+		for(int i = order; i < count; i++) {
+			final int u = zigzag(residual(samples, offset + i, order));
+			final int q = u >>> k;
+			if(q < ESCAPE_QUOTIENT) {
+				// q ones, a zero, then k low bits
+				putBits(((1L << q) - 1) << 1, q + 1, out);
+				if(k > 0) putBits(u & mask, k, out);
+			}
+			else {
+				putBits((1L << ESCAPE_QUOTIENT) - 1, ESCAPE_QUOTIENT, out);
+				putBits(u, ESCAPE_BITS, out);
+			}
+		}
+		// pad last byte
+		if(mBitCount > 0) putBits(0, 8 - (mBitCount & 7) & 7, out);
+
+		return out.position() - start;
+	}
+
+	// decode one block from in, at its current position, into out[offset]
+	// returns number of samples, in is left right after the block
+	public int decode(final ByteBuffer in, final short[] out, final int offset) {
+		final int count = in.getShort() & 0xffff;
+		final int order = in.get();
+		final int k = in.get();
+		for(int i = 0; i < order && i < count; i++) out[offset + i] = in.getShort();
+
+		// bit reader, refilled a byte at a time
+		long bits = 0;
+		int bitCount = 0;
+		for(int i = order; i < count; i++) {
+			// unary quotient
+			int q = 0;
+			while(true) {
+				if(bitCount == 0) {
+					bits = in.get() & 0xff;
+					bitCount = 8;
+				}
+				bitCount--;
+				if(((bits >>> bitCount) & 1) == 0) break;
+				if(++q == ESCAPE_QUOTIENT) break;
+			}
+
+			final int width = (q == ESCAPE_QUOTIENT) ? ESCAPE_BITS : k;
+			while(bitCount < width) {
+				bits = (bits << 8) | (in.get() & 0xff);
+				bitCount += 8;
+			}
+			bitCount -= width;
+			final int low = (int)((bits >>> bitCount) & ((1L << width) - 1));
+			bits &= (1L << bitCount) - 1;
+
+			final int u = (q == ESCAPE_QUOTIENT) ? low : ((q << k) | low);
+			final int r = (u >>> 1) ^ -(u & 1);
+
+			final int p = offset + i;
+			int x;
+			if(order == 0)      x = r;
+			else if(order == 1) x = r + out[p - 1];
+			else                x = r + 2 * out[p - 1] - out[p - 2];
+			out[p] = (short)x;
+		}
+		return count;
+	}
+
+	// skip one block without decoding it, returns its sample count
+	public static int skip(final ByteBuffer in, final int encodedSize) {
+		final int count = in.getShort(in.position()) & 0xffff;
+		in.position(in.position() + encodedSize);
+		return count;
+	}
+
+	// order with the smallest sum of absolute residuals
+	private static int chooseOrder(final short[] x, final int offset, final int count) {
+		if(count <= MAX_ORDER) return 0;
+		long s0 = 0, s1 = 0, s2 = 0;
+		for(int i = offset + MAX_ORDER; i < offset + count; i++) {
+			final int r0 = x[i];
+			final int r1 = x[i] - x[i-1];
+			final int r2 = r1 - (x[i-1] - x[i-2]);
+			s0 += Math.abs(r0);
+			s1 += Math.abs(r1);
+			s2 += Math.abs(r2);
+		}
+		if(s2 <= s1 && s2 <= s0) return 2;
+		return (s1 <= s0) ? 1 : 0;
+	}
+
+	private static int residual(final short[] x, final int i, final int order) {
+		if(order == 0) return x[i];
+		if(order == 1) return x[i] - x[i-1];
+		return x[i] - 2 * x[i-1] + x[i-2];
+	}
+
+	private static int zigzag(final int r) {
+		return (r << 1) ^ (r >> 31);
+	}
+
+	// append the n low bits of value, flushing whole bytes to out
+	private void putBits(final long value, final int n, final ByteBuffer out) {
+		if(n == 0) return;
+		mBits = (mBits << n) | (value & ((1L << n) - 1));
+		mBitCount += n;
+		while(mBitCount >= 8) {
+			mBitCount -= 8;
+			out.put((byte)(mBits >>> mBitCount));
+		}
+		mBits &= (1L << mBitCount) - 1;
+	}
+}
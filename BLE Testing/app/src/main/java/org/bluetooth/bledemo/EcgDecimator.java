@@ -0,0 +1,260 @@
+package org.bluetooth.bledemo;
+
+/******************************************************************************
+EcgDecimator boils the ECG stream down to what the screen can show: a fixed
+time window (e.g. 10s) always comes out as the same number of points, so
+drawing costs the same at 250Hz, 500Hz or 2kHz. Two ways of picking them:
+ - MODE_MINMAX: the window is cut into pointCount / 2 columns (one per
+   pixel column or two) and every column gives its smallest and largest
+   sample, in the order they came. A QRS spike always reaches its real
+   height, however many samples fall into one column.
+ - MODE_LTTB: Largest-Triangle-Three-Buckets, one sample per bucket of
+   window / pointCount, the one spanning the largest triangle with the point
+   picked before it and the average of the next bucket. Looks closer to the
+   real trace at rest, but thin spikes can lose a little height. Points come
+   out one bucket late, the next bucket is needed to pick.
+Points go into a ring of pointCount floats, oldest first when read. A column
+(bucket) holding only EcgGapDetector.GAP_MARKER samples gives NaN, so lost
+data shows as a break in the line. If the window has fewer samples than
+points, empty columns repeat the last value.
+Single thread (the UI drains the sample ring and adds here), nothing is
+allocated after the constructor.
+*******************************************************************************/
+
+import java.util.Arrays;
+
+public class EcgDecimator {
+	public static final int MODE_MINMAX = 0;
+	public static final int MODE_LTTB   = 1;
+
+	private final int mMode;
+	private final float mWindowSeconds;
+	private final float[] mPoints;
+	// samples per column (MINMAX) or bucket (LTTB), not a whole number in general
+	private final double mSamplesPerBucket;
+
+	// point ring, next write at mHead
+	private int mHead = 0;
+	private int mAvailable = 0;
+	private long mPointsWritten = 0;
+
+	// position in the stream
+	private long mSampleIndex = 0;
+	private double mBucketEnd;
+	private float mLastValue = 0;
+
+	// MINMAX column being filled
+	private int mMin, mMax;
+	private long mMinIndex, mMaxIndex;
+	private int mSeen = 0;
+	private int mValid = 0;
+
+	// LTTB: bucket waiting for its pick, bucket being filled and the last point picked
+	private float[] mPending;
+	private long[] mPendingIndex;
+	private int mPendingCount = -1; // -1: no bucket waiting yet
+	private boolean mPendingSeen = false;
+	private float[] mFilling;
+	private long[] mFillingIndex;
+	private int mFillingCount = 0;
+	private boolean mFillingSeen = false;
+	private double mFillingSum = 0;
+	private double mFillingIndexSum = 0;
+	private float mPickedValue = Float.NaN;
+	private long mPickedIndex = 0;
+
+	// pointCount points (even for MINMAX) cover windowSeconds of a stream at sampleRate
+	public EcgDecimator(float sampleRate, float windowSeconds, int pointCount, int mode) {
+		mMode = mode;
+		mWindowSeconds = windowSeconds;
+		if(mode == MODE_MINMAX) pointCount = Math.max(2, pointCount & ~1);
+		mPoints = new float[pointCount];
+		final int buckets = (mode == MODE_MINMAX) ? pointCount / 2 : pointCount;
+		mSamplesPerBucket = sampleRate * windowSeconds / buckets;
+
+		if(mode == MODE_LTTB) {
+			// a bucket never holds more than ceil(samples per bucket) samples
+			final int capacity = (int)Math.ceil(mSamplesPerBucket) + 1;
+			mPending = new float[capacity];
+			mPendingIndex = new long[capacity];
+			mFilling = new float[capacity];
+			mFillingIndex = new long[capacity];
+		}
+		reset();
+	}
+
+	public int   getMode()          { return mMode; }
+	public float getWindowSeconds() { return mWindowSeconds; }
+	// points the full window is drawn with
+	public int   getPointCount()    { return mPoints.length; }
+	// points in the ring so far, getPointCount() once the window is full
+	public int   getAvailable()     { return mAvailable; }
+	// points ever made, the difference between two calls is how many are new
+	public long  getPointsWritten() { return mPointsWritten; }
+	// time between two points
+	public float getPointSeconds()  { return mWindowSeconds / mPoints.length; }
+
+	// i-th point, 0 the oldest, getAvailable() - 1 the newest
+	public float getPoint(int i) {
+		int index = mHead - mAvailable + i;
+		if(index < 0) index += mPoints.length;
+		return mPoints[index];
+	}
+
+	// all points oldest first into out, returns how many
+	public int copyPoints(final float[] out) {
+		final int start = mHead - mAvailable;
+		if(start >= 0) {
+			System.arraycopy(mPoints, start, out, 0, mAvailable);
+		}
+		else {
+			final int tail = -start;
+			System.arraycopy(mPoints, mPoints.length - tail, out, 0, tail);
+			System.arraycopy(mPoints, 0, out, tail, mHead);
+		}
+		return mAvailable;
+	}
+
+	public void reset() {
+		Arrays.fill(mPoints, Float.NaN);
+		mHead = 0;
+		mAvailable = 0;
+		mPointsWritten = 0;
+		mSampleIndex = 0;
+		mBucketEnd = mSamplesPerBucket;
+		mLastValue = 0;
+		mSeen = 0;
+		mValid = 0;
+		mPendingCount = -1;
+		mFillingCount = 0;
+		mFillingSeen = false;
+		mFillingSum = 0;
+		mFillingIndexSum = 0;
+		mPickedValue = Float.NaN;
+	}
+
+	// add len samples from block[offset], GAP_MARKER for lost ones
+	public void add(final int[] block, final int offset, final int len) {
+		for(int i = offset; i < offset + len; i++) {
+			// a sample past the end of the bucket closes it (more than one if buckets are under one sample)
+			while(mSampleIndex >= mBucketEnd) {
+				if(mMode == MODE_MINMAX) closeColumn();
+				else closeBucket();
+				mBucketEnd += mSamplesPerBucket;
+			}
+			if(mMode == MODE_MINMAX) addToColumn(block[i]);
+			else addToBucket(block[i]);
+			mSampleIndex++;
+		}
+	}
+
+	private void addToColumn(final int sample) {
+		mSeen++;
+		if(sample == EcgGapDetector.GAP_MARKER) return;
+		if(mValid == 0 || sample < mMin) {
+			mMin = sample;
+			mMinIndex = mSampleIndex;
+		}
+		if(mValid == 0 || sample > mMax) {
+			mMax = sample;
+			mMaxIndex = mSampleIndex;
+		}
+		mValid++;
+	}
+
+	private void closeColumn() {
+		if(mValid > 0) {
+			// in the order they came, so the line goes through both like the trace did
+			if(mMinIndex <= mMaxIndex) {
+				put(mMin);
+				put(mMax);
+			}
+			else {
+				put(mMax);
+				put(mMin);
+			}
+			mLastValue = (mMinIndex <= mMaxIndex) ? mMax : mMin;
+		}
+		else if(mSeen > 0) {
+			// nothing but lost samples
+			put(Float.NaN);
+			put(Float.NaN);
+		}
+		else {
+			// fewer samples than columns, hold
+			put(mLastValue);
+			put(mLastValue);
+		}
+		mSeen = 0;
+		mValid = 0;
+	}
+
+	private void addToBucket(final int sample) {
+		mFillingSeen = true;
+		if(sample == EcgGapDetector.GAP_MARKER) return;
+		mFilling[mFillingCount] = sample;
+		mFillingIndex[mFillingCount] = mSampleIndex;
+		mFillingCount++;
+		mFillingSum += sample;
+		mFillingIndexSum += mSampleIndex;
+	}
+
+	// the filled bucket becomes the next one of the pending bucket, so the pending one can be picked
+	private void closeBucket() {
+		if(mPendingCount >= 0) {
+			if(mFillingCount > 0) pick(mFillingIndexSum / mFillingCount, mFillingSum / mFillingCount);
+			else pick(mSampleIndex, mLastValue);
+		}
+
+		// swap buffers, the filled one waits for the next bucket now
+		float[] values = mPending;
+		long[] indexes = mPendingIndex;
+		mPending = mFilling;
+		mPendingIndex = mFillingIndex;
+		mFilling = values;
+		mFillingIndex = indexes;
+		mPendingCount = mFillingCount;
+		mPendingSeen = mFillingSeen;
+		mFillingCount = 0;
+		mFillingSeen = false;
+		mFillingSum = 0;
+		mFillingIndexSum = 0;
+	}
+
+	// pick the point of the pending bucket with the largest triangle to the last pick and the next average
+	private void pick(final double nextIndex, final double nextValue) {
+		if(mPendingCount == 0) {
+			if(mPendingSeen) {
+				put(Float.NaN);
+				mPickedValue = Float.NaN;
+			}
+			else put(mLastValue);
+			return;
+		}
+
+		// nothing picked before (start, after a gap): measure from the bucket's own first point
+		final boolean hasPrevious = !Float.isNaN(mPickedValue);
+		final double ax = hasPrevious ? mPickedIndex : mPendingIndex[0];
+		final double ay = hasPrevious ? mPickedValue : mPending[0];
+		int best = 0;
+		double bestArea = -1;
+		for(int i = 0; i < mPendingCount; i++) {
+			final double area = Math.abs((ax - nextIndex) * (mPending[i] - ay) - (ax - mPendingIndex[i]) * (nextValue - ay));
+			if(area > bestArea) {
+				bestArea = area;
+				best = i;
+			}
+		}
+		mPickedValue = mPending[best];
+		mPickedIndex = mPendingIndex[best];
+		mLastValue = mPickedValue;
+		put(mPickedValue);
+	}
+
+	private void put(final float value) {
+		mPoints[mHead] = value;
+		if(++mHead == mPoints.length) mHead = 0;
+		if(mAvailable < mPoints.length) mAvailable++;
+		mPointsWritten++;
+	}
+}
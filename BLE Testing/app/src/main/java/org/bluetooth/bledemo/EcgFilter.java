@@ -0,0 +1,177 @@
+package org.bluetooth.bledemo;
+
+/******************************************************************************
+EcgFilter is a streaming IIR filter for the ECG samples. It is a cascade of
+biquad sections (direct form II transposed):
+  - 4th order Butterworth high-pass, removes baseline wander
+  - 4th order Butterworth low-pass, removes muscle / high frequency noise
+  - optional notch at the mains frequency (50 or 60Hz)
+Every channel keeps its own filter state, blocks are filtered in place and
+nothing is allocated while filtering. Coefficients follow the RBJ Audio EQ
+Cookbook: http://www.musicdsp.org/files/Audio-EQ-Cookbook.txt
+*******************************************************************************/
+
+public class EcgFilter {
+	// mains frequency settings, 0 turns the notch off
+	public static final int MAINS_NONE = 0;
+	public static final int MAINS_50HZ = 50;
+	public static final int MAINS_60HZ = 60;
+
+	// default band for monitoring ECG
+	public static final float DEFAULT_LOW_CUT_HZ = 0.5f;
+	public static final float DEFAULT_HIGH_CUT_HZ = 40.0f;
+	// at low sample rates the default high cut is brought down to this part of the rate,
+	// keeps the low-pass clear of sampleRate / 2 where it stops being stable
+	private static final float MAX_HIGH_CUT_FRACTION = 0.45f;
+
+	// Q of the two sections that together make a 4th order Butterworth
+	private static final double[] BUTTERWORTH_Q4 = { 0.54119610, 1.30656296 };
+	// narrow notch, about 1.7Hz wide at 50Hz
+	private static final double NOTCH_Q = 30.0;
+	// coefficients per section: b0 b1 b2 a1 a2 (a0 normalised to 1)
+	private static final int COEFS = 5;
+
+	private final float mSampleRate;
+	private final int mChannels;
+	private float mLowCutHz = DEFAULT_LOW_CUT_HZ;
+	private float mHighCutHz = DEFAULT_HIGH_CUT_HZ;
+	private int mMainsHz = MAINS_50HZ;
+	private volatile boolean mEnabled = true;
+
+	// current coefficients. replaced as a whole when settings change so the
+	// filtering thread never sees half updated values
+	private volatile double[] mCoefs;
+	// state of each channel, 2 values per section. only touched by the filtering thread
+	private double[] mState;
+	private double[] mStateCoefs = null;
+
+	// the default band and notch are fitted to sampleRate: the high cut is clamped
+	// below sampleRate / 2 and the notch is off if the mains frequency is not below it
+	public EcgFilter(float sampleRate, int channels) {
+		if(!(sampleRate > 0) || channels <= 0) {
+			throw new IllegalArgumentException("Invalid filter " + sampleRate + " Hz, " + channels + " channels");
+		}
+		mSampleRate = sampleRate;
+		mChannels = channels;
+		mHighCutHz = Math.min(DEFAULT_HIGH_CUT_HZ, sampleRate * MAX_HIGH_CUT_FRACTION);
+		if(mHighCutHz <= mLowCutHz) {
+			throw new IllegalArgumentException("Sample rate " + sampleRate + " Hz too low for a " + mLowCutHz + " Hz high-pass");
+		}
+		if(mMainsHz >= sampleRate / 2) mMainsHz = MAINS_NONE;
+		mCoefs = design();
+	}
+
+	public float getSampleRate() { return mSampleRate; }
+	public float getLowCutHz()   { return mLowCutHz; }
+	public float getHighCutHz()  { return mHighCutHz; }
+	public int   getMainsHz()    { return mMainsHz; }
+	public boolean isEnabled()   { return mEnabled; }
+
+	// turn filtering on or off, samples pass through unchanged when off
+	public void setEnabled(boolean enabled) {
+		mEnabled = enabled;
+	}
+
+	// set pass band of the filter, 0 < low < high < sampleRate / 2
+	public synchronized void setBandPass(float lowCutHz, float highCutHz) {
+		if(lowCutHz <= 0 || highCutHz <= lowCutHz || highCutHz >= mSampleRate / 2) {
+			throw new IllegalArgumentException("Invalid pass band " + lowCutHz + " - " + highCutHz + " Hz");
+		}
+		mLowCutHz = lowCutHz;
+		mHighCutHz = highCutHz;
+		mCoefs = design();
+	}
+
+	// set mains frequency to notch out, one of MAINS_NONE, MAINS_50HZ, MAINS_60HZ, below sampleRate / 2
+	public synchronized void setMainsFrequency(int mainsHz) {
+		if((mainsHz != MAINS_NONE && mainsHz != MAINS_50HZ && mainsHz != MAINS_60HZ)
+				|| mainsHz >= mSampleRate / 2) {
+			throw new IllegalArgumentException("Invalid mains frequency " + mainsHz + " Hz");
+		}
+		mMainsHz = mainsHz;
+		mCoefs = design();
+	}
+
+	// filter len samples of block starting at offset, in place
+	// call from one thread only, each channel has its own state
+	public void process(final int[] block, final int offset, final int len, final int channel) {
+		if(!mEnabled) return;
+
+		final double[] c = mCoefs;
+		if(c != mStateCoefs) {
+			// settings changed (or first call), start with clean state
+			mState = new double[mChannels * (c.length / COEFS) * 2];
+			mStateCoefs = c;
+		}
+
+		final double[] z = mState;
+		final int sections = c.length / COEFS;
+		final int base = channel * sections * 2;
+		final int end = offset + len;
+
+		for(int i = offset; i < end; i++) {
+			double x = block[i];
+			for(int s = 0, k = 0, zi = base; s < sections; s++, k += COEFS, zi += 2) {
+				final double y = c[k] * x + z[zi];
+				z[zi]     = c[k+1] * x - c[k+3] * y + z[zi+1];
+				z[zi + 1] = c[k+2] * x - c[k+4] * y;
+				x = y;
+			}
+			block[i] = (int)Math.round(x);
+		}
+	}
+
+	// clear history of all channels, e.g. after reconnecting. filtering thread only
+	public void reset() {
+		mStateCoefs = null;
+	}
+
+	// calculate coefficients of all sections for current settings
+	private double[] design() {
+		final boolean notch = (mMainsHz != MAINS_NONE);
+		final int sections = BUTTERWORTH_Q4.length * 2 + (notch ? 1 : 0);
+		final double[] c = new double[sections * COEFS];
+
+		int k = 0;
+		for(double q : BUTTERWORTH_Q4) {
+			setHighPass(c, k, mLowCutHz, q);
+			k += COEFS;
+		}
+		for(double q : BUTTERWORTH_Q4) {
+			setLowPass(c, k, mHighCutHz, q);
+			k += COEFS;
+		}
+		if(notch) setNotch(c, k, mMainsHz, NOTCH_Q);
+		return c;
+	}
+
+	private void setHighPass(double[] c, int k, double f, double q) {
+		final double w0 = 2 * Math.PI * f / mSampleRate;
+		final double cos = Math.cos(w0);
+		final double alpha = Math.sin(w0) / (2 * q);
+		setSection(c, k, (1 + cos) / 2, -(1 + cos), (1 + cos) / 2, 1 + alpha, -2 * cos, 1 - alpha);
+	}
+
+	private void setLowPass(double[] c, int k, double f, double q) {
+		final double w0 = 2 * Math.PI * f / mSampleRate;
+		final double cos = Math.cos(w0);
+		final double alpha = Math.sin(w0) / (2 * q);
+		setSection(c, k, (1 - cos) / 2, 1 - cos, (1 - cos) / 2, 1 + alpha, -2 * cos, 1 - alpha);
+	}
+
+	private void setNotch(double[] c, int k, double f, double q) {
+		final double w0 = 2 * Math.PI * f / mSampleRate;
+		final double cos = Math.cos(w0);
+		final double alpha = Math.sin(w0) / (2 * q);
+		setSection(c, k, 1, -2 * cos, 1, 1 + alpha, -2 * cos, 1 - alpha);
+	}
+
+	// store section normalised by a0
+	private static void setSection(double[] c, int k, double b0, double b1, double b2, double a0, double a1, double a2) {
+		c[k]     = b0 / a0;
+		c[k + 1] = b1 / a0;
+		c[k + 2] = b2 / a0;
+		c[k + 3] = a1 / a0;
+		c[k + 4] = a2 / a0;
+	}
+}
@@ -0,0 +1,165 @@
+package org.bluetooth.bledemo;
+
+/******************************************************************************
+EcgFrameRenderer paces the ECG Wave drawing to the display instead of to the
+sensor. Once per frame (Choreographer callback) it drains whatever samples
+arrived since the previous frame, pushes them into the graph and updates the
+value fields of the details view, so redraw cost depends on the frame rate
+and not on how many notifications per second the sensor sends.
+Frames only keep coming while the acquisition is streaming. When it is not
+(idle, disconnected, replay over) the renderer stops asking for frames and
+the next packet (postValue) starts it again.
+Frame time, dropped frames and arrival to screen latency go into the
+metrics of the pipeline (ui.*). Latency is only measured on a live link,
+a replay hands over the recorded arrival times, which are on another clock.
+*******************************************************************************/
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.os.SystemClock;
+import android.view.Choreographer;
+
+public class EcgFrameRenderer implements Choreographer.FrameCallback {
+	private final Choreographer mChoreographer;
+	private final CharacteristicDetailsAdapter mAdapter;
+	private final BleWrapper mBle;
+	private final EcgAcquisition mAcquisition;
+	private final SampleRingBuffer mRing;
+	private final RPeakDetector mDetector;
+	private final EcgTimebase mTimebase;
+	private volatile boolean mRunning = false;
+	// a frame callback is posted, set from UI and GATT thread
+	private final AtomicBoolean mScheduled = new AtomicBoolean(false);
+	private long mShownBeatCount = -1;
+
+	private final MetricsRegistry.Counter mFramesMetric;
+	private final MetricsRegistry.Counter mDroppedFramesMetric;
+	private final MetricsRegistry.Histogram mFrameTimeMetric;
+	private final MetricsRegistry.Histogram mRenderLatencyMetric;
+	private long mLastFrameNanos = 0;
+	// refresh interval of the display, see setRefreshRate()
+	private static final float DEFAULT_REFRESH_RATE = 60f;
+	private long mFrameIntervalNanos = Math.round(1e9 / DEFAULT_REFRESH_RATE);
+
+	// latest ECG Wave value, published on GATT thread and picked up by next frame
+	private final ValueTripleBuffer mValues;
+	private volatile BluetoothGattCharacteristic mLatestCharacteristic = null;
+	private volatile boolean mNewValue = false;
+
+	// MUST be created on the UI thread, Choreographer is bound to the looper of the calling thread
+	// draws the ECG pipeline and values of ble (see BleWrapper.getEcgValues()) into adapter
+	public EcgFrameRenderer(CharacteristicDetailsAdapter adapter, BleWrapper ble) {
+		mChoreographer = Choreographer.getInstance();
+		mAdapter = adapter;
+		mBle = ble;
+		mAcquisition = ble.getAcquisition();
+		mValues = ble.getEcgValues();
+		final EcgPipeline pipeline = ble.getEcgPipeline();
+		mRing = pipeline.getSamples();
+		mDetector = pipeline.getDetector();
+		mTimebase = pipeline.getTimebase();
+
+		final MetricsRegistry metrics = pipeline.getMetrics();
+		mFramesMetric = metrics.counter("ui.frames");
+		mDroppedFramesMetric = metrics.counter("ui.dropped_frames");
+		mFrameTimeMetric = metrics.histogram("ui.frame_ns");
+		mRenderLatencyMetric = metrics.histogram("ui.render_latency_ns");
+	}
+
+	// start drawing on every frame. UI thread only
+	public void start() {
+		if(mRunning) return;
+		mRunning = true;
+		mShownBeatCount = -1;
+		mLastFrameNanos = 0;
+		// one frame to show what is there, it keeps going by itself if the sensor is streaming
+		schedule();
+	}
+
+	// stop drawing, samples keep collecting in the ring. UI thread only
+	public void stop() {
+		if(!mRunning) return;
+		mRunning = false;
+		mChoreographer.removeFrameCallback(this);
+		mScheduled.set(false);
+	}
+
+	public boolean isRunning() {
+		return mRunning;
+	}
+
+	// refresh rate of the display we draw on (Display.getRefreshRate()), dropped frames are
+	// counted against it. Anything not sensible keeps DEFAULT_REFRESH_RATE. UI thread only
+	public void setRefreshRate(final float hz) {
+		mFrameIntervalNanos = Math.round(1e9 / ((hz >= 1) ? hz : DEFAULT_REFRESH_RATE));
+	}
+
+	// called from GATT thread for every packet after the value went into the triple buffer,
+	// nothing gets posted. values skipped in between are never formatted
+	// wakes the renderer up if it stopped asking for frames
+	public void postValue(final BluetoothGattCharacteristic ch) {
+		mLatestCharacteristic = ch;
+		mNewValue = true;
+		schedule();
+	}
+
+	// post a frame callback unless one is posted already. Any thread, Choreographer takes care
+	// of getting it onto the UI thread
+	private void schedule() {
+		if(mRunning && mScheduled.compareAndSet(false, true)) mChoreographer.postFrameCallback(this);
+	}
+
+	@Override
+	public void doFrame(long frameTimeNanos) {
+		mScheduled.set(false);
+		if(!mRunning) return;
+		final long workStart = System.nanoTime();
+		countFrame(frameTimeNanos);
+
+		// new value since last frame? update text fields once
+		if(mNewValue) {
+			mNewValue = false;
+			// ours until the next acquire(), the GATT thread fills the other ones meanwhile
+			final CharacteristicValue value = mValues.acquire();
+			if(mLatestCharacteristic != null && value != null) {
+				mAdapter.newValueForCharacteristic(mLatestCharacteristic, value);
+				mAdapter.updateValueFields();
+			}
+		}
+
+		// then everything that arrived since last frame goes into the graph in one go
+		final int drained = mAdapter.drainEcgSamples(mRing);
+		EcgTrace.record(EcgTrace.EVENT_FRAME, drained, frameTimeNanos);
+		// recorded arrival times of a replay are not on this clock
+		if(drained > 0 && !mBle.isReplaying()) {
+			// newest sample drawn now, it arrived with the last packet
+			mRenderLatencyMetric.record(SystemClock.elapsedRealtimeNanos() - mTimebase.getLastArrivalNanos());
+		}
+
+		// heart rate only changes with a new beat
+		final long beats = mDetector.getBeatCount();
+		if(beats != mShownBeatCount) {
+			mShownBeatCount = beats;
+			mAdapter.updateHeartRate(mDetector.getHeartRate(), mDetector.getAverageHeartRate());
+		}
+
+		// keep going on the next vsync while data flows, otherwise wait for the next packet.
+		// frames are not counted while idle, the next one starts counting afresh
+		if(mAcquisition.getState() == EcgAcquisition.STATE_STREAMING) schedule();
+		else mLastFrameNanos = 0;
+		mFrameTimeMetric.record(System.nanoTime() - workStart);
+	}
+
+	// frames that should have come between the last one and this one were dropped
+	private void countFrame(final long frameTimeNanos) {
+		mFramesMetric.increment();
+		if(mLastFrameNanos != 0) {
+			final long interval = frameTimeNanos - mLastFrameNanos;
+			// half a frame of slack for vsync jitter
+			final long missed = (interval + mFrameIntervalNanos / 2) / mFrameIntervalNanos - 1;
+			if(missed > 0) mDroppedFramesMetric.add(missed);
+		}
+		mLastFrameNanos = frameTimeNanos;
+	}
+}
@@ -0,0 +1,143 @@
+package org.bluetooth.bledemo;
+
+/******************************************************************************
+EcgGapDetector finds ECG Wave notifications that never made it to us and keeps
+count of them, so a lost packet no longer just shifts the waveform left.
+Two ways of finding them:
+ - with a packet counter (EcgPacketDecoder.setSequenceCounter) the gap is
+   known exactly and is filled right where it happened
+ - without one, EcgTimebase tells how late a packet is against the time its
+   samples were taken. A link that stalls delivers everything late and then
+   catches up in a burst, lost samples keep every packet after them late for
+   good. So a gap is only taken as real once CONFIRM_PACKETS packets in a row,
+   spread over at least half the time they cover (not one burst), are later
+   than the threshold. Its size is the smallest lateness seen in them. The
+   fill then goes in where the gap was noticed, a few packets after where it
+   really was.
+Gaps are filled (see EcgPipeline) so sample indices and times stay right:
+FILL_HOLD repeats the last sample, FILL_LINEAR draws a line to the next one,
+FILL_MARKER puts GAP_MARKER in the samples handed to the UI (filter and beat
+detection still get HOLD values, a marker would ruin their state). Gaps longer
+than MAX_FILL_SECONDS are only counted.
+Written by the thread feeding the pipeline, settings and counters can be used
+from anywhere.
+*******************************************************************************/
+
+public class EcgGapDetector {
+	public static final int FILL_HOLD   = 0;
+	public static final int FILL_LINEAR = 1;
+	public static final int FILL_MARKER = 2;
+	// sample value standing for "no data" with FILL_MARKER, never sent by the sensor (int16)
+	public static final int GAP_MARKER = Integer.MIN_VALUE;
+
+	// lateness that counts as a gap when there is no packet counter, well above normal link jitter
+	public static final long DEFAULT_GAP_THRESHOLD_NANOS = 100000000L; // 100ms
+	// late packets in a row before a timing gap is believed
+	private static final int CONFIRM_PACKETS = 8;
+	public static final int MAX_FILL_SECONDS = 2;
+
+	private final int mMaxFillSamples;
+	private volatile int mFillMode = FILL_LINEAR;
+	private volatile long mGapThresholdNanos = DEFAULT_GAP_THRESHOLD_NANOS;
+
+	// timing gap candidate
+	private int mLatePackets = 0;
+	private long mMinLateNanos = Long.MAX_VALUE;
+	private long mFirstLateArrival = 0;
+
+	private volatile long mReceivedPackets = 0;
+	private volatile long mReceivedSamples = 0;
+	private volatile long mGapCount = 0;
+	private volatile long mLostPackets = 0;
+	private volatile long mLostSamples = 0;
+	private volatile long mFilledSamples = 0;
+
+	public EcgGapDetector(int sampleRate) {
+		mMaxFillSamples = MAX_FILL_SECONDS * sampleRate;
+	}
+
+	public void setFillMode(int mode)    { mFillMode = mode; }
+	public int  getFillMode()            { return mFillMode; }
+	public void setGapThresholdNanos(long nanos) { mGapThresholdNanos = nanos; }
+	public long getGapThresholdNanos()   { return mGapThresholdNanos; }
+	public int  getMaxFillSamples()      { return mMaxFillSamples; }
+
+	// count packets in, returns how many samples went missing right before this packet (0 for none)
+	// call after decoding it and before it is counted by the timebase
+	public int check(final EcgPacketDecoder decoder, final EcgTimebase timebase, final int count, final long arrivalNanos) {
+		mReceivedPackets++;
+		mReceivedSamples += count;
+
+		int lostPackets = 0;
+		if(decoder.hasSequenceCounter()) {
+			lostPackets = decoder.getLastSequenceGap();
+		}
+		else if(timebase.getPacketCount() > 0) {
+			final long late = arrivalNanos - timebase.getSampleTimeNanos(timebase.getSampleCount() + count - 1);
+			if(late <= mGapThresholdNanos) {
+				// caught up again, it was a stall and not a gap
+				mLatePackets = 0;
+				mMinLateNanos = Long.MAX_VALUE;
+				return 0;
+			}
+			if(late < mMinLateNanos) mMinLateNanos = late;
+			if(mLatePackets++ == 0) mFirstLateArrival = arrivalNanos;
+			if(mLatePackets < CONFIRM_PACKETS) return 0;
+
+			// a burst catching up after a stall comes in all at once, wait until it is over
+			final double packetNanos = count * 1e9 / timebase.getMeasuredSampleRate();
+			if(arrivalNanos - mFirstLateArrival < (mLatePackets - 1) * packetNanos / 2) return 0;
+
+			// lost samples are whole packets, round to the size of this one
+			lostPackets = (int)Math.round(mMinLateNanos / packetNanos);
+			mLatePackets = 0;
+			mMinLateNanos = Long.MAX_VALUE;
+		}
+		if(lostPackets <= 0) return 0;
+
+		mGapCount++;
+		mLostPackets += lostPackets;
+		mLostSamples += (long)lostPackets * count;
+		return lostPackets * count;
+	}
+
+	// fill out[offset] .. out[offset + len - 1] with samples from .. from + len - 1 of a gap of gapLen
+	// samples between before (last sample ahead of the gap) and after (first sample behind it)
+	// FILL_MARKER gives HOLD values, markers only go to the ring, see EcgPipeline
+	public void fill(final int[] out, final int offset, final int from, final int len, final int gapLen,
+					 final int before, final int after) {
+		if(mFillMode == FILL_LINEAR) {
+			final long step = after - before;
+			for(int i = 0; i < len; i++) out[offset + i] = before + (int)(step * (from + i + 1) / (gapLen + 1));
+		}
+		else {
+			for(int i = 0; i < len; i++) out[offset + i] = before;
+		}
+		mFilledSamples += len;
+	}
+
+	public long getReceivedPackets() { return mReceivedPackets; }
+	public long getReceivedSamples() { return mReceivedSamples; }
+	public long getGapCount()        { return mGapCount; }
+	public long getLostPackets()     { return mLostPackets; }
+	public long getLostSamples()     { return mLostSamples; }
+	public long getFilledSamples()   { return mFilledSamples; }
+
+	// part of all samples sent that never arrived, 0..1
+	public float getLossRate() {
+		final long lost = mLostSamples;
+		final long total = mReceivedSamples + lost;
+		return (total > 0) ? (float)lost / total : 0f;
+	}
+
+	public void reset() {
+		mLatePackets = 0;
+		mMinLateNanos = Long.MAX_VALUE;
+		mReceivedPackets = 0;
+		mReceivedSamples = 0;
+		mGapCount = 0;
+		mLostPackets = 0;
+		mLostSamples = 0;
+		mFilledSamples = 0;
+	}
+}
@@ -0,0 +1,138 @@
+package org.bluetooth.bledemo;
+
+/******************************************************************************
+EcgPacketDecoder turns the raw "ECG Wave" notifications sent by the sensor into
+samples. Every notification carries big-endian signed 16bit samples (MSB
+first), as many as fit: 10 in the 20 bytes of the default 23 byte ATT MTU,
+more once a larger MTU is negotiated (see BleWrapper.REQUESTED_MTU). Any
+length that is a whole number of samples is accepted. Samples are written
+straight into a block given by the caller so nothing is allocated per packet.
+Firmware that numbers its notifications puts a big-endian uint16 packet
+counter in front of the samples, setSequenceCounter(true) makes the decoder
+take it off and count how many packets went missing in between.
+*******************************************************************************/
+
+public class EcgPacketDecoder {
+	// size of one notification as sent by the sensor (default 23 byte ATT MTU - 3 byte header)
+	public static final int PACKET_SIZE = 20;
+	// every sample is a big-endian int16
+	public static final int BYTES_PER_SAMPLE = 2;
+	// so we get 10 samples out of every packet
+	public static final int SAMPLES_PER_PACKET = PACKET_SIZE / BYTES_PER_SAMPLE;
+	// longest attribute value ATT allows, bounds the packet whatever MTU we got
+	public static final int MAX_PACKET_SIZE = 512;
+	// size blocks passed to decode() with this
+	public static final int MAX_SAMPLES_PER_PACKET = MAX_PACKET_SIZE / BYTES_PER_SAMPLE;
+	// optional packet counter in front of the samples
+	public static final int SEQUENCE_SIZE = 2;
+	private static final int SEQUENCE_MODULO = 1 << (8 * SEQUENCE_SIZE);
+
+	// counters are only written by the thread that decodes, but can be read from anywhere
+	private volatile long mSampleCount = 0;
+	private volatile long mPacketCount = 0;
+	private volatile long mRejectedCount = 0;
+
+	private volatile boolean mSequenceCounter = false;
+	private int mLastSequence = -1;
+	private int mLastSequenceGap = 0;
+
+	// packets start with a uint16 counter (true) or are samples only (false, our firmware so far)
+	public void setSequenceCounter(boolean enabled) {
+		mSequenceCounter = enabled;
+		mLastSequence = -1;
+		mLastSequenceGap = 0;
+	}
+
+	public boolean hasSequenceCounter() {
+		return mSequenceCounter;
+	}
+
+	// packets missing between the previous packet and the last one decoded, by their counters
+	// always 0 without a sequence counter
+	public int getLastSequenceGap() {
+		return mLastSequenceGap;
+	}
+
+	// check if packet looks like an ECG Wave notification we are able to decode
+	public boolean isValidPacket(final byte[] packet) {
+		final int header = mSequenceCounter ? SEQUENCE_SIZE : 0;
+		return packet != null && packet.length > header && packet.length <= MAX_PACKET_SIZE
+				&& ((packet.length - header) % BYTES_PER_SAMPLE) == 0;
+	}
+
+	// decode one packet into out[offset] .. out[offset + (packet.length - counter) / 2 - 1]
+	// returns number of samples written, 0 if packet was rejected
+	// caller has to make sure the block has space for MAX_SAMPLES_PER_PACKET samples
+	public int decode(final byte[] packet, final short[] out, final int offset) {
+		if(!isValidPacket(packet)) {
+			mRejectedCount++;
+			return 0;
+		}
+		final int length = packet.length;
+		final int start = readSequence(packet);
+		final int count = (length - start) / BYTES_PER_SAMPLE;
+
+		// masking to prevent possible extension of bits
+		for(int i = start, j = offset; i < length; i += BYTES_PER_SAMPLE, j++) {
+			out[j] = (short)(((packet[i] & 0xff) << 8) | (packet[i+1] & 0xff));
+		}
+
+		mPacketCount++;
+		mSampleCount += count;
+		return count;
+	}
+
+	// same as above, but samples are sign extended into an int block
+	public int decode(final byte[] packet, final int[] out, final int offset) {
+		if(!isValidPacket(packet)) {
+			mRejectedCount++;
+			return 0;
+		}
+		final int length = packet.length;
+		final int start = readSequence(packet);
+		final int count = (length - start) / BYTES_PER_SAMPLE;
+
+		for(int i = start, j = offset; i < length; i += BYTES_PER_SAMPLE, j++) {
+			out[j] = (short)(((packet[i] & 0xff) << 8) | (packet[i+1] & 0xff));
+		}
+
+		mPacketCount++;
+		mSampleCount += count;
+		return count;
+	}
+
+	// total number of samples decoded so far, this is also the index of the next sample
+	public long getSampleCount() {
+		return mSampleCount;
+	}
+
+	public long getPacketCount() {
+		return mPacketCount;
+	}
+
+	// packets with a length that is not a whole number of samples are dropped and counted here
+	public long getRejectedCount() {
+		return mRejectedCount;
+	}
+
+	// start counting from scratch, e.g. when switching to another device
+	public void reset() {
+		mSampleCount = 0;
+		mPacketCount = 0;
+		mRejectedCount = 0;
+		mLastSequence = -1;
+		mLastSequenceGap = 0;
+	}
+
+	// take the packet counter off a valid packet, returns where the samples start
+	private int readSequence(final byte[] packet) {
+		if(!mSequenceCounter) return 0;
+		final int sequence = ((packet[0] & 0xff) << 8) | (packet[1] & 0xff);
+		// counter wraps around, a repeated counter (gap of SEQUENCE_MODULO - 1) is taken as a restart
+		int gap = (mLastSequence < 0) ? 0 : (sequence - mLastSequence - 1 + SEQUENCE_MODULO) % SEQUENCE_MODULO;
+		if(gap == SEQUENCE_MODULO - 1) gap = 0;
+		mLastSequenceGap = gap;
+		mLastSequence = sequence;
+		return SEQUENCE_SIZE;
+	}
+}
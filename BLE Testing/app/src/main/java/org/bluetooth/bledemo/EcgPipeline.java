@@ -0,0 +1,181 @@
+package org.bluetooth.bledemo;
+
+/******************************************************************************
+EcgPipeline ties together the stages every ECG Wave notification goes
+through on the GATT callback thread:
+  packet -> EcgPacketDecoder -> EcgFilter -> SampleRingBuffer -> UI
+                      |                   -> RPeakDetector -> heart rate
+                      -> EcgRecorder (raw samples, when recording)
+                      -> EcgTimebase (time of every sample)
+                      -> EcgGapDetector (lost packets, filled before the new samples)
+All blocks are allocated once, so a packet costs no allocation at all.
+Every stage is timed into getMetrics() (see MetricsRegistry), the UI side
+adds its own numbers to the same registry.
+*******************************************************************************/
+
+import java.util.Arrays;
+
+public class EcgPipeline {
+	// nominal output rate of the BMD101 as set up by our firmware
+	public static final int NOMINAL_SAMPLE_RATE = 500;
+	// ~8 seconds of samples at 500Hz between GATT thread and UI
+	private static final int RING_CAPACITY = 4096;
+
+	private final EcgPacketDecoder mDecoder = new EcgPacketDecoder();
+	private final EcgFilter mFilter;
+	private final RPeakDetector mDetector;
+	private final SampleRingBuffer mRing = new SampleRingBuffer(RING_CAPACITY);
+	private final EcgTimebase mTimebase;
+	private final EcgGapDetector mGaps;
+	private final int[] mFillBlock = new int[EcgPacketDecoder.MAX_SAMPLES_PER_PACKET];
+	// last raw sample, gaps are filled from here
+	private int mLastRaw = 0;
+	private final int[] mBlock = new int[EcgPacketDecoder.MAX_SAMPLES_PER_PACKET];
+	private volatile EcgRecorder mRecorder = null;
+
+	private final MetricsRegistry mMetrics = new MetricsRegistry();
+	private final MetricsRegistry.Counter mPacketsMetric = mMetrics.counter("ecg.packets");
+	private final MetricsRegistry.Counter mSamplesMetric = mMetrics.counter("ecg.samples");
+	private final MetricsRegistry.Histogram mInterArrivalMetric = mMetrics.histogram("ecg.interarrival_ns");
+	private final MetricsRegistry.Histogram mDecodeMetric = mMetrics.histogram("ecg.decode_ns");
+	private final MetricsRegistry.Histogram mFilterMetric = mMetrics.histogram("ecg.filter_ns");
+	private final MetricsRegistry.Histogram mDetectMetric = mMetrics.histogram("ecg.detect_ns");
+	// samples waiting for the UI right after each packet
+	private final MetricsRegistry.Histogram mRingDepthMetric = mMetrics.histogram("ecg.ring_depth");
+	private long mLastArrivalNanos = 0;
+	// rate all stages were set up for
+	private final int mSampleRate;
+
+	public EcgPipeline() {
+		this(NOMINAL_SAMPLE_RATE);
+	}
+
+	public EcgPipeline(int sampleRate) {
+		mSampleRate = sampleRate;
+		mFilter = new EcgFilter(sampleRate, 1);
+		mDetector = new RPeakDetector(sampleRate);
+		mTimebase = new EcgTimebase(sampleRate);
+		mGaps = new EcgGapDetector(sampleRate);
+		registerGauges();
+	}
+
+	public EcgPacketDecoder getDecoder() { return mDecoder; }
+	public EcgFilter        getFilter()  { return mFilter; }
+	public SampleRingBuffer getSamples() { return mRing; }
+	public RPeakDetector    getDetector() { return mDetector; }
+	public EcgTimebase      getTimebase() { return mTimebase; }
+	public EcgGapDetector   getGaps()     { return mGaps; }
+	public MetricsRegistry  getMetrics()  { return mMetrics; }
+	public int              getSampleRate() { return mSampleRate; }
+
+	// start saving samples to recorder, null stops recording. returns previous recorder,
+	// which the caller has to close
+	public EcgRecorder setRecorder(EcgRecorder recorder) {
+		EcgRecorder old = mRecorder;
+		mRecorder = recorder;
+		return old;
+	}
+
+	public EcgRecorder getRecorder() {
+		return mRecorder;
+	}
+
+	// start over for a new connection: sequence counter, gap statistics, timebase origin and
+	// period, filter history and detector thresholds all belong to the link that is gone.
+	// Metrics and the recorder are kept. GATT callback thread only, no packet in between
+	public void reset() {
+		mDecoder.reset();
+		mGaps.reset();
+		mTimebase.reset();
+		mFilter.reset();
+		mDetector.reset();
+		mLastArrivalNanos = 0;
+		mLastRaw = 0;
+	}
+
+	// run one notification through all stages. GATT callback thread only
+	// arrivalNanos is elapsedRealtimeNanos when the packet arrived
+	// returns number of samples produced, gap fill included
+	public int onPacket(final byte[] packet, final long arrivalNanos) {
+		final long decodeStart = System.nanoTime();
+		final int count = mDecoder.decode(packet, mBlock, 0);
+		if(count == 0) return 0;
+		mDecodeMetric.record(System.nanoTime() - decodeStart);
+		mPacketsMetric.increment();
+		mSamplesMetric.add(count);
+		if(mLastArrivalNanos != 0) mInterArrivalMetric.record(arrivalNanos - mLastArrivalNanos);
+		mLastArrivalNanos = arrivalNanos;
+
+		final int lost = mGaps.check(mDecoder, mTimebase, count, arrivalNanos);
+		final int filled = (lost > 0) ? fillGap(lost, mBlock[0]) : 0;
+		mTimebase.onPacket(count, arrivalNanos);
+		mLastRaw = mBlock[count - 1];
+
+		// recordings keep the unfiltered samples, filter settings can then be changed when looking at them
+		// lost samples are not stored but move the recorder's index on, so chunks stay on the live timeline
+		final EcgRecorder recorder = mRecorder;
+		if(recorder != null) recorder.append(mBlock, 0, count, lost, arrivalNanos);
+
+		final long filterStart = System.nanoTime();
+		mFilter.process(mBlock, 0, count, 0);
+		final long detectStart = System.nanoTime();
+		// beat detection stays here on the producer side so its latency does not depend on the UI
+		mDetector.process(mBlock, 0, count);
+		final long detectEnd = System.nanoTime();
+		mRing.write(mBlock, 0, count);
+		mFilterMetric.record(detectStart - filterStart);
+		mDetectMetric.record(detectEnd - detectStart);
+		mRingDepthMetric.record(mRing.size());
+		return count + filled;
+	}
+
+	// numbers kept by the stages themselves, only read when metrics are dumped
+	private void registerGauges() {
+		mMetrics.gauge("ecg.rejected", new MetricsRegistry.Gauge() {
+			@Override public long get() { return mDecoder.getRejectedCount(); }
+		});
+		mMetrics.gauge("ecg.ring_overruns", new MetricsRegistry.Gauge() {
+			@Override public long get() { return mRing.getOverrunCount(); }
+		});
+		mMetrics.gauge("ecg.ring_high_water", new MetricsRegistry.Gauge() {
+			@Override public long get() { return mRing.getHighWaterMark(); }
+		});
+		mMetrics.gauge("ecg.gaps", new MetricsRegistry.Gauge() {
+			@Override public long get() { return mGaps.getGapCount(); }
+		});
+		mMetrics.gauge("ecg.lost_packets", new MetricsRegistry.Gauge() {
+			@Override public long get() { return mGaps.getLostPackets(); }
+		});
+		mMetrics.gauge("ecg.lost_samples", new MetricsRegistry.Gauge() {
+			@Override public long get() { return mGaps.getLostSamples(); }
+		});
+		mMetrics.gauge("ecg.loss_ppm", new MetricsRegistry.Gauge() {
+			@Override public long get() { return Math.round(mGaps.getLossRate() * 1e6); }
+		});
+		mMetrics.gauge("ecg.drift_ppb", new MetricsRegistry.Gauge() {
+			@Override public long get() { return mTimebase.getDriftPpb(); }
+		});
+		mMetrics.gauge("ecg.beats", new MetricsRegistry.Gauge() {
+			@Override public long get() { return mDetector.getBeatCount(); }
+		});
+	}
+
+	// put lost samples back in between the last sample and next, returns samples filled
+	// recordings only keep what really arrived, the jump in their chunk index shows the gap
+	private int fillGap(final int lost, final int next) {
+		mTimebase.skip(lost);
+		// too long to make up anything sensible, indices and times are still right
+		if(lost > mGaps.getMaxFillSamples()) return 0;
+
+		final boolean marker = mGaps.getFillMode() == EcgGapDetector.FILL_MARKER;
+		for(int from = 0; from < lost; from += mFillBlock.length) {
+			final int n = Math.min(mFillBlock.length, lost - from);
+			mGaps.fill(mFillBlock, 0, from, n, lost, mLastRaw, next);
+			mFilter.process(mFillBlock, 0, n, 0);
+			mDetector.process(mFillBlock, 0, n);
+			if(marker) Arrays.fill(mFillBlock, 0, n, EcgGapDetector.GAP_MARKER);
+			mRing.write(mFillBlock, 0, n);
+		}
+		return lost;
+	}
+}
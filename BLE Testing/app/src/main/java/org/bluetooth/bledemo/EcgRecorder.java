@@ -0,0 +1,230 @@
+package org.bluetooth.bledemo;
+
+/******************************************************************************
+EcgRecorder saves decoded ECG Wave samples into a compact binary file.
+Samples are collected into chunks of CHUNK_SAMPLES, by default every chunk is
+compressed with EcgBlockCodec (lossless, 2-3x smaller than raw int16), and
+then copied into a memory mapped window of the file, so there is no write syscall
+per sample or per packet. The kernel writes the pages back on its own and a
+new window is only mapped every WINDOW_SIZE bytes (~17 minutes of raw 500Hz).
+Since mapped pages belong to the page cache, data already handed to the
+window survives the app being killed.
+
+File layout (all values big-endian):
+  header, HEADER_SIZE bytes
+    int    magic 'ECGR'
+    short  version
+    short  header size
+    int    sample rate (Hz)
+    long   start time, wall clock (ms since epoch)
+    long   start time, elapsedRealtimeNanos
+    byte[] device address, ASCII, ADDRESS_SIZE bytes, zero padded
+  chunks, one after another
+    int    magic 'CHNK'
+    short  encoding (ENCODING_RAW16 or ENCODING_RICE)
+    short  samples per packet
+    int    sample count
+    long   index of first sample in stream, samples lost on the link are
+           counted too, so a jump from the end of the previous chunk is a gap
+    long   arrival time of first packet in chunk (elapsedRealtimeNanos)
+    long   arrival time of last packet in chunk (elapsedRealtimeNanos)
+    int    payload size in bytes
+    byte[] payload, ENCODING_RAW16: sample count * int16
+                    ENCODING_RICE: one EcgBlockCodec block
+*******************************************************************************/
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+public class EcgRecorder {
+	public static final int FILE_MAGIC = 0x45434752; // 'ECGR'
+	public static final int CHUNK_MAGIC = 0x43484E4B; // 'CHNK'
+	public static final short VERSION = 1;
+	public static final int HEADER_SIZE = 64;
+	public static final int ADDRESS_SIZE = 18;
+	public static final int CHUNK_HEADER_SIZE = 40;
+
+	public static final short ENCODING_RAW16 = 0;
+	public static final short ENCODING_RICE = 1;
+
+	// ~2 seconds at 500Hz per chunk
+	public static final int CHUNK_SAMPLES = 1024;
+	// size of the mapped part of the file
+	private static final int WINDOW_SIZE = 1024 * 1024;
+
+	private final File mFile;
+	private final short mEncoding;
+	private final EcgBlockCodec mCodec = new EcgBlockCodec();
+	private final ByteBuffer mEncoded = ByteBuffer.allocate(EcgBlockCodec.maxEncodedSize(CHUNK_SAMPLES));
+	private final RandomAccessFile mRaf;
+	private final FileChannel mChannel;
+	private MappedByteBuffer mWindow = null;
+	private long mPosition = 0;
+
+	// samples of the chunk being collected
+	private final short[] mChunk = new short[CHUNK_SAMPLES];
+	private int mChunkCount = 0;
+	private int mChunkSamplesPerPacket = 0;
+	private long mChunkFirstIndex = 0;
+	private long mChunkFirstArrival = 0;
+	private long mChunkLastArrival = 0;
+
+	private long mSampleIndex = 0;
+	private long mSamplesWritten = 0;
+	private long mChunksWritten = 0;
+	private boolean mClosed = false;
+	private IOException mError = null;
+
+	// create compressed recording, see EcgBlockCodec
+	public EcgRecorder(File file, String deviceAddress, int sampleRate,
+					   long startTimeMillis, long startElapsedNanos) throws IOException {
+		this(file, deviceAddress, sampleRate, startTimeMillis, startElapsedNanos, ENCODING_RICE);
+	}
+
+	// create file and write header. sample rate is the nominal rate of the stream
+	public EcgRecorder(File file, String deviceAddress, int sampleRate,
+					   long startTimeMillis, long startElapsedNanos, short encoding) throws IOException {
+		mFile = file;
+		mEncoding = encoding;
+		mRaf = new RandomAccessFile(file, "rw");
+		mRaf.setLength(0);
+		mChannel = mRaf.getChannel();
+
+		mapWindow(0);
+		mWindow.putInt(FILE_MAGIC);
+		mWindow.putShort(VERSION);
+		mWindow.putShort((short)HEADER_SIZE);
+		mWindow.putInt(sampleRate);
+		mWindow.putLong(startTimeMillis);
+		mWindow.putLong(startElapsedNanos);
+		byte[] address = new byte[ADDRESS_SIZE];
+		if(deviceAddress != null) {
+			byte[] ascii = deviceAddress.getBytes(Charset.forName("US-ASCII"));
+			System.arraycopy(ascii, 0, address, 0, Math.min(ascii.length, ADDRESS_SIZE));
+		}
+		mWindow.put(address);
+		mPosition = HEADER_SIZE;
+		mWindow.position(HEADER_SIZE);
+	}
+
+	public File getFile() { return mFile; }
+	// index the next sample gets, lost samples included
+	public synchronized long getSampleIndex() { return mSampleIndex; }
+	public synchronized long getSamplesWritten() { return mSamplesWritten; }
+	public synchronized long getChunksWritten() { return mChunksWritten; }
+	public synchronized long getBytesWritten() { return mPosition; }
+	// first error that stopped the recording, null if everything is fine
+	public synchronized IOException getError() { return mError; }
+
+	// add one packet worth of decoded samples, arrivalNanos is elapsedRealtimeNanos at arrival
+	// called from GATT thread, errors are kept in getError() instead of thrown at the callback
+	public void append(final int[] samples, final int offset, final int len, final long arrivalNanos) {
+		append(samples, offset, len, 0, arrivalNanos);
+	}
+
+	// same, lost is how many samples went missing on the link right before this packet
+	// (see EcgGapDetector). They are not stored, the next chunk just starts that much later,
+	// so chunk indexes stay on the same timeline as the live stream
+	public synchronized void append(final int[] samples, final int offset, final int len, final int lost, final long arrivalNanos) {
+		if(mClosed || mError != null || len <= 0) return;
+
+		// a chunk has no holes, the gap goes between two chunks
+		if(lost > 0) {
+			if(mChunkCount > 0) writeChunk();
+			mSampleIndex += lost;
+		}
+		// chunks only hold whole packets of one size, so replay can rebuild the packets
+		if(mChunkCount > 0 && (len != mChunkSamplesPerPacket || mChunkCount + len > CHUNK_SAMPLES)) writeChunk();
+
+		int done = 0;
+		while(done < len) {
+			if(mChunkCount == 0) {
+				mChunkFirstIndex = mSampleIndex;
+				mChunkFirstArrival = arrivalNanos;
+				mChunkSamplesPerPacket = len;
+			}
+			// only packets bigger than a whole chunk get split here
+			final int count = Math.min(len - done, CHUNK_SAMPLES - mChunkCount);
+			for(int i = 0; i < count; i++) {
+				mChunk[mChunkCount + i] = (short)samples[offset + done + i];
+			}
+			mChunkCount += count;
+			mSampleIndex += count;
+			mChunkLastArrival = arrivalNanos;
+			done += count;
+
+			if(mChunkCount == CHUNK_SAMPLES) writeChunk();
+		}
+	}
+
+	// push collected samples into the file without waiting for a full chunk
+	public synchronized void flush() {
+		if(mClosed || mError != null) return;
+		if(mChunkCount > 0) writeChunk();
+		if(mWindow != null) mWindow.force();
+	}
+
+	// flush, cut file to what was really written and release it
+	public synchronized void close() {
+		if(mClosed) return;
+		flush();
+		mClosed = true;
+		mWindow = null;
+		try {
+			mChannel.truncate(mPosition);
+			mRaf.close();
+		} catch (IOException e) {
+			if(mError == null) mError = e;
+		}
+	}
+
+	private void writeChunk() {
+		int payload = mChunkCount * 2;
+		if(mEncoding == ENCODING_RICE) {
+			mEncoded.clear();
+			payload = mCodec.encode(mChunk, 0, mChunkCount, mEncoded);
+			mEncoded.flip();
+		}
+
+		try {
+			ensureSpace(CHUNK_HEADER_SIZE + payload);
+		} catch (IOException e) {
+			mError = e;
+			mChunkCount = 0;
+			return;
+		}
+
+		mWindow.putInt(CHUNK_MAGIC);
+		mWindow.putShort(mEncoding);
+		mWindow.putShort((short)mChunkSamplesPerPacket);
+		mWindow.putInt(mChunkCount);
+		mWindow.putLong(mChunkFirstIndex);
+		mWindow.putLong(mChunkFirstArrival);
+		mWindow.putLong(mChunkLastArrival);
+		mWindow.putInt(payload);
+		if(mEncoding == ENCODING_RICE) mWindow.put(mEncoded);
+		else for(int i = 0; i < mChunkCount; i++) mWindow.putShort(mChunk[i]);
+
+		mPosition += CHUNK_HEADER_SIZE + payload;
+		mSamplesWritten += mChunkCount;
+		mChunksWritten++;
+		mChunkCount = 0;
+	}
+
+	// make sure size bytes fit in the mapped window, map the next one if not
+	private void ensureSpace(int size) throws IOException {
+		if(mWindow.remaining() >= size) return;
+		// let the kernel write back the old window now, once per WINDOW_SIZE
+		mWindow.force();
+		mapWindow(mPosition);
+	}
+
+	private void mapWindow(long start) throws IOException {
+		mWindow = mChannel.map(FileChannel.MapMode.READ_WRITE, start, WINDOW_SIZE);
+	}
+}
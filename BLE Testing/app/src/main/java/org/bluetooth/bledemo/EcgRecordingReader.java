@@ -0,0 +1,188 @@
+package org.bluetooth.bledemo;
+
+/******************************************************************************
+EcgRecordingReader reads files written by EcgRecorder. Opening a file only walks
+the chunk headers to build an index, samples of any chunk can then be read
+directly without decoding the ones before it. A file whose recording was cut
+off (app killed) ends at the last complete chunk.
+*******************************************************************************/
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+public class EcgRecordingReader {
+	private final File mFile;
+	private final RandomAccessFile mRaf;
+	private final FileChannel mChannel;
+	private final EcgBlockCodec mCodec = new EcgBlockCodec();
+	private ByteBuffer mPayload = ByteBuffer.allocate(EcgBlockCodec.maxEncodedSize(EcgRecorder.CHUNK_SAMPLES));
+
+	private int mSampleRate;
+	private long mStartTimeMillis;
+	private long mStartElapsedNanos;
+	private String mDeviceAddress;
+
+	// chunk index, one entry per chunk
+	private int mChunkCount = 0;
+	private long[] mOffsets = new long[64];
+	private short[] mEncodings = new short[64];
+	private int[] mSamplesPerPacket = new int[64];
+	private int[] mSampleCounts = new int[64];
+	private long[] mFirstIndexes = new long[64];
+	private long[] mFirstArrivals = new long[64];
+	private long[] mLastArrivals = new long[64];
+	private int[] mPayloadSizes = new int[64];
+	private long mSampleCount = 0;
+
+	// open file, read header and index all chunks
+	public EcgRecordingReader(File file) throws IOException {
+		mFile = file;
+		mRaf = new RandomAccessFile(file, "r");
+		mChannel = mRaf.getChannel();
+		try {
+			readHeader();
+			buildIndex();
+		} catch (IOException e) {
+			mRaf.close();
+			throw e;
+		}
+	}
+
+	public File   getFile()              { return mFile; }
+	public int    getSampleRate()        { return mSampleRate; }
+	public long   getStartTimeMillis()   { return mStartTimeMillis; }
+	public long   getStartElapsedNanos() { return mStartElapsedNanos; }
+	public String getDeviceAddress()     { return mDeviceAddress; }
+	public int    getChunkCount()        { return mChunkCount; }
+	// samples stored in the file, lost ones not counted
+	public long   getSampleCount()       { return mSampleCount; }
+
+	public int  getChunkSampleCount(int chunk)      { return mSampleCounts[chunk]; }
+	public int  getChunkSamplesPerPacket(int chunk) { return mSamplesPerPacket[chunk]; }
+	public long getChunkFirstIndex(int chunk)       { return mFirstIndexes[chunk]; }
+	public long getChunkFirstArrival(int chunk)     { return mFirstArrivals[chunk]; }
+	public long getChunkLastArrival(int chunk)      { return mLastArrivals[chunk]; }
+	public int  getChunkPayloadSize(int chunk)      { return mPayloadSizes[chunk]; }
+
+	// samples lost on the link between the previous chunk and this one, 0 for the first
+	public long getChunkGapBefore(int chunk) {
+		if(chunk == 0) return 0;
+		return mFirstIndexes[chunk] - (mFirstIndexes[chunk - 1] + mSampleCounts[chunk - 1]);
+	}
+
+	// read samples of one chunk into out[0], out needs EcgRecorder.CHUNK_SAMPLES space
+	// returns number of samples
+	public int readChunk(int chunk, short[] out) throws IOException {
+		final int size = mPayloadSizes[chunk];
+		if(mPayload.capacity() < size) mPayload = ByteBuffer.allocate(size);
+		mPayload.clear();
+		mPayload.limit(size);
+		readFully(mPayload, mOffsets[chunk] + EcgRecorder.CHUNK_HEADER_SIZE);
+		mPayload.flip();
+
+		if(mEncodings[chunk] == EcgRecorder.ENCODING_RICE) {
+			return mCodec.decode(mPayload, out, 0);
+		}
+		final int count = mSampleCounts[chunk];
+		for(int i = 0; i < count; i++) out[i] = mPayload.getShort();
+		return count;
+	}
+
+	// chunk holding the sample with given index, -1 if it is not in the file
+	public int findChunk(long sampleIndex) {
+		int lo = 0, hi = mChunkCount - 1;
+		while(lo <= hi) {
+			final int mid = (lo + hi) >>> 1;
+			if(sampleIndex < mFirstIndexes[mid]) hi = mid - 1;
+			else if(sampleIndex >= mFirstIndexes[mid] + mSampleCounts[mid]) lo = mid + 1;
+			else return mid;
+		}
+		return -1;
+	}
+
+	public void close() throws IOException {
+		mRaf.close();
+	}
+
+	private void readHeader() throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(EcgRecorder.HEADER_SIZE);
+		readFully(header, 0);
+		header.flip();
+		if(header.getInt() != EcgRecorder.FILE_MAGIC) throw new IOException(mFile + " is not an ECG recording");
+		final short version = header.getShort();
+		if(version > EcgRecorder.VERSION) throw new IOException("Unsupported recording version " + version);
+		header.getShort(); // header size
+		mSampleRate = header.getInt();
+		mStartTimeMillis = header.getLong();
+		mStartElapsedNanos = header.getLong();
+
+		byte[] address = new byte[EcgRecorder.ADDRESS_SIZE];
+		header.get(address);
+		int len = 0;
+		while(len < address.length && address[len] != 0) len++;
+		mDeviceAddress = new String(address, 0, len, Charset.forName("US-ASCII"));
+	}
+
+	private void buildIndex() throws IOException {
+		final long size = mChannel.size();
+		final ByteBuffer chunk = ByteBuffer.allocate(EcgRecorder.CHUNK_HEADER_SIZE);
+		long pos = EcgRecorder.HEADER_SIZE;
+
+		while(pos + EcgRecorder.CHUNK_HEADER_SIZE <= size) {
+			chunk.clear();
+			readFully(chunk, pos);
+			chunk.flip();
+			// rest of a mapped window that was never written is all zeros
+			if(chunk.getInt() != EcgRecorder.CHUNK_MAGIC) break;
+
+			final short encoding = chunk.getShort();
+			final int samplesPerPacket = chunk.getShort() & 0xffff;
+			final int count = chunk.getInt();
+			final long firstIndex = chunk.getLong();
+			final long firstArrival = chunk.getLong();
+			final long lastArrival = chunk.getLong();
+			final int payload = chunk.getInt();
+			if(pos + EcgRecorder.CHUNK_HEADER_SIZE + payload > size) break;
+
+			if(mChunkCount == mOffsets.length) growIndex();
+			mOffsets[mChunkCount] = pos;
+			mEncodings[mChunkCount] = encoding;
+			mSamplesPerPacket[mChunkCount] = samplesPerPacket;
+			mSampleCounts[mChunkCount] = count;
+			mFirstIndexes[mChunkCount] = firstIndex;
+			mFirstArrivals[mChunkCount] = firstArrival;
+			mLastArrivals[mChunkCount] = lastArrival;
+			mPayloadSizes[mChunkCount] = payload;
+			mChunkCount++;
+			mSampleCount += count;
+
+			pos += EcgRecorder.CHUNK_HEADER_SIZE + payload;
+		}
+	}
+
+	private void growIndex() {
+		final int size = mOffsets.length * 2;
+		mOffsets = Arrays.copyOf(mOffsets, size);
+		mEncodings = Arrays.copyOf(mEncodings, size);
+		mSamplesPerPacket = Arrays.copyOf(mSamplesPerPacket, size);
+		mSampleCounts = Arrays.copyOf(mSampleCounts, size);
+		mFirstIndexes = Arrays.copyOf(mFirstIndexes, size);
+		mFirstArrivals = Arrays.copyOf(mFirstArrivals, size);
+		mLastArrivals = Arrays.copyOf(mLastArrivals, size);
+		mPayloadSizes = Arrays.copyOf(mPayloadSizes, size);
+	}
+
+	private void readFully(ByteBuffer buffer, long position) throws IOException {
+		while(buffer.hasRemaining()) {
+			final int read = mChannel.read(buffer, position);
+			if(read < 0) throw new EOFException("Unexpected end of " + mFile);
+			position += read;
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package org.bluetooth.bledemo;
+
+/******************************************************************************
+EcgSession is one ECG patch streaming to this phone. Every session has its
+own BleWrapper, so its own GATT connection, operation queue, EcgPipeline and
+sample ring, nothing is shared between patches. State and throughput are
+kept by the wrapper's EcgAcquisition, which also turns on ECG Wave
+notifications by itself as soon as the services are discovered. All UI
+callbacks are passed on to the callback object given by the caller.
+Throughput (packets / samples / bytes per second) is worked out every time
+updateThroughput() is called, see EcgSessionManager.
+*******************************************************************************/
+
+import android.app.Activity;
+
+public class EcgSession {
+	private final String mAddress;
+	private final BleWrapper mBleWrapper;
+	private final EcgAcquisition mAcquisition;
+	private final BleWrapperUiCallbacks mCallbacks;
+	private final int[] mDrainBlock = new int[256];
+	private long mSamplesConsumed = 0;
+
+	// callbacks get every BleWrapper callback of this device, null for none
+	public EcgSession(Activity parent, String address, BleWrapperUiCallbacks callbacks) {
+		mAddress = address;
+		mCallbacks = (callbacks != null) ? callbacks : new BleWrapperUiCallbacks.Null();
+		mBleWrapper = new BleWrapper(parent, mCallbacks);
+		mAcquisition = mBleWrapper.getAcquisition();
+		mAcquisition.setAutoSubscribe(true);
+	}
+
+	public String         getAddress()     { return mAddress; }
+	public BleWrapper     getBleWrapper()  { return mBleWrapper; }
+	public EcgAcquisition getAcquisition() { return mAcquisition; }
+	public EcgPipeline    getPipeline()    { return mAcquisition.getPipeline(); }
+	// one of EcgAcquisition.STATE_*
+	public int            getState()       { return mAcquisition.getState(); }
+	public String         getStateName()   { return mAcquisition.getStateName(); }
+	public float          getPacketRate()  { return mAcquisition.getPacketRate(); }
+	public float          getSampleRate()  { return mAcquisition.getSampleRate(); }
+	public float          getByteRate()    { return mAcquisition.getByteRate(); }
+	public long           getBytesReceived() { return mAcquisition.getBytesReceived(); }
+
+	// streaming at (close to) the nominal sample rate?
+	public boolean isSustained() {
+		return mAcquisition.isSustained();
+	}
+
+	public boolean open() {
+		if(!mBleWrapper.initialize()) return false;
+		return mAcquisition.start(mAddress);
+	}
+
+	public void close() {
+		mBleWrapper.stopMonitoringRssiValue();
+		mAcquisition.stop();
+		mBleWrapper.close();
+	}
+
+	// work out rates since the previous call, nowNanos from SystemClock.elapsedRealtimeNanos()
+	// also empties the sample ring, nobody draws it when many sessions run
+	public void updateThroughput(long nowNanos) {
+		mAcquisition.updateThroughput(nowNanos);
+
+		final SampleRingBuffer ring = getPipeline().getSamples();
+		int count;
+		while((count = ring.drain(mDrainBlock, 0, mDrainBlock.length)) > 0) mSamplesConsumed += count;
+	}
+
+	// samples taken out of the ring by updateThroughput
+	public long getSamplesConsumed() {
+		return mSamplesConsumed;
+	}
+}
@@ -0,0 +1,90 @@
+package org.bluetooth.bledemo;
+
+/******************************************************************************
+EcgSessionManager keeps one EcgSession per device address, so several ECG patches
+can stream to one phone at the same time (e.g. a ward tablet). Sessions are
+fully independent, the manager only opens / closes them and adds up their
+throughput to show how many 500Hz streams the phone keeps up with.
+UI thread only.
+*******************************************************************************/
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.app.Activity;
+import android.os.SystemClock;
+
+public class EcgSessionManager {
+	private final Activity mParent;
+	// in the order they were opened
+	private final Map<String, EcgSession> mSessions = new LinkedHashMap<String, EcgSession>();
+
+	private float mTotalPacketRate = 0;
+	private float mTotalSampleRate = 0;
+	private float mTotalByteRate = 0;
+	private int mSustainedCount = 0;
+
+	public EcgSessionManager(Activity parent) {
+		mParent = parent;
+	}
+
+	// start streaming from device, callbacks get everything BleWrapper reports for it
+	// returns the running session if the device already has one
+	public EcgSession open(String address, BleWrapperUiCallbacks callbacks) {
+		EcgSession session = mSessions.get(address);
+		if(session != null) return session;
+
+		session = new EcgSession(mParent, address, callbacks);
+		mSessions.put(address, session);
+		session.open();
+		return session;
+	}
+
+	public EcgSession get(String address) {
+		return mSessions.get(address);
+	}
+
+	public List<EcgSession> getSessions() {
+		return new ArrayList<EcgSession>(mSessions.values());
+	}
+
+	public int size() {
+		return mSessions.size();
+	}
+
+	public void close(String address) {
+		EcgSession session = mSessions.remove(address);
+		if(session != null) session.close();
+	}
+
+	public void closeAll() {
+		for(EcgSession session : mSessions.values()) session.close();
+		mSessions.clear();
+	}
+
+	// refresh rates of all sessions and the totals, call about once a second
+	public void updateThroughput() {
+		final long now = SystemClock.elapsedRealtimeNanos();
+		float packets = 0, samples = 0, bytes = 0;
+		int sustained = 0;
+		for(EcgSession session : mSessions.values()) {
+			session.updateThroughput(now);
+			packets += session.getPacketRate();
+			samples += session.getSampleRate();
+			bytes += session.getByteRate();
+			if(session.isSustained()) sustained++;
+		}
+		mTotalPacketRate = packets;
+		mTotalSampleRate = samples;
+		mTotalByteRate = bytes;
+		mSustainedCount = sustained;
+	}
+
+	public float getTotalPacketRate() { return mTotalPacketRate; }
+	public float getTotalSampleRate() { return mTotalSampleRate; }
+	public float getTotalByteRate()   { return mTotalByteRate; }
+	// sessions streaming at (close to) the nominal rate at the last update
+	public int   getSustainedCount()  { return mSustainedCount; }
+}
@@ -0,0 +1,203 @@
+package org.bluetooth.bledemo;
+
+/******************************************************************************
+EcgSimulator stands in for one BMD101 / EM9304 patch when there is no board
+around. The ECG is a parametric model: every beat is a sum of gaussians for
+P, Q, R, S and T placed at fixed angles of the beat (like ECGSYN), beat
+lengths follow the heart rate with some variability, and wave widths scale
+with sqrt(RR) so fast beats keep a sensible QT. On top of that come baseline
+wander, mains hum, white noise and now and then a motion artifact (a step
+that decays back plus a short burst of noise).
+Samples are packed exactly like ECG Wave notifications: big-endian int16,
+SAMPLES_PER_PACKET per packet (20 bytes) unless set otherwise, optionally
+behind a uint16 counter (see EcgPacketDecoder.setSequenceCounter). Packets
+can be dropped on purpose to exercise EcgGapDetector.
+Everything comes from a seeded Random, the same settings give the same stream.
+Not thread safe, one simulator is driven by one thread (see EcgSimulatorRunner).
+*******************************************************************************/
+
+import java.util.Random;
+
+public class EcgSimulator {
+	// beat shape, angles in radians of a 60bpm beat with R at 0, heights in BMD101 counts
+	private static final double[] WAVE_ANGLE  = { -Math.PI / 3, -Math.PI / 12, 0, Math.PI / 12, Math.PI / 2 };
+	private static final double[] WAVE_WIDTH  = { 0.25, 0.1, 0.1, 0.1, 0.4 };
+	private static final double[] WAVE_HEIGHT = { 150, -200, 1800, -350, 400 };
+
+	private static final double BASELINE_WANDER_HZ = 0.3;
+	// motion artifacts decay with this time constant
+	private static final double ARTIFACT_SECONDS = 0.3;
+
+	private final int mSampleRate;
+	private final Random mRandom;
+
+	// settings
+	private float mHeartRate = 72;
+	private float mVariability = 0.05f;
+	private float mNoise = 8;
+	private float mMainsAmplitude = 0;
+	private int   mMainsHz = EcgFilter.MAINS_50HZ;
+	private float mWanderAmplitude = 300;
+	private float mArtifactsPerMinute = 0;
+	private float mArtifactAmplitude = 2000;
+	private float mPacketLoss = 0;
+	private int   mSamplesPerPacket = EcgPacketDecoder.SAMPLES_PER_PACKET;
+	private boolean mSequenceCounter = false;
+
+	// state
+	private long mSampleIndex = 0;
+	private long mPacketIndex = 0;
+	private long mDroppedPackets = 0;
+	private int mSequence = 0;
+	private double mBeatSeconds;
+	private double mBeatTime = 0;
+	private double mArtifact = 0;
+	private double mArtifactNoise = 0;
+	private final double mWanderPhase;
+	private final double mMainsPhase;
+
+	public EcgSimulator(int sampleRate, long seed) {
+		mSampleRate = sampleRate;
+		mRandom = new Random(seed);
+		mWanderPhase = mRandom.nextDouble() * 2 * Math.PI;
+		mMainsPhase = mRandom.nextDouble() * 2 * Math.PI;
+		mBeatSeconds = 60.0 / mHeartRate;
+		// do not start every sensor on the same part of the beat
+		mBeatTime = mRandom.nextDouble() * mBeatSeconds;
+	}
+
+	public int   getSampleRate()      { return mSampleRate; }
+	public float getHeartRate()       { return mHeartRate; }
+	public int   getSamplesPerPacket() { return mSamplesPerPacket; }
+	public boolean hasSequenceCounter() { return mSequenceCounter; }
+	// samples made so far, dropped ones included
+	public long  getSampleIndex()     { return mSampleIndex; }
+	// packets made so far, dropped ones included
+	public long  getPacketIndex()     { return mPacketIndex; }
+	public long  getDroppedPackets()  { return mDroppedPackets; }
+
+	// bytes in one packet with the current settings
+	public int getPacketSize() {
+		return mSamplesPerPacket * EcgPacketDecoder.BYTES_PER_SAMPLE + (mSequenceCounter ? EcgPacketDecoder.SEQUENCE_SIZE : 0);
+	}
+
+	// nanoseconds of signal in one packet
+	public long getPacketNanos() {
+		return mSamplesPerPacket * 1000000000L / mSampleRate;
+	}
+
+	// mean heart rate, variability is the standard deviation of RR as part of RR (0.05 = 5%)
+	public void setHeartRate(float bpm, float variability) {
+		mHeartRate = bpm;
+		mVariability = variability;
+	}
+
+	// white noise, standard deviation in counts
+	public void setNoise(float counts) {
+		mNoise = counts;
+	}
+
+	// power line pickup, hz one of EcgFilter.MAINS_50HZ / MAINS_60HZ
+	public void setMainsHum(float amplitude, int hz) {
+		mMainsAmplitude = amplitude;
+		mMainsHz = hz;
+	}
+
+	// slow drift of the baseline, e.g. breathing
+	public void setBaselineWander(float amplitude) {
+		mWanderAmplitude = amplitude;
+	}
+
+	// motion artifacts per minute on average, amplitude is the largest step in counts
+	public void setArtifacts(float perMinute, float amplitude) {
+		mArtifactsPerMinute = perMinute;
+		mArtifactAmplitude = amplitude;
+	}
+
+	// part of the packets never sent (0..1), they still take their samples and counter value
+	public void setPacketLoss(float probability) {
+		mPacketLoss = probability;
+	}
+
+	// samples per notification, 10 for the default MTU, up to (MTU - 3) / 2
+	public void setSamplesPerPacket(int samples) {
+		mSamplesPerPacket = Math.max(1, Math.min(samples, EcgPacketDecoder.MAX_SAMPLES_PER_PACKET - 1));
+	}
+
+	// put a uint16 packet counter in front of the samples
+	public void setSequenceCounter(boolean enabled) {
+		mSequenceCounter = enabled;
+	}
+
+	// next sample of the signal, clipped to int16 like the sensor's ADC
+	public int nextSample() {
+		final double dt = 1.0 / mSampleRate;
+		final double t = mSampleIndex * dt;
+		mSampleIndex++;
+
+		mBeatTime += dt;
+		if(mBeatTime >= mBeatSeconds) {
+			mBeatTime -= mBeatSeconds;
+			final double mean = 60.0 / mHeartRate;
+			// keep RR sane whatever the variability is set to
+			mBeatSeconds = Math.max(0.25, mean * (1 + mVariability * mRandom.nextGaussian()));
+		}
+
+		// angle of this sample in the beat, R at 0, the beat wraps at +-PI
+		final double scale = Math.sqrt(mBeatSeconds);
+		double angle = 2 * Math.PI * mBeatTime / mBeatSeconds - 2 * Math.PI / 3;
+		if(angle > Math.PI) angle -= 2 * Math.PI;
+		double v = 0;
+		for(int w = 0; w < WAVE_ANGLE.length; w++) {
+			final double d = (angle - WAVE_ANGLE[w]) / (WAVE_WIDTH[w] / scale);
+			v += WAVE_HEIGHT[w] * Math.exp(-0.5 * d * d);
+		}
+
+		v += mWanderAmplitude * Math.sin(2 * Math.PI * BASELINE_WANDER_HZ * t + mWanderPhase);
+		if(mMainsAmplitude != 0) v += mMainsAmplitude * Math.sin(2 * Math.PI * mMainsHz * t + mMainsPhase);
+		if(mNoise != 0) v += mNoise * mRandom.nextGaussian();
+
+		if(mArtifactsPerMinute > 0 && mRandom.nextDouble() < mArtifactsPerMinute / (60.0 * mSampleRate)) {
+			mArtifact += (2 * mRandom.nextDouble() - 1) * mArtifactAmplitude;
+			mArtifactNoise = mArtifactAmplitude / 10;
+		}
+		if(mArtifact != 0 || mArtifactNoise != 0) {
+			final double decay = Math.exp(-dt / ARTIFACT_SECONDS);
+			v += mArtifact + mArtifactNoise * mRandom.nextGaussian();
+			mArtifact *= decay;
+			mArtifactNoise *= decay;
+			if(Math.abs(mArtifact) < 0.5 && mArtifactNoise < 0.5) mArtifact = mArtifactNoise = 0;
+		}
+
+		final long s = Math.round(v);
+		return (int)Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, s));
+	}
+
+	// fill packet with the next notification, packet has to be getPacketSize() long
+	// returns false if this packet is one that got "lost", its samples are used up anyway
+	public boolean nextPacket(final byte[] packet) {
+		int pos = 0;
+		if(mSequenceCounter) {
+			packet[pos++] = (byte)(mSequence >> 8);
+			packet[pos++] = (byte)mSequence;
+			mSequence = (mSequence + 1) & 0xffff;
+		}
+		for(int i = 0; i < mSamplesPerPacket; i++, pos += EcgPacketDecoder.BYTES_PER_SAMPLE) {
+			final int s = nextSample();
+			packet[pos] = (byte)(s >> 8);
+			packet[pos + 1] = (byte)s;
+		}
+		mPacketIndex++;
+		if(mPacketLoss > 0 && mRandom.nextFloat() < mPacketLoss) {
+			mDroppedPackets++;
+			return false;
+		}
+		return true;
+	}
+
+	// as above into a new array, null for a lost packet
+	public byte[] nextPacket() {
+		final byte[] packet = new byte[getPacketSize()];
+		return nextPacket(packet) ? packet : null;
+	}
+}
@@ -0,0 +1,188 @@
+package org.bluetooth.bledemo;
+
+/******************************************************************************
+EcgSimulatorRunner drives any number of EcgSimulator sensors and hands their
+packets to a PacketSink at the rate a real link would, or a multiple of it,
+so decoders, filters, recorders and many sessions can be loaded without
+boards. Sensors are shared out over a few threads, each thread behaving like
+a GATT callback thread: it sends its sensors' packets in time order and
+waits in between. Sensors start spread over one packet time so they do not
+all fire at once.
+With a connection interval set, packets are held back and handed over
+together at each connection event, the bursts a real BLE link gives.
+Arrival times handed to the sink are on the simulated clock (System.nanoTime
+at start + signal time), so the pipeline sees a 500Hz stream even when it
+runs 10 times faster than that.
+The packet array is reused for the next packet of the same sensor, a sink
+that keeps it (e.g. BluetoothGattCharacteristic.setValue) has to copy it.
+*******************************************************************************/
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+public class EcgSimulatorRunner {
+	// send as fast as the sink takes it
+	public static final float SPEED_MAX = 0f;
+
+	public interface PacketSink {
+		// called on one of the runner's threads, always the same one for a sensor
+		public void onPacket(int sensor, byte[] packet, long arrivalNanos);
+	}
+
+	private final EcgSimulator[] mSensors;
+	private final PacketSink mSink;
+	private final float mSpeed;
+	private final int mThreadCount;
+
+	private long mConnectionIntervalNanos = 0;
+	private long mDurationNanos = 0;
+
+	private Thread[] mThreads = null;
+	private volatile boolean mStopped = false;
+	private long mStartNanos = 0;
+
+	// per thread counters, only written by their own thread
+	private final AtomicLongArray mPacketsSent;
+	private final AtomicLongArray mMaxLateNanos;
+
+	// speed is a multiple of real time, SPEED_MAX (or anything <= 0) for no pacing
+	// threads is clipped to the number of sensors
+	public EcgSimulatorRunner(EcgSimulator[] sensors, PacketSink sink, float speed, int threads) {
+		mSensors = sensors;
+		mSink = sink;
+		mSpeed = speed;
+		mThreadCount = Math.max(1, Math.min(threads, sensors.length));
+		mPacketsSent = new AtomicLongArray(mThreadCount);
+		mMaxLateNanos = new AtomicLongArray(mThreadCount);
+	}
+
+	public EcgSimulator[] getSensors() { return mSensors; }
+	public float getSpeed() { return mSpeed; }
+	public int getThreadCount() { return mThreadCount; }
+
+	// hand packets over in bursts every interval (e.g. 7.5ms - 50ms), 0 for each packet on its own
+	public void setConnectionInterval(long nanos) {
+		mConnectionIntervalNanos = nanos;
+	}
+
+	// stop by itself after this much signal, 0 to run until stop()
+	public void setDuration(long nanos) {
+		mDurationNanos = nanos;
+	}
+
+	public long getPacketsSent() {
+		long sum = 0;
+		for(int t = 0; t < mThreadCount; t++) sum += mPacketsSent.get(t);
+		return sum;
+	}
+
+	// worst delay of a packet behind its schedule, tells if the sink keeps up with the speed
+	public long getMaxLateNanos() {
+		long max = 0;
+		for(int t = 0; t < mThreadCount; t++) max = Math.max(max, mMaxLateNanos.get(t));
+		return max;
+	}
+
+	public synchronized void start() {
+		if(mThreads != null) return;
+		mStopped = false;
+		mStartNanos = System.nanoTime();
+		mThreads = new Thread[mThreadCount];
+		for(int t = 0; t < mThreadCount; t++) {
+			final int index = t;
+			mThreads[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					runSensors(index);
+				}
+			}, "EcgSim-" + t);
+			mThreads[t].start();
+		}
+	}
+
+	// stop and wait for the threads, the sink gets no packet after this returns
+	public void stop() {
+		mStopped = true;
+		join();
+	}
+
+	// wait until all threads are done, with a duration set this is the end of the run
+	public void join() {
+		Thread[] threads;
+		synchronized(this) {
+			threads = mThreads;
+		}
+		if(threads == null) return;
+		for(Thread thread : threads) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+		synchronized(this) {
+			mThreads = null;
+		}
+	}
+
+	public synchronized boolean isRunning() {
+		if(mThreads == null) return false;
+		for(Thread thread : mThreads) {
+			if(thread.isAlive()) return true;
+		}
+		return false;
+	}
+
+	// body of thread t, it owns sensors t, t + threads, t + 2 * threads ...
+	private void runSensors(final int t) {
+		final int count = (mSensors.length - t + mThreadCount - 1) / mThreadCount;
+		final EcgSimulator[] sensors = new EcgSimulator[count];
+		final int[] ids = new int[count];
+		final byte[][] packets = new byte[count][];
+		final long[] due = new long[count];
+		for(int i = 0; i < count; i++) {
+			ids[i] = t + i * mThreadCount;
+			sensors[i] = mSensors[ids[i]];
+			packets[i] = new byte[sensors[i].getPacketSize()];
+			// first packet is due after one packet of samples, sensors spread over that time
+			due[i] = sensors[i].getPacketNanos() * (mSensors.length + ids[i]) / mSensors.length;
+		}
+
+		long sent = 0;
+		while(!mStopped) {
+			// earliest packet of this thread's sensors
+			int next = 0;
+			for(int i = 1; i < count; i++) {
+				if(due[i] < due[next]) next = i;
+			}
+			final long signalNanos = due[next];
+			if(mDurationNanos > 0 && signalNanos > mDurationNanos) break;
+
+			// held back until the connection event after it was made
+			long deliver = signalNanos;
+			if(mConnectionIntervalNanos > 0) {
+				deliver = (signalNanos + mConnectionIntervalNanos - 1) / mConnectionIntervalNanos * mConnectionIntervalNanos;
+			}
+			if(mSpeed > 0) waitUntil(t, mStartNanos + (long)(deliver / (double)mSpeed));
+
+			final EcgSimulator sensor = sensors[next];
+			if(sensor.nextPacket(packets[next])) {
+				mSink.onPacket(ids[next], packets[next], mStartNanos + deliver);
+				sent++;
+				if((sent & 0xff) == 0) mPacketsSent.lazySet(t, sent);
+			}
+			due[next] += sensor.getPacketNanos();
+		}
+		mPacketsSent.set(t, sent);
+	}
+
+	// sleep until System.nanoTime() reaches deadline, remembers how late we already are
+	private void waitUntil(final int t, final long deadline) {
+		long remaining;
+		while((remaining = deadline - System.nanoTime()) > 0 && !mStopped) {
+			LockSupport.parkNanos(remaining);
+		}
+		if(-remaining > mMaxLateNanos.get(t)) mMaxLateNanos.lazySet(t, -remaining);
+	}
+}
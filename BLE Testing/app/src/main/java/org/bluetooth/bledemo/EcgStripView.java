@@ -0,0 +1,209 @@
+package org.bluetooth.bledemo;
+
+/******************************************************************************
+EcgStripView is the chart strip the ECG (and heart rate) is drawn on, in
+place of GraphView. Every trace keeps its last pointCount values in a ring
+of floats, a new value is one array write, and the whole trace is drawn with
+a single Canvas.drawLines() from a line array made once per point count.
+Nothing is allocated per value or per frame, so the cost of a frame only
+depends on pointCount and the number of traces, never on the sample rate.
+Two ways to move:
+ - MODE_SWEEP: like a bedside monitor, a point always lands on the same x
+   (ring slot = x position) and the write head sweeps left to right, wiping
+   a narrow band (ERASE_FRACTION of the width) of the old trace ahead of it.
+ - MODE_SCROLL: newest point always on the right edge, the trace moves left.
+NaN values (lost data) break the line. Each trace has its own colour and y
+range, all share the x axis. UI thread only: append what came in, then call
+invalidate() once for the frame.
+*******************************************************************************/
+
+import java.util.Arrays;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.View;
+
+public class EcgStripView extends View {
+	public static final int MODE_SWEEP  = 0;
+	public static final int MODE_SCROLL = 1;
+	public static final int MAX_TRACES = 4;
+	// part of the width wiped ahead of the sweep head
+	private static final float ERASE_FRACTION = 0.03f;
+	private static final float LINE_WIDTH_DP = 1.5f;
+	private static final int[] DEFAULT_COLORS = { Color.BLUE, Color.RED, Color.GREEN, Color.DKGRAY };
+
+	private int mMode = MODE_SWEEP;
+	private int mPointCount = 0;
+	private int mEraseCount = 0;
+	private int mTraceCount = 0;
+
+	// per trace: value ring, next write slot, y range and paint
+	private final float[][] mValues = new float[MAX_TRACES][];
+	private final int[] mHead = new int[MAX_TRACES];
+	private final float[] mMinY = new float[MAX_TRACES];
+	private final float[] mMaxY = new float[MAX_TRACES];
+	private final Paint[] mPaints = new Paint[MAX_TRACES];
+
+	// line segments of the trace being drawn, 4 floats per segment, shared by all traces
+	private float[] mLines = new float[0];
+	// pixels per point, worked out on size / point count changes and not in onDraw
+	private float mStepX = 0;
+
+	public EcgStripView(Context context) {
+		super(context);
+	}
+
+	// used when inflated from a layout
+	public EcgStripView(Context context, AttributeSet attrs) {
+		super(context, attrs);
+	}
+
+	public int getMode()       { return mMode; }
+	public int getPointCount() { return mPointCount; }
+	public int getTraceCount() { return mTraceCount; }
+
+	// points across the full width. Allocates, so call when the window changes, not per frame
+	// all traces are cleared
+	public void setPointCount(int pointCount) {
+		pointCount = Math.max(2, pointCount);
+		if(pointCount == mPointCount) {
+			clear();
+			return;
+		}
+		mPointCount = pointCount;
+		mEraseCount = Math.max(1, Math.round(pointCount * ERASE_FRACTION));
+		for(int t = 0; t < mTraceCount; t++) mValues[t] = new float[pointCount];
+		mLines = new float[4 * (pointCount - 1)];
+		updateScale();
+		clear();
+	}
+
+	// MODE_SWEEP or MODE_SCROLL, the points already there stay where they are in the ring
+	public void setMode(final int mode) {
+		mMode = mode;
+		invalidate();
+	}
+
+	// add a trace drawn in color over minY (bottom) to maxY (top), returns its index
+	// setPointCount() has to come first
+	public int addTrace(final int color, final float minY, final float maxY) {
+		if(mTraceCount == MAX_TRACES) throw new IllegalStateException("at most " + MAX_TRACES + " traces");
+		final int trace = mTraceCount++;
+		mValues[trace] = new float[mPointCount];
+		Arrays.fill(mValues[trace], Float.NaN);
+		mHead[trace] = 0;
+		mPaints[trace] = new Paint(Paint.ANTI_ALIAS_FLAG);
+		mPaints[trace].setStyle(Paint.Style.STROKE);
+		mPaints[trace].setStrokeWidth(LINE_WIDTH_DP * getResources().getDisplayMetrics().density);
+		setTraceColor(trace, color);
+		setYRange(trace, minY, maxY);
+		return trace;
+	}
+
+	// same with the next default colour
+	public int addTrace(final float minY, final float maxY) {
+		return addTrace(DEFAULT_COLORS[mTraceCount % DEFAULT_COLORS.length], minY, maxY);
+	}
+
+	public void setTraceColor(final int trace, final int color) {
+		mPaints[trace].setColor(color);
+	}
+
+	public void setYRange(final int trace, final float minY, final float maxY) {
+		mMinY[trace] = minY;
+		mMaxY[trace] = maxY;
+	}
+
+	// empty all traces, sweep starts over on the left
+	public void clear() {
+		for(int t = 0; t < mTraceCount; t++) {
+			Arrays.fill(mValues[t], Float.NaN);
+			mHead[t] = 0;
+		}
+		invalidate();
+	}
+
+	// one new point at the head of trace, NaN for a break. Does not redraw, see class comment
+	public void append(final int trace, final float value) {
+		final float[] values = mValues[trace];
+		int head = mHead[trace];
+		values[head] = value;
+		if(++head == values.length) head = 0;
+		mHead[trace] = head;
+	}
+
+	@Override
+	protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+		super.onSizeChanged(w, h, oldw, oldh);
+		updateScale();
+	}
+
+	private void updateScale() {
+		final int width = getWidth() - getPaddingLeft() - getPaddingRight();
+		mStepX = (mPointCount > 1) ? (float)width / (mPointCount - 1) : 0;
+	}
+
+	@Override
+	protected void onDraw(Canvas canvas) {
+		super.onDraw(canvas);
+		for(int t = 0; t < mTraceCount; t++) {
+			final int count = (mMode == MODE_SWEEP) ? buildSweep(t) : buildScroll(t);
+			if(count > 0) canvas.drawLines(mLines, 0, count, mPaints[t]);
+		}
+	}
+
+	// segments of trace t in sweep mode: slot i is drawn at x of i, mEraseCount slots from the
+	// head on are left out, which also cuts the line between newest and oldest
+	// returns number of floats filled in mLines
+	private int buildSweep(final int t) {
+		final float[] values = mValues[t];
+		final int head = mHead[t];
+		final float left = getPaddingLeft();
+		final float top = getPaddingTop();
+		final float scaleY = (getHeight() - getPaddingTop() - getPaddingBottom()) / (mMaxY[t] - mMinY[t]);
+		final float maxY = mMaxY[t];
+		int n = 0;
+		for(int i = 0; i < values.length - 1; i++) {
+			// skip if slot i or slot i + 1 lies in the erase band
+			int distance = i - head;
+			if(distance < 0) distance += values.length;
+			if(distance < mEraseCount || distance == values.length - 1) continue;
+			final float a = values[i];
+			final float b = values[i + 1];
+			if(a != a || b != b) continue; // NaN
+			mLines[n++] = left + i * mStepX;
+			mLines[n++] = top + (maxY - a) * scaleY;
+			mLines[n++] = left + (i + 1) * mStepX;
+			mLines[n++] = top + (maxY - b) * scaleY;
+		}
+		return n;
+	}
+
+	// segments of trace t in scroll mode: oldest (at the head) on the left, newest on the right
+	private int buildScroll(final int t) {
+		final float[] values = mValues[t];
+		final int head = mHead[t];
+		final float left = getPaddingLeft();
+		final float top = getPaddingTop();
+		final float scaleY = (getHeight() - getPaddingTop() - getPaddingBottom()) / (mMaxY[t] - mMinY[t]);
+		final float maxY = mMaxY[t];
+		int n = 0;
+		int slot = head;
+		float previous = values[slot];
+		for(int k = 1; k < values.length; k++) {
+			if(++slot == values.length) slot = 0;
+			final float value = values[slot];
+			if(previous == previous && value == value) {
+				mLines[n++] = left + (k - 1) * mStepX;
+				mLines[n++] = top + (maxY - previous) * scaleY;
+				mLines[n++] = left + k * mStepX;
+				mLines[n++] = top + (maxY - value) * scaleY;
+			}
+			previous = value;
+		}
+		return n;
+	}
+}
@@ -0,0 +1,176 @@
+package org.bluetooth.bledemo;
+
+/******************************************************************************
+EcgTimebase gives every ECG sample an exact time on the phone's monotonic
+clock (SystemClock.elapsedRealtimeNanos), only from packet arrival times and
+the sample rate, nothing is formatted per packet.
+Samples are taken by the sensor at a fixed rate, so
+  time(index) = origin + index * period
+Notifications arrive later than their last sample by a latency that is never
+negative but jitters by a few connection intervals, so origin follows the
+lower envelope: whenever a packet arrives earlier than the model says, the
+model was late and origin moves back to that packet (the smallest latency of
+the link itself can not be seen from arrivals alone and stays in origin, all
+samples are shifted by the same few ms). The sensor crystal does
+not run at exactly 500Hz either. Once a few seconds are in, period is worked
+out from two lower-envelope points far apart (one in the first window of
+packets, one in the latest), which gives the sensor vs phone clock drift.
+Written by the thread feeding the pipeline, getters can be called from
+anywhere (origin / period may be one packet apart).
+*******************************************************************************/
+
+public class EcgTimebase {
+	// packets looked at together when searching for the lower envelope
+	private static final int WINDOW_PACKETS = 64;
+	// drift is only worked out once reference and latest point are this far apart
+	private static final int MIN_DRIFT_SPAN_SECONDS = 10;
+	// anything further off than this is a reset / gap, not a crystal (those are within +-100ppm)
+	private static final double MAX_DRIFT = 0.02;
+
+	private final double mNominalPeriodNanos;
+	private final long mMinDriftSpan;
+
+	// last sample index and arrival of recent packets, for the envelope search
+	private final long[] mWindowIndex = new long[WINDOW_PACKETS];
+	private final long[] mWindowArrival = new long[WINDOW_PACKETS];
+	private int mWindowFill = 0;
+
+	// lower-envelope point of the first window, drift is measured against it
+	private long mRefIndex = -1;
+	private long mRefNanos = 0;
+
+	private volatile long mSampleCount = 0;
+	private volatile long mPacketCount = 0;
+	private volatile double mPeriodNanos;
+	private volatile long mOriginNanos = 0;
+	private volatile long mFirstArrivalNanos = 0;
+	private volatile long mLastArrivalNanos = 0;
+	private volatile long mLastLatencyNanos = 0;
+	private volatile long mMaxLatencyNanos = 0;
+
+	public EcgTimebase(int sampleRate) {
+		mNominalPeriodNanos = 1e9 / sampleRate;
+		mPeriodNanos = mNominalPeriodNanos;
+		mMinDriftSpan = (long)MIN_DRIFT_SPAN_SECONDS * sampleRate;
+	}
+
+	// count samples of one packet that arrived at arrivalNanos (elapsedRealtimeNanos)
+	// returns index of its first sample
+	public long onPacket(final int count, final long arrivalNanos) {
+		final long first = mSampleCount;
+		if(count <= 0) return first;
+		final long last = first + count - 1;
+		mSampleCount = first + count;
+
+		if(mPacketCount == 0) {
+			mFirstArrivalNanos = arrivalNanos;
+			mOriginNanos = arrivalNanos - (long)(last * mPeriodNanos);
+		}
+		mPacketCount++;
+		mLastArrivalNanos = arrivalNanos;
+
+		// packet earlier than the model allows, move the model back to it
+		final long candidate = arrivalNanos - (long)(last * mPeriodNanos);
+		if(candidate < mOriginNanos) mOriginNanos = candidate;
+
+		mWindowIndex[mWindowFill] = last;
+		mWindowArrival[mWindowFill] = arrivalNanos;
+		if(++mWindowFill == WINDOW_PACKETS) {
+			mWindowFill = 0;
+			updateWindow();
+		}
+
+		final long latency = arrivalNanos - getSampleTimeNanos(last);
+		mLastLatencyNanos = latency;
+		if(latency > mMaxLatencyNanos) mMaxLatencyNanos = latency;
+		return first;
+	}
+
+	// count samples that never arrived (see EcgGapDetector), the next packet starts after them
+	public void skip(final int lost) {
+		if(lost > 0) mSampleCount += lost;
+	}
+
+	// time of sample index on the elapsedRealtimeNanos clock
+	public long getSampleTimeNanos(final long index) {
+		return mOriginNanos + (long)(index * mPeriodNanos);
+	}
+
+	// times of count samples starting at firstIndex into out[offset]
+	public void getSampleTimesNanos(final long firstIndex, final int count, final long[] out, final int offset) {
+		final long origin = mOriginNanos;
+		final double period = mPeriodNanos;
+		for(int i = 0; i < count; i++) out[offset + i] = origin + (long)((firstIndex + i) * period);
+	}
+
+	// index of the sample taken closest to timeNanos, may be < 0 or >= getSampleCount()
+	public long getSampleIndexAt(final long timeNanos) {
+		return Math.round((timeNanos - mOriginNanos) / mPeriodNanos);
+	}
+
+	public long getSampleCount()       { return mSampleCount; }
+	public long getPacketCount()       { return mPacketCount; }
+	public long getOriginNanos()        { return mOriginNanos; }
+	public long getFirstArrivalNanos() { return mFirstArrivalNanos; }
+	public long getLastArrivalNanos()  { return mLastArrivalNanos; }
+	// arrival of the last packet behind the time of its last sample
+	public long getLastLatencyNanos()  { return mLastLatencyNanos; }
+	public long getMaxLatencyNanos()   { return mMaxLatencyNanos; }
+
+	// sample period as measured on the phone clock, in picoseconds so it fits a long
+	public long getPeriodPicos() {
+		return Math.round(mPeriodNanos * 1000);
+	}
+
+	// sensor clock vs phone clock in parts per billion, > 0 when the sensor runs slow
+	public long getDriftPpb() {
+		return Math.round((mPeriodNanos / mNominalPeriodNanos - 1) * 1e9);
+	}
+
+	// sample rate as measured on the phone clock
+	public double getMeasuredSampleRate() {
+		return 1e9 / mPeriodNanos;
+	}
+
+	// start from scratch, e.g. when switching to another device
+	public void reset() {
+		mSampleCount = 0;
+		mPacketCount = 0;
+		mPeriodNanos = mNominalPeriodNanos;
+		mOriginNanos = 0;
+		mFirstArrivalNanos = 0;
+		mLastArrivalNanos = 0;
+		mLastLatencyNanos = 0;
+		mMaxLatencyNanos = 0;
+		mWindowFill = 0;
+		mRefIndex = -1;
+	}
+
+	// a window of packets is full, find its lower-envelope point and update period / origin from it
+	private void updateWindow() {
+		final double period = mPeriodNanos;
+		int best = 0;
+		long bestCandidate = Long.MAX_VALUE;
+		for(int i = 0; i < WINDOW_PACKETS; i++) {
+			final long candidate = mWindowArrival[i] - (long)(mWindowIndex[i] * period);
+			if(candidate < bestCandidate) {
+				bestCandidate = candidate;
+				best = i;
+			}
+		}
+		final long index = mWindowIndex[best];
+		final long arrival = mWindowArrival[best];
+
+		if(mRefIndex < 0) {
+			mRefIndex = index;
+			mRefNanos = arrival;
+		}
+		else if(index - mRefIndex >= mMinDriftSpan) {
+			final double measured = (arrival - mRefNanos) / (double)(index - mRefIndex);
+			if(Math.abs(measured / mNominalPeriodNanos - 1) <= MAX_DRIFT) mPeriodNanos = measured;
+		}
+		// latest envelope point is the best anchor we have, the model may move later here as well
+		// (lost samples too few to be noticed as a gap end up in here)
+		mOriginNanos = arrival - (long)(index * mPeriodNanos);
+	}
+}
@@ -0,0 +1,167 @@
+package org.bluetooth.bledemo;
+
+/******************************************************************************
+EcgTrace is the in-process event trace that replaces the per packet
+Log.e calls. Every event is one fixed size record of 4 longs (event id,
+System.nanoTime(), a, b) written into a ring allocated by start(), so
+recording costs an atomic increment and four array writes, no strings and
+no allocation. While stopped (the default) record() returns after reading
+one volatile flag, and the helpers taking a byte[] or UUID do nothing else,
+so call sites can stay in the hot path.
+When the ring is full the oldest records are overwritten. dump() writes the
+records (oldest first) to a binary file on demand, printDump() turns such a
+file into one text line per record, e.g. on a JVM after adb pull.
+Any thread can record. A record being written while dump() runs can come
+out torn, good enough for a trace.
+*******************************************************************************/
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class EcgTrace {
+	// event ids, a / b as recorded
+	// characteristic value events: a = (first 32 bits of the uuid << 16) | value length,
+	// b = first 8 bytes of the value, big-endian, zero padded
+	public static final int EVENT_NOTIFICATION   = 1; // value of a notification (GATT thread / replay)
+	public static final int EVENT_READ           = 2; // value of a read request (GATT thread)
+	public static final int EVENT_VALUE          = 3; // value reached the details view (UI thread)
+	public static final int EVENT_NOTIFY_ENABLED = 4; // a = first 32 bits of the uuid, b = 1 applied, 0 ignored
+	public static final int EVENT_PACKET         = 5; // ECG Wave packet through the pipeline, a = samples out, b = arrival nanos
+	public static final int EVENT_FRAME          = 6; // UI frame, a = samples drained, b = frame time nanos
+	private static final String[] EVENT_NAMES = { "?", "notification", "read", "value", "notify_enabled", "packet", "frame" };
+
+	public static final int DEFAULT_CAPACITY = 16384; // records, 512kB
+	private static final int LONGS_PER_RECORD = 4;
+	private static final int DUMP_MAGIC = 0x45434754; // "ECGT"
+	private static final int DUMP_VERSION = 1;
+
+	private static volatile boolean mEnabled = false;
+	private static long[] mRecords = null;
+	// records ever claimed, the ring slot is the low bits
+	private static final AtomicLong mNext = new AtomicLong();
+
+	public static boolean isEnabled() {
+		return mEnabled;
+	}
+
+	// start recording into a ring of at least capacity records (rounded up to a power of 2)
+	// the ring is only allocated again when the capacity changes, records from before are dropped
+	public static synchronized void start(int capacity) {
+		mEnabled = false;
+		int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+		if(mRecords == null || mRecords.length != size * LONGS_PER_RECORD) mRecords = new long[size * LONGS_PER_RECORD];
+		mNext.set(0);
+		mEnabled = true;
+	}
+
+	public static void start() {
+		start(DEFAULT_CAPACITY);
+	}
+
+	// stop recording, what is in the ring stays there for dump()
+	public static synchronized void stop() {
+		mEnabled = false;
+	}
+
+	// records ever written since start(), more than the capacity means the oldest are gone
+	public static long getRecordCount() {
+		return mNext.get();
+	}
+
+	public static void record(final int event, final long a, final long b) {
+		if(!mEnabled) return;
+		// slot from the array's own size, a writer racing start() stays inside the ring it read
+		final long[] records = mRecords;
+		final int base = (int)(mNext.getAndIncrement() & (records.length / LONGS_PER_RECORD - 1)) * LONGS_PER_RECORD;
+		records[base] = event;
+		records[base + 1] = System.nanoTime();
+		records[base + 2] = a;
+		records[base + 3] = b;
+	}
+
+	// characteristic value event, see EVENT_NOTIFICATION for what goes in a / b. value may be null
+	public static void recordValue(final int event, final UUID uuid, final byte[] value) {
+		if(!mEnabled) return;
+		final int length = (value != null) ? value.length : 0;
+		long head = 0;
+		for(int i = 0; i < 8; i++) head = (head << 8) | ((i < length) ? (value[i] & 0xff) : 0);
+		record(event, (shortUuid(uuid) << 16) | (length & 0xffff), head);
+	}
+
+	// first 32 bits of the uuid, the 16/32 bit short form for SIG ones
+	public static long shortUuid(final UUID uuid) {
+		return (uuid != null) ? uuid.getMostSignificantBits() >>> 32 : 0;
+	}
+
+	public static String getEventName(final int event) {
+		return (event > 0 && event < EVENT_NAMES.length) ? EVENT_NAMES[event] : EVENT_NAMES[0];
+	}
+
+	// write the ring, oldest record first, to file. Recording goes on while dumping
+	// returns number of records written
+	public static synchronized int dump(final File file) throws IOException {
+		final long[] records = mRecords;
+		final long next = mNext.get();
+		final int size = (records != null) ? records.length / LONGS_PER_RECORD : 0;
+		final int count = (int)Math.min(next, size);
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			out.writeInt(DUMP_MAGIC);
+			out.writeInt(DUMP_VERSION);
+			out.writeInt(LONGS_PER_RECORD);
+			// records lost to the ring wrapping around
+			out.writeLong(next - count);
+			out.writeInt(count);
+			for(long r = next - count; r < next; r++) {
+				final int base = (int)(r & (size - 1)) * LONGS_PER_RECORD;
+				for(int i = 0; i < LONGS_PER_RECORD; i++) out.writeLong(records[base + i]);
+			}
+		} finally {
+			out.close();
+		}
+		return count;
+	}
+
+	// turn a file made by dump() into text: one "time_us event a b" line per record,
+	// time from the first record, a and b in hex
+	public static void printDump(final File file, final Writer out) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if(in.readInt() != DUMP_MAGIC) throw new IOException(file + " is not a trace dump");
+			final int version = in.readInt();
+			if(version != DUMP_VERSION) throw new IOException("unsupported trace dump version " + version);
+			final int longsPerRecord = in.readInt();
+			final long lost = in.readLong();
+			final int count = in.readInt();
+			out.write(count + " records, " + lost + " overwritten before\n");
+
+			long first = 0;
+			for(int r = 0; r < count; r++) {
+				final long event = in.readLong();
+				final long time = in.readLong();
+				final long a = in.readLong();
+				final long b = in.readLong();
+				for(int i = 4; i < longsPerRecord; i++) in.readLong();
+				if(r == 0) first = time;
+				out.write(String.format(Locale.US, "%12.1f %-14s %016x %016x\n",
+						(time - first) / 1000.0, getEventName((int)event), a, b));
+			}
+		} catch (EOFException e) {
+			throw new IOException(file + " is cut short", e);
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,49 @@
+package org.bluetooth.bledemo;
+
+/******************************************************************************
+EcgTransport is where ECG Wave packets come from, whatever carries them.
+EcgAcquisition (and so EcgPipeline) only talks to this interface, so the
+same acquisition code runs on:
+ - BleWrapper, the Android GATT link to a real sensor
+ - FileTransport, a recording played back on its own thread
+ - MemoryTransport, packets pushed in by a test / benchmark / EcgSimulator
+A transport has one listener. Callbacks come on whatever thread the transport
+delivers on (GATT callback thread, replay thread, caller of deliver()), the
+listener has to be fine with that.
+*******************************************************************************/
+
+public interface EcgTransport {
+	public interface Listener {
+		// link to the sensor is up
+		public void onConnected(EcgTransport transport);
+		// sensor's services are known, subscribe() works from now on
+		public void onReady(EcgTransport transport);
+		// one ECG Wave notification as sent, big-endian int16 samples (after a counter, if any)
+		// arrivalNanos is elapsedRealtimeNanos (or the transport's own clock) at arrival
+		// packet is only valid during the call, copy it to keep it
+		public void onPacket(EcgTransport transport, byte[] packet, long arrivalNanos);
+		// link is gone, by disconnect() or by itself (out of range, end of file)
+		public void onDisconnected(EcgTransport transport);
+	}
+
+	// null for no callbacks
+	public void setListener(Listener listener);
+
+	// start connecting, result comes through the listener. false if it could not even start
+	public boolean connect(String deviceAddress);
+
+	// turn ECG Wave notifications on / off, false if there is no ECG Wave (yet)
+	public boolean subscribe(boolean enabled);
+
+	public void disconnect();
+
+	// free everything, the transport is not used again after this
+	public void close();
+
+	public boolean isConnected();
+
+	public String getDeviceAddress();
+
+	// largest notification the link carries right now, in bytes
+	public int getMaxPacketSize();
+}
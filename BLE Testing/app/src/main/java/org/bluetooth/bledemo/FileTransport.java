@@ -0,0 +1,208 @@
+package org.bluetooth.bledemo;
+
+/******************************************************************************
+FileTransport plays a recording made by EcgRecorder back as if the sensor was
+sending it. Packets are rebuilt from the chunks (same size, same big-endian
+samples) and handed over on a background thread, just like the GATT callback
+thread does, so the listener sees the same order of calls as with a live
+sensor: connected, ready, packets once subscribed, disconnected at the end.
+Packets keep the spacing they had when recorded, scaled by the speed:
+1 is real time, 4 is four times faster, SPEED_MAX does not wait at all.
+Arrival times handed over are the recorded ones, so the analysis sees exactly
+the same stream no matter how fast it is replayed. Packets that come while
+nobody is subscribed are skipped, like notifications that are turned off.
+Recordings keep samples only. With setSequenceCounter(true) every packet gets
+a uint16 counter in front, worked out from the chunk indexes, so packets lost
+while recording come out as a jump in the counter just like live.
+BleWrapper uses this for replay in the app, on a JVM it can feed an
+EcgAcquisition directly.
+*******************************************************************************/
+
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+public class FileTransport implements EcgTransport, Runnable {
+	// replay as fast as the listener can take it
+	public static final float SPEED_MAX = 0f;
+
+	private final EcgRecordingReader mReader;
+	private final float mSpeed;
+	private volatile boolean mSequenceCounter = false;
+
+	private volatile Listener mListener = null;
+	private Thread mThread = null;
+	private volatile boolean mStopped = false;
+	private volatile boolean mConnected = false;
+	private volatile boolean mSubscribed = false;
+	private volatile long mPacketsReplayed = 0;
+	private volatile long mMaxLateNanos = 0;
+	private volatile long mElapsedNanos = 0;
+	private volatile IOException mError = null;
+
+	// speed is a multiple of real time, SPEED_MAX (or anything <= 0) for no pacing
+	// the transport owns the reader from now on, close() closes it
+	public FileTransport(EcgRecordingReader reader, float speed) {
+		mReader = reader;
+		mSpeed = speed;
+	}
+
+	// packets start with a uint16 counter, set it like the decoder the packets go to
+	// (EcgPacketDecoder.hasSequenceCounter()). Before connect()
+	public void setSequenceCounter(boolean enabled) {
+		mSequenceCounter = enabled;
+	}
+
+	public EcgRecordingReader getReader() { return mReader; }
+	public float getSpeed() { return mSpeed; }
+	public long getPacketsReplayed() { return mPacketsReplayed; }
+	// worst delay of a packet behind its schedule, tells if the listener keeps up with the speed
+	public long getMaxLateNanos() { return mMaxLateNanos; }
+	// wall time taken so far
+	public long getElapsedNanos() { return mElapsedNanos; }
+	// error that ended the replay early, null if none
+	public IOException getError() { return mError; }
+
+	@Override
+	public void setListener(Listener listener) {
+		mListener = listener;
+	}
+
+	// start the replay thread, the address is not used (the recording has its own)
+	@Override
+	public synchronized boolean connect(String deviceAddress) {
+		if(mThread != null) return true;
+		mStopped = false;
+		mThread = new Thread(this, "EcgReplay");
+		mThread.start();
+		return true;
+	}
+
+	@Override
+	public boolean subscribe(boolean enabled) {
+		mSubscribed = enabled;
+		return true;
+	}
+
+	// stop replay and wait for the thread to finish, the listener gets no packet after this returns
+	@Override
+	public void disconnect() {
+		Thread thread;
+		synchronized(this) {
+			thread = mThread;
+			mStopped = true;
+		}
+		if(thread == null || thread == Thread.currentThread()) return;
+		thread.interrupt();
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public void close() {
+		disconnect();
+		try {
+			mReader.close();
+		} catch (IOException e) {
+			if(mError == null) mError = e;
+		}
+	}
+
+	@Override
+	public boolean isConnected() {
+		return mConnected;
+	}
+
+	@Override
+	public String getDeviceAddress() {
+		return mReader.getDeviceAddress();
+	}
+
+	@Override
+	public int getMaxPacketSize() {
+		return EcgPacketDecoder.MAX_PACKET_SIZE;
+	}
+
+	public synchronized boolean isRunning() {
+		return mThread != null && mThread.isAlive() && !mStopped;
+	}
+
+	@Override
+	public void run() {
+		final long wallStart = System.nanoTime();
+		final long recordStart = (mReader.getChunkCount() > 0) ? mReader.getChunkFirstArrival(0) : 0;
+		final short[] samples = new short[EcgRecorder.CHUNK_SAMPLES];
+		final int header = mSequenceCounter ? EcgPacketDecoder.SEQUENCE_SIZE : 0;
+		// one packet array for the whole replay, only made again when the packet size changes
+		// the listener only gets it for the duration of the call, see EcgTransport
+		byte[] packet = new byte[0];
+		int sequence = 0;
+
+		mConnected = true;
+		Listener listener = mListener;
+		if(listener != null) {
+			listener.onConnected(this);
+			listener.onReady(this);
+		}
+
+		try {
+			for(int c = 0; c < mReader.getChunkCount() && !mStopped; c++) {
+				final int count = mReader.readChunk(c, samples);
+				final int perPacket = mReader.getChunkSamplesPerPacket(c);
+				if(perPacket <= 0) continue;
+				final int packets = (count + perPacket - 1) / perPacket;
+				final long first = mReader.getChunkFirstArrival(c);
+				final long span = mReader.getChunkLastArrival(c) - first;
+				// samples lost while recording are whole packets of this size, skip their counters
+				sequence += (int)(mReader.getChunkGapBefore(c) / perPacket);
+
+				for(int p = 0; p < packets && !mStopped; p++) {
+					// only first and last arrival are kept per chunk, packets in between are evenly spread
+					final long arrival = (packets > 1) ? first + span * p / (packets - 1) : first;
+					if(mSpeed > 0) waitUntil(wallStart + (long)((arrival - recordStart) / (double)mSpeed));
+					// counted whether anybody listens or not, like the sensor does
+					final int packetSequence = sequence++;
+					listener = mListener;
+					if(!mSubscribed || listener == null) continue;
+
+					final int len = Math.min(perPacket, count - p * perPacket);
+					final int size = header + len * EcgPacketDecoder.BYTES_PER_SAMPLE;
+					if(packet.length != size) packet = new byte[size];
+					if(header > 0) {
+						packet[0] = (byte)(packetSequence >> 8);
+						packet[1] = (byte)packetSequence;
+					}
+					for(int i = 0; i < len; i++) {
+						final short s = samples[p * perPacket + i];
+						packet[header + 2*i] = (byte)(s >> 8);
+						packet[header + 2*i + 1] = (byte)s;
+					}
+					listener.onPacket(this, packet, arrival);
+					mPacketsReplayed++;
+				}
+			}
+		} catch (IOException e) {
+			mError = e;
+		}
+
+		mElapsedNanos = System.nanoTime() - wallStart;
+		mConnected = false;
+		synchronized(this) {
+			mThread = null;
+		}
+		// also when stopped, the listener always sees the link go away
+		listener = mListener;
+		if(listener != null) listener.onDisconnected(this);
+	}
+
+	// sleep until System.nanoTime() reaches deadline, remembers how late we already are
+	private void waitUntil(final long deadline) {
+		long remaining;
+		while((remaining = deadline - System.nanoTime()) > 0 && !mStopped) {
+			LockSupport.parkNanos(remaining);
+		}
+		if(-remaining > mMaxLateNanos) mMaxLateNanos = -remaining;
+	}
+}
@@ -0,0 +1,302 @@
+package org.bluetooth.bledemo;
+
+/******************************************************************************
+GattOperationQueue makes sure only one GATT operation is outstanding at a time.
+Android drops (returns false for) any read / write / descriptor write / RSSI
+request made while another one is still waiting for its callback, so every
+request from BleWrapper goes in here and the next one is only started when
+the callback of the current one arrives (see BleWrapper.mBleCallback) or its
+timeout runs out. A timed out operation may still be pending in the stack,
+which then refuses the next start as busy: for a while after a timeout a
+refused operation stays at the head and is tried again a little later, only
+refusals for other reasons drop it. Callbacks are matched on type and
+characteristic / descriptor, and the late callback of the timed out operation
+is swallowed instead of completing a newer one. Waiting operations are ordered by
+priority, then by the order they were queued in, so e.g. enabling notifications always goes ahead
+of RSSI polling. Latency (queued -> callback) is kept per operation type.
+*******************************************************************************/
+
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.PriorityQueue;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+public class GattOperationQueue {
+	// lower value runs first
+	public static final int PRIORITY_HIGH   = 0; // setup: MTU, service discovery, notification descriptors
+	public static final int PRIORITY_NORMAL = 1; // user requested reads / writes
+	public static final int PRIORITY_LOW    = 2; // background polling, RSSI
+
+	public static final int TYPE_DISCOVER_SERVICES    = 0;
+	public static final int TYPE_READ_CHARACTERISTIC  = 1;
+	public static final int TYPE_WRITE_CHARACTERISTIC = 2;
+	public static final int TYPE_WRITE_DESCRIPTOR     = 3;
+	public static final int TYPE_READ_RSSI            = 4;
+	public static final int TYPE_REQUEST_MTU          = 5;
+	private static final int TYPE_COUNT = 6;
+	private static final String[] TYPE_NAMES = {
+		"discover services", "read characteristic", "write characteristic", "write descriptor", "read rssi", "request mtu"
+	};
+
+	// how long we wait for the callback before giving up on an operation
+	private static final long OPERATION_TIMEOUT_MS = 5000;
+	// first discovery on a new device can take a few seconds on its own
+	private static final long DISCOVERY_TIMEOUT_MS = 15000;
+	// after a timeout a refused start is taken as busy and tried again this often...
+	private static final long BUSY_RETRY_MS = 100;
+	// ...until the timed out operation's callback comes or this much longer has passed
+	private static final long STALE_MS = 5000;
+
+	private static class Operation {
+		int type;
+		int priority;
+		int mtu;
+		long sequence;
+		long queuedNanos;
+		BluetoothGattCharacteristic characteristic;
+		BluetoothGattDescriptor descriptor;
+		byte[] value;
+	}
+
+	private static final Comparator<Operation> ORDER = new Comparator<Operation>() {
+		@Override
+		public int compare(Operation a, Operation b) {
+			if(a.priority != b.priority) return (a.priority < b.priority) ? -1 : 1;
+			return (a.sequence < b.sequence) ? -1 : ((a.sequence == b.sequence) ? 0 : 1);
+		}
+	};
+
+	private final Handler mHandler;
+	private final PriorityQueue<Operation> mPending = new PriorityQueue<Operation>(16, ORDER);
+	private BluetoothGatt mGatt = null;
+	private Operation mCurrent = null;
+	// last operation that timed out, the stack may still be busy with it until mStaleUntilNanos
+	private Operation mStale = null;
+	private long mStaleUntilNanos = 0;
+	private long mSequence = 0;
+
+	// per type statistics, guarded by this
+	private final long[] mCompleted = new long[TYPE_COUNT];
+	private final long[] mFailed = new long[TYPE_COUNT];
+	private final long[] mTimedOut = new long[TYPE_COUNT];
+	private final long[] mTotalLatencyNanos = new long[TYPE_COUNT];
+	private final long[] mMaxLatencyNanos = new long[TYPE_COUNT];
+	private final long[] mLastLatencyNanos = new long[TYPE_COUNT];
+
+	private final Runnable mTimeout = new Runnable() {
+		@Override
+		public void run() {
+			onTimeout();
+		}
+	};
+
+	private final Runnable mRetry = new Runnable() {
+		@Override
+		public void run() {
+			retry();
+		}
+	};
+
+	// timeouts run on the handler's looper
+	public GattOperationQueue(Handler handler) {
+		mHandler = handler;
+	}
+
+	// operations are sent to this gatt from now on, null drops everything waiting
+	public synchronized void setGatt(BluetoothGatt gatt) {
+		if(gatt != mGatt) clear();
+		mGatt = gatt;
+	}
+
+	// forget current and waiting operations, e.g. after disconnect
+	public synchronized void clear() {
+		mPending.clear();
+		mCurrent = null;
+		mStale = null;
+		mHandler.removeCallbacks(mTimeout);
+		mHandler.removeCallbacks(mRetry);
+	}
+
+	public void discoverServices() {
+		enqueue(TYPE_DISCOVER_SERVICES, PRIORITY_HIGH, null, null, null, 0);
+	}
+
+	public void requestMtu(int mtu) {
+		enqueue(TYPE_REQUEST_MTU, PRIORITY_HIGH, null, null, null, mtu);
+	}
+
+	public void readCharacteristic(BluetoothGattCharacteristic ch, int priority) {
+		enqueue(TYPE_READ_CHARACTERISTIC, priority, ch, null, null, 0);
+	}
+
+	// value is copied, it is set on the characteristic only when the write really starts
+	public void writeCharacteristic(BluetoothGattCharacteristic ch, byte[] value, int priority) {
+		enqueue(TYPE_WRITE_CHARACTERISTIC, priority, ch, null, value.clone(), 0);
+	}
+
+	public void writeDescriptor(BluetoothGattDescriptor descriptor, byte[] value, int priority) {
+		enqueue(TYPE_WRITE_DESCRIPTOR, priority, null, descriptor, value.clone(), 0);
+	}
+
+	// at most one RSSI read waits at a time, polling faster than the link answers gains nothing
+	public synchronized void readRemoteRssi() {
+		if(mCurrent != null && mCurrent.type == TYPE_READ_RSSI) return;
+		for(Operation op : mPending) {
+			if(op.type == TYPE_READ_RSSI) return;
+		}
+		enqueue(TYPE_READ_RSSI, PRIORITY_LOW, null, null, null, 0);
+	}
+
+	// call from the matching BluetoothGattCallback method, starts the next operation
+	// success is only counted, the caller still handles the result itself
+	// for services discovery, MTU and RSSI, which have no characteristic or descriptor
+	public void onCompleted(int type, boolean success) {
+		onCompleted(type, null, success);
+	}
+
+	// same for characteristic reads / writes, ch as given to the callback
+	public void onCompleted(BluetoothGattCharacteristic ch, int type, boolean success) {
+		onCompleted(type, ch, success);
+	}
+
+	public void onCompleted(BluetoothGattDescriptor descriptor, boolean success) {
+		onCompleted(TYPE_WRITE_DESCRIPTOR, descriptor, success);
+	}
+
+	private synchronized void onCompleted(int type, Object target, boolean success) {
+		if(mStale != null && matches(mStale, type, target)) {
+			// late callback of the operation that timed out. The stack sends callbacks in the
+			// order it got the requests, so it comes before one for a same looking current op
+			Log.e("------", "GATT " + TYPE_NAMES[type] + " answered after its timeout");
+			mStale = null;
+			if(mCurrent == null) next();
+			return;
+		}
+		if(mCurrent == null || !matches(mCurrent, type, target)) return;
+		final long latency = SystemClock.elapsedRealtimeNanos() - mCurrent.queuedNanos;
+		mHandler.removeCallbacks(mTimeout);
+		if(success) {
+			mCompleted[type]++;
+			mTotalLatencyNanos[type] += latency;
+			mLastLatencyNanos[type] = latency;
+			if(latency > mMaxLatencyNanos[type]) mMaxLatencyNanos[type] = latency;
+		}
+		else mFailed[type]++;
+		mCurrent = null;
+		next();
+	}
+
+	public synchronized int getPendingCount() {
+		return mPending.size() + ((mCurrent != null) ? 1 : 0);
+	}
+
+	public synchronized long getCompletedCount(int type)   { return mCompleted[type]; }
+	public synchronized long getFailedCount(int type)      { return mFailed[type]; }
+	public synchronized long getTimeoutCount(int type)     { return mTimedOut[type]; }
+	public synchronized long getMaxLatencyNanos(int type)  { return mMaxLatencyNanos[type]; }
+	public synchronized long getLastLatencyNanos(int type) { return mLastLatencyNanos[type]; }
+	public synchronized long getAverageLatencyNanos(int type) {
+		return (mCompleted[type] > 0) ? mTotalLatencyNanos[type] / mCompleted[type] : 0;
+	}
+
+	// one line per operation type that was used, for logs
+	public synchronized String dump() {
+		StringBuilder sb = new StringBuilder();
+		for(int type = 0; type < TYPE_COUNT; type++) {
+			if(mCompleted[type] + mFailed[type] + mTimedOut[type] == 0) continue;
+			sb.append(String.format(Locale.US, "%-20s ok %d, failed %d, timed out %d, latency avg %.1f ms, max %.1f ms\n",
+					TYPE_NAMES[type], mCompleted[type], mFailed[type], mTimedOut[type],
+					getAverageLatencyNanos(type) / 1e6, mMaxLatencyNanos[type] / 1e6));
+		}
+		return sb.toString();
+	}
+
+	private synchronized void enqueue(int type, int priority, BluetoothGattCharacteristic ch,
+									  BluetoothGattDescriptor descriptor, byte[] value, int mtu) {
+		if(mGatt == null) return;
+		Operation op = new Operation();
+		op.type = type;
+		op.priority = priority;
+		op.sequence = mSequence++;
+		op.queuedNanos = SystemClock.elapsedRealtimeNanos();
+		op.characteristic = ch;
+		op.descriptor = descriptor;
+		op.value = value;
+		op.mtu = mtu;
+		mPending.add(op);
+		if(mCurrent == null) next();
+	}
+
+	// start waiting operations until one is accepted by the stack
+	private void next() {
+		mHandler.removeCallbacks(mRetry);
+		while(mCurrent == null && !mPending.isEmpty() && mGatt != null) {
+			Operation op = mPending.poll();
+			if(start(op)) {
+				mCurrent = op;
+				mHandler.postDelayed(mTimeout, (op.type == TYPE_DISCOVER_SERVICES) ? DISCOVERY_TIMEOUT_MS : OPERATION_TIMEOUT_MS);
+			}
+			else if(isStaleBusy()) {
+				// most likely the stack still works on the timed out one, keep op at the head
+				mPending.add(op);
+				mHandler.postDelayed(mRetry, BUSY_RETRY_MS);
+				return;
+			}
+			else {
+				mFailed[op.type]++;
+				Log.e("------", "GATT " + TYPE_NAMES[op.type] + " could not be started");
+			}
+		}
+	}
+
+	private static boolean matches(Operation op, int type, Object target) {
+		if(op.type != type) return false;
+		return target == ((op.descriptor != null) ? op.descriptor : op.characteristic);
+	}
+
+	// can a refused start still be blamed on the operation that timed out?
+	private boolean isStaleBusy() {
+		if(mStale != null && SystemClock.elapsedRealtimeNanos() - mStaleUntilNanos > 0) mStale = null;
+		return mStale != null;
+	}
+
+	private synchronized void retry() {
+		if(mCurrent == null) next();
+	}
+
+	private boolean start(Operation op) {
+		switch(op.type) {
+			case TYPE_DISCOVER_SERVICES:
+				return mGatt.discoverServices();
+			case TYPE_READ_CHARACTERISTIC:
+				return mGatt.readCharacteristic(op.characteristic);
+			case TYPE_WRITE_CHARACTERISTIC:
+				op.characteristic.setValue(op.value);
+				return mGatt.writeCharacteristic(op.characteristic);
+			case TYPE_WRITE_DESCRIPTOR:
+				op.descriptor.setValue(op.value);
+				return mGatt.writeDescriptor(op.descriptor);
+			case TYPE_READ_RSSI:
+				return mGatt.readRemoteRssi();
+			case TYPE_REQUEST_MTU:
+				return mGatt.requestMtu(op.mtu);
+		}
+		return false;
+	}
+
+	private synchronized void onTimeout() {
+		if(mCurrent == null) return;
+		mTimedOut[mCurrent.type]++;
+		Log.e("------", "GATT " + TYPE_NAMES[mCurrent.type] + " timed out");
+		mStale = mCurrent;
+		mStaleUntilNanos = SystemClock.elapsedRealtimeNanos() + STALE_MS * 1000000L;
+		mCurrent = null;
+		next();
+	}
+}
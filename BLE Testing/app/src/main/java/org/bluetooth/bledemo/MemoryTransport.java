@@ -0,0 +1,93 @@
+package org.bluetooth.bledemo;
+
+/******************************************************************************
+MemoryTransport is a transport with no radio and no file behind it: whoever
+holds it pushes packets in with deliver() and they go straight to the
+listener on the same thread. connect() reports connected and ready at once.
+Meant for tests, benchmarks and EcgSimulatorRunner, where the pushing thread
+plays the part of the GATT callback thread.
+*******************************************************************************/
+
+public class MemoryTransport implements EcgTransport {
+	private final int mMaxPacketSize;
+	private volatile Listener mListener = null;
+	private volatile String mDeviceAddress = null;
+	private volatile boolean mConnected = false;
+	private volatile boolean mSubscribed = false;
+	private volatile long mDelivered = 0;
+	private volatile long mDropped = 0;
+
+	// maxPacketSize as the link would allow, e.g. DEFAULT_MTU - 3
+	public MemoryTransport(int maxPacketSize) {
+		mMaxPacketSize = maxPacketSize;
+	}
+
+	// packets handed to the listener / thrown away because nobody was subscribed
+	public long getDeliveredCount() { return mDelivered; }
+	public long getDroppedCount()   { return mDropped; }
+
+	@Override
+	public void setListener(Listener listener) {
+		mListener = listener;
+	}
+
+	@Override
+	public boolean connect(String deviceAddress) {
+		mDeviceAddress = deviceAddress;
+		mConnected = true;
+		final Listener listener = mListener;
+		if(listener != null) {
+			listener.onConnected(this);
+			listener.onReady(this);
+		}
+		return true;
+	}
+
+	@Override
+	public boolean subscribe(boolean enabled) {
+		mSubscribed = enabled;
+		return true;
+	}
+
+	@Override
+	public void disconnect() {
+		if(!mConnected) return;
+		mConnected = false;
+		mSubscribed = false;
+		final Listener listener = mListener;
+		if(listener != null) listener.onDisconnected(this);
+	}
+
+	@Override
+	public void close() {
+		disconnect();
+	}
+
+	@Override
+	public boolean isConnected() {
+		return mConnected;
+	}
+
+	@Override
+	public String getDeviceAddress() {
+		return mDeviceAddress;
+	}
+
+	@Override
+	public int getMaxPacketSize() {
+		return mMaxPacketSize;
+	}
+
+	// hand packet to the listener on this thread, as long as connected and subscribed
+	// returns false if it was dropped
+	public boolean deliver(final byte[] packet, final long arrivalNanos) {
+		final Listener listener = mListener;
+		if(!mConnected || !mSubscribed || listener == null || packet.length > mMaxPacketSize) {
+			mDropped++;
+			return false;
+		}
+		listener.onPacket(this, packet, arrivalNanos);
+		mDelivered++;
+		return true;
+	}
+}
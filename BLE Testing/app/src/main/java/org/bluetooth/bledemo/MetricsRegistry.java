@@ -0,0 +1,181 @@
+package org.bluetooth.bledemo;
+
+/******************************************************************************
+MetricsRegistry keeps the numbers that tell how the hot path is doing: packet
+and sample counts, decode / filter time, ring depth, arrival to screen
+latency, dropped frames and so on. Three kinds of metrics:
+  Counter   - a long that only goes up
+  Histogram - counts values in fixed power of 2 buckets (bucket i holds
+              2^i .. 2^(i+1)-1), plus count, sum and max
+  Gauge     - asked for its value only when dumped (loss rate, drift...)
+Metrics are created once by name and the caller keeps the object, updating
+them is then lock free (atomics only) and allocates nothing, so they can be
+used on the GATT thread for every packet. Creating and dumping is locked.
+dump() gives one "name key=value ..." line per metric in the order they were
+created, for the debug overlay, logcat and regression runs.
+*******************************************************************************/
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class MetricsRegistry {
+	public static class Counter {
+		private final AtomicLong mValue = new AtomicLong();
+
+		public void increment() {
+			mValue.incrementAndGet();
+		}
+
+		public void add(long delta) {
+			mValue.addAndGet(delta);
+		}
+
+		public long get() {
+			return mValue.get();
+		}
+
+		void reset() {
+			mValue.set(0);
+		}
+	}
+
+	public static class Histogram {
+		// 2^40 ns is over 18 minutes, anything bigger goes in the last bucket
+		public static final int BUCKETS = 41;
+
+		private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
+		private final AtomicLong mCount = new AtomicLong();
+		private final AtomicLong mSum = new AtomicLong();
+		private final AtomicLong mMax = new AtomicLong();
+
+		// values < 1 go in bucket 0
+		public void record(long value) {
+			if(value < 0) value = 0;
+			mBuckets.incrementAndGet(bucketOf(value));
+			mCount.incrementAndGet();
+			mSum.addAndGet(value);
+			long max;
+			while(value > (max = mMax.get()) && !mMax.compareAndSet(max, value)) { /* lost the race, try again */ }
+		}
+
+		public long getCount() { return mCount.get(); }
+		public long getSum()   { return mSum.get(); }
+		public long getMax()   { return mMax.get(); }
+
+		public long getMean() {
+			final long count = mCount.get();
+			return (count > 0) ? mSum.get() / count : 0;
+		}
+
+		public long getBucketCount(int bucket) {
+			return mBuckets.get(bucket);
+		}
+
+		// upper end of the bucket holding the given part (0..1) of the values, so at most 2x off
+		public long getPercentile(double part) {
+			final long count = mCount.get();
+			if(count == 0) return 0;
+			final long wanted = (long)Math.ceil(part * count);
+			long seen = 0;
+			for(int i = 0; i < BUCKETS; i++) {
+				seen += mBuckets.get(i);
+				if(seen >= wanted) return Math.min((1L << (i + 1)) - 1, mMax.get());
+			}
+			return mMax.get();
+		}
+
+		static int bucketOf(long value) {
+			if(value <= 1) return 0;
+			final int bucket = 63 - Long.numberOfLeadingZeros(value);
+			return (bucket < BUCKETS) ? bucket : BUCKETS - 1;
+		}
+
+		void reset() {
+			for(int i = 0; i < BUCKETS; i++) mBuckets.set(i, 0);
+			mCount.set(0);
+			mSum.set(0);
+			mMax.set(0);
+		}
+	}
+
+	public interface Gauge {
+		public long get();
+	}
+
+	// Counter, Histogram or Gauge by name, in the order they were created
+	private final Map<String, Object> mMetrics = new LinkedHashMap<String, Object>();
+
+	// the counter called name, created on first use
+	public synchronized Counter counter(String name) {
+		Object metric = mMetrics.get(name);
+		if(metric == null) {
+			metric = new Counter();
+			mMetrics.put(name, metric);
+		}
+		return (Counter) metric;
+	}
+
+	// the histogram called name, created on first use
+	public synchronized Histogram histogram(String name) {
+		Object metric = mMetrics.get(name);
+		if(metric == null) {
+			metric = new Histogram();
+			mMetrics.put(name, metric);
+		}
+		return (Histogram) metric;
+	}
+
+	// replaces any gauge of the same name
+	public synchronized void gauge(String name, Gauge gauge) {
+		mMetrics.put(name, gauge);
+	}
+
+	// counters and histograms back to 0, e.g. at the start of a regression run
+	public synchronized void reset() {
+		for(Object metric : mMetrics.values()) {
+			if(metric instanceof Counter) ((Counter) metric).reset();
+			else if(metric instanceof Histogram) ((Histogram) metric).reset();
+		}
+	}
+
+	// one line per metric:
+	//   name value                                   (counter, gauge)
+	//   name count=.. mean=.. p50=.. p90=.. p99=.. max=..  (histogram)
+	public synchronized String dump() {
+		StringBuilder sb = new StringBuilder();
+		for(Map.Entry<String, Object> entry : mMetrics.entrySet()) {
+			final Object metric = entry.getValue();
+			sb.append(entry.getKey()).append(' ');
+			if(metric instanceof Counter) sb.append(((Counter) metric).get());
+			else if(metric instanceof Gauge) sb.append(((Gauge) metric).get());
+			else {
+				final Histogram h = (Histogram) metric;
+				sb.append("count=").append(h.getCount())
+				  .append(" mean=").append(h.getMean())
+				  .append(" p50=").append(h.getPercentile(0.50))
+				  .append(" p90=").append(h.getPercentile(0.90))
+				  .append(" p99=").append(h.getPercentile(0.99))
+				  .append(" max=").append(h.getMax());
+			}
+			sb.append('\n');
+		}
+		return sb.toString();
+	}
+
+	// write dump() to file, replacing it
+	public void dump(File file) throws IOException {
+		final String text = dump();
+		Writer writer = new FileWriter(file);
+		try {
+			writer.write(text);
+		} finally {
+			writer.close();
+		}
+	}
+}
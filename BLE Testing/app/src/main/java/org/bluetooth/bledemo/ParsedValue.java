@@ -0,0 +1,47 @@
+package org.bluetooth.bledemo;
+
+/******************************************************************************
+ParsedValue is the typed result of a CharacteristicParser. type says what
+the value is, intValue holds the number (bpm, %, sample...), text is only set
+when the value is text to begin with (device strings, names from tables), so
+nothing gets formatted for values nobody reads as text.
+*******************************************************************************/
+
+public class ParsedValue {
+	public static final int TYPE_RAW             = 0; // unknown characteristic, only the bytes
+	public static final int TYPE_ECG             = 1; // ECG Wave packet, intValue first sample
+	public static final int TYPE_HEART_RATE      = 2; // bpm
+	public static final int TYPE_BATTERY         = 3; // percent
+	public static final int TYPE_TEXT            = 4; // utf8 string
+	public static final int TYPE_APPEARANCE      = 5; // GAP appearance code
+	public static final int TYPE_SENSOR_LOCATION = 6; // body sensor location code
+
+	public int type = TYPE_RAW;
+	public int intValue = 0;
+	public String text = null;
+	// ECG only, samples in this packet
+	public int sampleCount = 0;
+
+	public void clear() {
+		type = TYPE_RAW;
+		intValue = 0;
+		text = null;
+		sampleCount = 0;
+	}
+
+	// text for the details screen, only built when somebody asks for it
+	// null for raw bytes and ECG packets, those are shown as hex
+	public String getDisplayText() {
+		switch(type) {
+			case TYPE_HEART_RATE:
+				return intValue + " bpm";
+			case TYPE_BATTERY:
+				return intValue + "% battery level";
+			case TYPE_TEXT:
+			case TYPE_APPEARANCE:
+			case TYPE_SENSOR_LOCATION:
+				return text;
+		}
+		return null;
+	}
+}
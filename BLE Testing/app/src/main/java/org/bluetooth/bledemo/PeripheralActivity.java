@@ -15,15 +15,22 @@ More important comments are above each method in the code.
 
 *******************************************************************************/
 
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
 import java.util.List;
 import java.util.Locale;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.SystemClock;
 import android.app.Activity;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothGatt;
 import android.bluetooth.BluetoothGattCharacteristic;
 import android.bluetooth.BluetoothGattService;
 import android.content.Intent;
+import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
@@ -36,6 +43,17 @@ public class PeripheralActivity extends Activity implements BleWrapperUiCallback
     public static final String EXTRAS_DEVICE_NAME    = "BLE_DEVICE_NAME";
     public static final String EXTRAS_DEVICE_ADDRESS = "BLE_DEVICE_ADDRESS";
     public static final String EXTRAS_DEVICE_RSSI    = "BLE_DEVICE_RSSI";
+    // replay a recording instead of connecting, e.g. for profiling:
+    // adb shell am start -n org.bluetooth.bledemo/.PeripheralActivity --es BLE_REPLAY_FILE <path> --ef BLE_REPLAY_SPEED 4
+    public static final String EXTRAS_REPLAY_FILE    = "BLE_REPLAY_FILE";
+    public static final String EXTRAS_REPLAY_SPEED   = "BLE_REPLAY_SPEED";
+
+    private static final String RECORDINGS_DIR       = "recordings";
+    private static final String RECORDING_EXTENSION  = ".ecg";
+    private static final String METRICS_DIR          = "metrics";
+    private static final String TRACE_DIR            = "trace";
+    // how often the metrics overlay is refreshed
+    private static final long METRICS_REFRESH_INTERVAL = 1000;
 
     
     public enum ListType {
@@ -48,6 +66,8 @@ public class PeripheralActivity extends Activity implements BleWrapperUiCallback
     private String mDeviceName;
     private String mDeviceAddress;
     private String mDeviceRSSI;
+    private String mReplayFile;
+    private float mReplaySpeed;
 
     private BleWrapper mBleWrapper;
     
@@ -62,6 +82,25 @@ public class PeripheralActivity extends Activity implements BleWrapperUiCallback
     private ServicesListAdapter mServicesListAdapter = null;
     private CharacteristicsListAdapter mCharacteristicsListAdapter = null; 
     private CharacteristicDetailsAdapter mCharDetailsAdapter = null;  
+
+    // draws ECG Wave once per display frame, see uiNewValueForCharacteristic
+    private EcgFrameRenderer mEcgRenderer = null;
+
+    // debug overlay with everything in mBleWrapper.getMetrics(), see the Show Metrics menu item
+    private TextView mMetricsView;
+    private boolean mShowMetrics = false;
+    private Handler mHandler = new Handler();
+    private long mLastMetricsNanos = 0;
+    private long mLastMetricsNotifications = 0;
+    private long mLastMetricsPackets = 0;
+    private long mLastMetricsSamples = 0;
+    private final Runnable mRefreshMetrics = new Runnable() {
+    	@Override
+    	public void run() {
+    		updateMetricsOverlay();
+    		mHandler.postDelayed(this, METRICS_REFRESH_INTERVAL);
+    	}
+    };
     
     public void uiDeviceConnected(final BluetoothGatt gatt,
 			                      final BluetoothDevice device)
@@ -85,6 +124,7 @@ public class PeripheralActivity extends Activity implements BleWrapperUiCallback
 				mServicesListAdapter.clearList();
 				mCharacteristicsListAdapter.clearList();
 				mCharDetailsAdapter.clearCharacteristic();
+				mEcgRenderer.stop();
 				
 				invalidateOptionsMenu();
 				
@@ -141,7 +181,7 @@ public class PeripheralActivity extends Activity implements BleWrapperUiCallback
 				mCharacteristicsListAdapter.clearList();
 		    	mListType = ListType.GATT_CHARACTERISTICS;
 		    	mListView.setAdapter(mCharacteristicsListAdapter);
-		    	mHeaderTitle.setText(BleNamesResolver.resolveServiceName(service.getUuid().toString().toLowerCase(Locale.getDefault())) + "\'s characteristics:");
+		    	mHeaderTitle.setText(BleNamesResolver.resolveServiceName(service.getUuid()) + "\'s characteristics:");
 		    	mHeaderBackButton.setVisibility(View.VISIBLE);
 		    	
 		    	for(BluetoothGattCharacteristic ch : chars) {
@@ -162,11 +202,15 @@ public class PeripheralActivity extends Activity implements BleWrapperUiCallback
 			public void run() {
 				mListType = ListType.GATT_CHARACTERISTIC_DETAILS;
 				mListView.setAdapter(mCharDetailsAdapter);
-		    	mHeaderTitle.setText(BleNamesResolver.resolveCharacteristicName(characteristic.getUuid().toString().toLowerCase(Locale.getDefault())) + "\'s details:");
+		    	mHeaderTitle.setText(BleNamesResolver.resolveCharacteristicName(characteristic.getUuid()) + "\'s details:");
 		    	mHeaderBackButton.setVisibility(View.VISIBLE);
 		    	
 		    	mCharDetailsAdapter.setCharacteristic(characteristic);
 		    	mCharDetailsAdapter.notifyDataSetChanged();
+
+		    	// ECG Wave is drawn by the frame renderer, everything else on new value
+		    	if(characteristic.getUuid().equals(BleDefinedUUIDs.Characteristic.ECG_WAVE)) mEcgRenderer.start();
+		    	else mEcgRenderer.stop();
 			}
     	});
     }
@@ -175,16 +219,21 @@ public class PeripheralActivity extends Activity implements BleWrapperUiCallback
 											final BluetoothDevice device,
 											final BluetoothGattService service,
 											final BluetoothGattCharacteristic characteristic,
-											final String strValue,
-											final int intValue,
-											final byte[] rawValue,
-											final String timestamp)
+											final CharacteristicValue value)
     {
     	if(mCharDetailsAdapter == null || mCharDetailsAdapter.getCharacteristic(0) == null) return;
+
+    	// ECG Wave comes in too fast to post a Runnable per packet. samples are already in the ring,
+    	// renderer only keeps latest value and picks everything up on the next display frame
+    	if(characteristic.getUuid().equals(BleDefinedUUIDs.Characteristic.ECG_WAVE)) {
+    		if(mEcgRenderer != null) mEcgRenderer.postValue(characteristic);
+    		return;
+    	}
+
     	runOnUiThread(new Runnable() {
 			@Override
 			public void run() {
-				mCharDetailsAdapter.newValueForCharacteristic(characteristic, strValue, intValue, rawValue, timestamp);
+				mCharDetailsAdapter.newValueForCharacteristic(characteristic, value);
 				mCharDetailsAdapter.notifyDataSetChanged();
 			}
     	});
@@ -224,6 +273,8 @@ public class PeripheralActivity extends Activity implements BleWrapperUiCallback
 								  final BluetoothGattService service,
 								  final BluetoothGattCharacteristic ch)
 	{
+		// this comes with every notification, only the first one needs to reach the UI
+		if(mCharDetailsAdapter != null && mCharDetailsAdapter.isNotificationEnabled()) return;
 		runOnUiThread(new Runnable() {
 			@Override
 			public void run() {
@@ -252,6 +303,7 @@ public class PeripheralActivity extends Activity implements BleWrapperUiCallback
 				if(mListType.equals(ListType.GATT_CHARACTERISTIC_DETAILS)) {
 					mBleWrapper.getCharacteristicsForService(mBleWrapper.getCachedService());
 					mCharDetailsAdapter.clearCharacteristic();
+					mEcgRenderer.stop();
 					return;
 				}
 			}
@@ -281,6 +333,9 @@ public class PeripheralActivity extends Activity implements BleWrapperUiCallback
         mDeviceName = intent.getStringExtra(EXTRAS_DEVICE_NAME);
         mDeviceAddress = intent.getStringExtra(EXTRAS_DEVICE_ADDRESS);
         mDeviceRSSI = intent.getIntExtra(EXTRAS_DEVICE_RSSI, 0) + " db";
+        mReplayFile = intent.getStringExtra(EXTRAS_REPLAY_FILE);
+        mReplaySpeed = intent.getFloatExtra(EXTRAS_REPLAY_SPEED, 1f);
+        if(mReplayFile != null && mDeviceName == null) mDeviceName = "Replay " + new File(mReplayFile).getName();
         mDeviceNameView.setText(mDeviceName);
         mDeviceAddressView.setText(mDeviceAddress);
         mDeviceRssiView.setText(mDeviceRSSI);
@@ -302,13 +357,22 @@ public class PeripheralActivity extends Activity implements BleWrapperUiCallback
 		if(mServicesListAdapter == null) mServicesListAdapter = new ServicesListAdapter(this);
 		if(mCharacteristicsListAdapter == null) mCharacteristicsListAdapter = new CharacteristicsListAdapter(this);
 		if(mCharDetailsAdapter == null) mCharDetailsAdapter = new CharacteristicDetailsAdapter(this, mBleWrapper);
+		if(mEcgRenderer == null) mEcgRenderer = new EcgFrameRenderer(mCharDetailsAdapter, mBleWrapper);
+		// dropped frames are counted against what the display really does, it can be 90 / 120Hz
+		mEcgRenderer.setRefreshRate(getWindowManager().getDefaultDisplay().getRefreshRate());
 		
 		mListView.setAdapter(mServicesListAdapter);
 		mListType = ListType.GATT_SERVICES;
 		mHeaderBackButton.setVisibility(View.INVISIBLE);
 		mHeaderTitle.setText("");
 		
+		if(mShowMetrics) mHandler.post(mRefreshMetrics);
+
 		// start automatically connecting to the device
+		if(mReplayFile != null) {
+			startReplay();
+			return;
+		}
     	mDeviceStatus.setText("connecting ...");
     	mBleWrapper.connect(mDeviceAddress);
 	};
@@ -320,7 +384,11 @@ public class PeripheralActivity extends Activity implements BleWrapperUiCallback
 		mServicesListAdapter.clearList();
 		mCharacteristicsListAdapter.clearList();
 		mCharDetailsAdapter.clearCharacteristic();
-		
+		mEcgRenderer.stop();
+		stopRecording();
+		mHandler.removeCallbacks(mRefreshMetrics);
+		// end of a (regression) run: adb logcat -s EcgMetrics
+		Log.i("EcgMetrics", mBleWrapper.getMetrics().dump());
 		
 		mBleWrapper.stopMonitoringRssiValue();
 		mBleWrapper.disconnect();
@@ -337,7 +405,12 @@ public class PeripheralActivity extends Activity implements BleWrapperUiCallback
 	    } else {
 	        menu.findItem(R.id.device_connect).setVisible(true);
 	        menu.findItem(R.id.device_disconnect).setVisible(false);
-	    }		
+	    }
+		boolean recording = mBleWrapper.getEcgPipeline().getRecorder() != null;
+		menu.findItem(R.id.device_record_start).setVisible(!recording);
+		menu.findItem(R.id.device_record_stop).setVisible(recording);
+		menu.findItem(R.id.device_metrics).setChecked(mShowMetrics);
+		menu.findItem(R.id.device_trace).setChecked(EcgTrace.isEnabled());
 		return true;
 	}
 
@@ -345,12 +418,50 @@ public class PeripheralActivity extends Activity implements BleWrapperUiCallback
     public boolean onOptionsItemSelected(MenuItem item) {
         switch(item.getItemId()) {
             case R.id.device_connect:
+            	if(mReplayFile != null) {
+            		startReplay();
+            		return true;
+            	}
             	mDeviceStatus.setText("connecting ...");
             	mBleWrapper.connect(mDeviceAddress);
                 return true;
             case R.id.device_disconnect:
             	mBleWrapper.disconnect();
                 return true;
+            case R.id.device_record_start:
+            	startRecording();
+            	invalidateOptionsMenu();
+                return true;
+            case R.id.device_record_stop:
+            	stopRecording();
+            	invalidateOptionsMenu();
+                return true;
+            case R.id.device_lttb:
+            	// min / max keeps every QRS at full height, LTTB looks smoother between beats
+            	mCharDetailsAdapter.setEcgDisplayMode(item.isChecked() ? EcgDecimator.MODE_MINMAX : EcgDecimator.MODE_LTTB);
+            	item.setChecked(mCharDetailsAdapter.getEcgDisplayMode() == EcgDecimator.MODE_LTTB);
+                return true;
+            case R.id.device_scroll:
+            	// sweep draws over the old trace like a monitor, scroll keeps the newest on the right
+            	mCharDetailsAdapter.setEcgStripMode(item.isChecked() ? EcgStripView.MODE_SWEEP : EcgStripView.MODE_SCROLL);
+            	item.setChecked(mCharDetailsAdapter.getEcgStripMode() == EcgStripView.MODE_SCROLL);
+                return true;
+            case R.id.device_metrics:
+            	setMetricsOverlay(!mShowMetrics);
+            	item.setChecked(mShowMetrics);
+                return true;
+            case R.id.device_metrics_dump:
+            	dumpMetrics();
+                return true;
+            case R.id.device_trace:
+            	// events go into a ring in memory, nothing is logged until Dump Trace
+            	if(EcgTrace.isEnabled()) EcgTrace.stop();
+            	else EcgTrace.start();
+            	item.setChecked(EcgTrace.isEnabled());
+                return true;
+            case R.id.device_trace_dump:
+            	dumpTrace();
+                return true;
             case android.R.id.home:
             	mBleWrapper.disconnect();
             	mBleWrapper.close();
@@ -360,13 +471,132 @@ public class PeripheralActivity extends Activity implements BleWrapperUiCallback
         return super.onOptionsItemSelected(item);
     }	
 
-    
+
+    // play mReplayFile back through BleWrapper, UI then goes through the same callbacks as with the sensor
+    private void startReplay() {
+    	try {
+    		EcgRecordingReader reader = new EcgRecordingReader(new File(mReplayFile));
+    		mDeviceAddress = reader.getDeviceAddress();
+    		mDeviceAddressView.setText(mDeviceAddress);
+    		mBleWrapper.startReplay(reader, mReplaySpeed);
+    		mDeviceStatus.setText("replaying at " + (mReplaySpeed > 0 ? mReplaySpeed + "x" : "max speed"));
+    	} catch (IOException e) {
+    		Toast.makeText(this, "Unable to replay " + mReplayFile + ": " + e.getMessage(), Toast.LENGTH_LONG).show();
+    	}
+    }
+
+    // start saving ECG Wave samples of this device into app's external files dir
+    private void startRecording() {
+    	if(mBleWrapper.getEcgPipeline().getRecorder() != null) return;
+
+    	File dir = getExternalFilesDir(RECORDINGS_DIR);
+    	if(dir == null) dir = new File(getFilesDir(), RECORDINGS_DIR);
+    	if(!dir.exists() && !dir.mkdirs()) {
+    		Toast.makeText(this, "Unable to create " + dir, Toast.LENGTH_LONG).show();
+    		return;
+    	}
+
+    	long now = System.currentTimeMillis();
+    	String name = "ecg_" + mDeviceAddress.replace(":", "") + "_"
+    			+ new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).format(new Date(now)) + RECORDING_EXTENSION;
+    	try {
+    		EcgPipeline pipeline = mBleWrapper.getEcgPipeline();
+    		EcgRecorder recorder = new EcgRecorder(new File(dir, name), mDeviceAddress,
+    				pipeline.getSampleRate(), now, SystemClock.elapsedRealtimeNanos());
+    		pipeline.setRecorder(recorder);
+    		Toast.makeText(this, "Recording to " + name, Toast.LENGTH_SHORT).show();
+    	} catch (IOException e) {
+    		Toast.makeText(this, "Unable to start recording: " + e.getMessage(), Toast.LENGTH_LONG).show();
+    	}
+    }
+
+    // stop saving samples and close the file
+    private void stopRecording() {
+    	EcgRecorder recorder = mBleWrapper.getEcgPipeline().setRecorder(null);
+    	if(recorder == null) return;
+
+    	recorder.close();
+    	if(recorder.getError() != null) {
+    		Toast.makeText(this, "Recording failed: " + recorder.getError().getMessage(), Toast.LENGTH_LONG).show();
+    	}
+    }
+
+    // show / hide the metrics overlay, refreshed every METRICS_REFRESH_INTERVAL while shown
+    private void setMetricsOverlay(boolean show) {
+    	mShowMetrics = show;
+    	mHandler.removeCallbacks(mRefreshMetrics);
+    	mMetricsView.setVisibility(show ? View.VISIBLE : View.GONE);
+    	if(show) {
+    		mLastMetricsNanos = 0;
+    		mHandler.post(mRefreshMetrics);
+    	}
+    }
+
+    // rates since the last refresh on top, then the full dump
+    private void updateMetricsOverlay() {
+    	final MetricsRegistry metrics = mBleWrapper.getMetrics();
+    	final long now = SystemClock.elapsedRealtimeNanos();
+    	final long notifications = metrics.counter("ble.notifications").get();
+    	final long packets = metrics.counter("ecg.packets").get();
+    	final long samples = metrics.counter("ecg.samples").get();
+
+    	String rates = "";
+    	if(mLastMetricsNanos != 0 && now > mLastMetricsNanos) {
+    		final float seconds = (now - mLastMetricsNanos) / 1e9f;
+    		rates = String.format(Locale.US, "%.1f notifications/s, %.1f packets/s, %.0f samples/s\n",
+    				(notifications - mLastMetricsNotifications) / seconds, (packets - mLastMetricsPackets) / seconds,
+    				(samples - mLastMetricsSamples) / seconds);
+    	}
+    	mLastMetricsNanos = now;
+    	mLastMetricsNotifications = notifications;
+    	mLastMetricsPackets = packets;
+    	mLastMetricsSamples = samples;
+    	mMetricsView.setText(rates + metrics.dump());
+    }
+
+    // write all metrics to the app's external files dir, for comparing runs
+    private void dumpMetrics() {
+    	File dir = getExternalFilesDir(METRICS_DIR);
+    	if(dir == null) dir = new File(getFilesDir(), METRICS_DIR);
+    	if(!dir.exists() && !dir.mkdirs()) {
+    		Toast.makeText(this, "Unable to create " + dir, Toast.LENGTH_LONG).show();
+    		return;
+    	}
+
+    	String name = "metrics_" + new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).format(new Date()) + ".txt";
+    	try {
+    		mBleWrapper.getMetrics().dump(new File(dir, name));
+    		Toast.makeText(this, "Metrics written to " + name, Toast.LENGTH_SHORT).show();
+    	} catch (IOException e) {
+    		Toast.makeText(this, "Unable to write metrics: " + e.getMessage(), Toast.LENGTH_LONG).show();
+    	}
+    }
+
+    // write the trace ring to the app's external files dir, read it with EcgTrace.printDump()
+    private void dumpTrace() {
+    	File dir = getExternalFilesDir(TRACE_DIR);
+    	if(dir == null) dir = new File(getFilesDir(), TRACE_DIR);
+    	if(!dir.exists() && !dir.mkdirs()) {
+    		Toast.makeText(this, "Unable to create " + dir, Toast.LENGTH_LONG).show();
+    		return;
+    	}
+
+    	String name = "trace_" + new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).format(new Date()) + ".bin";
+    	try {
+    		int count = EcgTrace.dump(new File(dir, name));
+    		Toast.makeText(this, count + " trace events written to " + name, Toast.LENGTH_SHORT).show();
+    	} catch (IOException e) {
+    		Toast.makeText(this, "Unable to write trace: " + e.getMessage(), Toast.LENGTH_LONG).show();
+    	}
+    }
+
     private void connectViewsVariables() {
     	mDeviceNameView = (TextView) findViewById(R.id.peripheral_name);
 		mDeviceAddressView = (TextView) findViewById(R.id.peripheral_address);
 		mDeviceRssiView = (TextView) findViewById(R.id.peripheral_rssi);
 		mDeviceStatus = (TextView) findViewById(R.id.peripheral_status);
 		mListView = (ListView) findViewById(R.id.listView);
+		mMetricsView = (TextView) findViewById(R.id.peripheral_metrics);
 		mHeaderTitle = (TextView) mListViewHeader.findViewById(R.id.peripheral_service_list_title);
 		mHeaderBackButton = (TextView) mListViewHeader.findViewById(R.id.peripheral_list_service_back);
     }
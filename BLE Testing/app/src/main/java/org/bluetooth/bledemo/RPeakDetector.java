@@ -0,0 +1,283 @@
+package org.bluetooth.bledemo;
+
+/******************************************************************************
+RPeakDetector finds R-peaks in the ECG Wave stream as samples come in, based on
+Pan J, Tompkins WJ. "A Real-Time QRS Detection Algorithm", IEEE Trans Biomed
+Eng 1985;32(3):230-236:
+  5-15Hz band-pass -> derivative -> square -> 150ms moving window integral
+  -> adaptive thresholds on the integral peaks (signal / noise levels)
+  -> 200ms refractory period and T-wave check within 360ms
+The R-peak itself is then located as the maximum of the input signal right
+before the integral peak. A beat is reported once the integral has been
+falling for DECISION_MS, which is 100-200ms after the R-peak depending on QRS
+width. The original search-back for missed beats is left out on purpose, it
+would report beats up to 1.66 RR intervals late.
+Work per sample is constant and nothing is allocated after construction.
+*******************************************************************************/
+
+import java.util.Arrays;
+
+public class RPeakDetector {
+	// gets told about every beat, called on the thread that feeds the samples
+	public interface BeatListener {
+		public void onBeat(long peakSampleIndex, long rrNanos, float heartRate);
+	}
+
+	private static final float BAND_LOW_HZ = 5.0f;
+	private static final float BAND_HIGH_HZ = 15.0f;
+	private static final int INTEGRATION_MS = 150;
+	private static final int DECISION_MS = 30;
+	private static final int REFRACTORY_MS = 200;
+	private static final int T_WAVE_MS = 360;
+	private static final int R_SEARCH_MS = 250;
+	private static final int LEARNING_MS = 2000;
+	// number of RR intervals averaged for getAverageHeartRate()
+	private static final int RR_AVERAGE_BEATS = 8;
+	private static final int BLOCK = 256;
+
+	private final float mSampleRate;
+	private final EcgFilter mBandPass;
+	private final int[] mBlock = new int[BLOCK];
+
+	private final int mIntegrationLen, mDecisionLen, mRefractoryLen, mTWaveLen, mRSearchLen, mLearningLen;
+
+	// derivative delay line (band-passed samples)
+	private int mBp1, mBp2, mBp3, mBp4;
+	// moving window integration of squared derivative
+	private final long[] mSquares;
+	private int mSquaresPos = 0;
+	private long mIntegralSum = 0;
+	private double mLastIntegral = 0;
+
+	// history of input samples to locate the R-peak in
+	private final int[] mHistory;
+	private final int mHistoryMask;
+
+	// peak tracking on integral
+	private boolean mTracking = false;
+	private double mPeakValue = 0;
+	private long mPeakIndex = 0;
+	private int mSlopeMax = 0;
+
+	// Pan-Tompkins running estimates
+	private double mSignalLevel = 0;
+	private double mNoiseLevel = 0;
+	private double mThreshold = 0;
+	private double mLearnMax = 0;
+	private double mLearnSum = 0;
+	private int mLastQrsSlope = 0;
+
+	private long mSampleIndex = 0;
+	private long mLastBeatIndex = -1;
+	private final long[] mRrHistory = new long[RR_AVERAGE_BEATS];
+	private int mRrCount = 0;
+	private long mRrSum = 0;
+
+	private BeatListener mListener = null;
+
+	// results, written by feeding thread, readable from anywhere
+	private volatile long mBeatCount = 0;
+	private volatile long mLastPeakIndex = -1;
+	private volatile long mLastRrNanos = 0;
+	private volatile float mHeartRate = 0;
+	private volatile float mAverageHeartRate = 0;
+	private volatile long mLastLatencySamples = 0;
+
+	public RPeakDetector(float sampleRate) {
+		mSampleRate = sampleRate;
+		mBandPass = new EcgFilter(sampleRate, 1);
+		mBandPass.setMainsFrequency(EcgFilter.MAINS_NONE);
+		mBandPass.setBandPass(BAND_LOW_HZ, BAND_HIGH_HZ);
+
+		mIntegrationLen = msToSamples(INTEGRATION_MS);
+		mDecisionLen = Math.max(1, msToSamples(DECISION_MS));
+		mRefractoryLen = msToSamples(REFRACTORY_MS);
+		mTWaveLen = msToSamples(T_WAVE_MS);
+		mRSearchLen = msToSamples(R_SEARCH_MS);
+		mLearningLen = msToSamples(LEARNING_MS);
+
+		mSquares = new long[mIntegrationLen];
+		// history has to reach back from the decision point over the whole R search window
+		int historyLen = Integer.highestOneBit(mRSearchLen + mDecisionLen + 1) << 1;
+		mHistory = new int[historyLen];
+		mHistoryMask = historyLen - 1;
+	}
+
+	public void setBeatListener(BeatListener listener) {
+		mListener = listener;
+	}
+
+	// index of the last R-peak, counted in samples from start of stream. -1 if none yet
+	public long getLastPeakIndex() { return mLastPeakIndex; }
+	public long getLastRrNanos() { return mLastRrNanos; }
+	// 60 / last RR interval, 0 until there are 2 beats
+	public float getHeartRate() { return mHeartRate; }
+	// 60 / mean of last RR_AVERAGE_BEATS intervals
+	public float getAverageHeartRate() { return mAverageHeartRate; }
+	public long getBeatCount() { return mBeatCount; }
+	// how many samples after the R-peak the last beat was reported
+	public long getLastLatencySamples() { return mLastLatencySamples; }
+
+	// feed len samples of block starting at offset. block is not modified
+	public void process(final int[] block, final int offset, final int len) {
+		int done = 0;
+		while(done < len) {
+			final int count = Math.min(BLOCK, len - done);
+			System.arraycopy(block, offset + done, mBlock, 0, count);
+			mBandPass.process(mBlock, 0, count, 0);
+			for(int i = 0; i < count; i++) {
+				processSample(block[offset + done + i], mBlock[i]);
+			}
+			done += count;
+		}
+	}
+
+	private void processSample(final int x, final int bp) {
+		final long n = mSampleIndex;
+		mHistory[(int)(n & mHistoryMask)] = x;
+
+		// 5 point derivative, then square
+		final int d = 2 * bp + mBp1 - mBp3 - 2 * mBp4;
+		mBp4 = mBp3; mBp3 = mBp2; mBp2 = mBp1; mBp1 = bp;
+		final long sq = (long)d * d;
+
+		// moving window integral
+		mIntegralSum += sq - mSquares[mSquaresPos];
+		mSquares[mSquaresPos] = sq;
+		if(++mSquaresPos == mIntegrationLen) mSquaresPos = 0;
+		final double integral = (double)mIntegralSum / mIntegrationLen;
+
+		final int slope = (d < 0) ? -d : d;
+		if(slope > mSlopeMax) mSlopeMax = slope;
+
+		mSampleIndex = n + 1;
+
+		// learning phase: just collect levels for initial thresholds
+		if(n < mLearningLen) {
+			if(integral > mLearnMax) mLearnMax = integral;
+			mLearnSum += integral;
+			if(n == mLearningLen - 1) {
+				mSignalLevel = mLearnMax / 3;
+				mNoiseLevel = mLearnSum / mLearningLen / 2;
+				mThreshold = mNoiseLevel + 0.25 * (mSignalLevel - mNoiseLevel);
+			}
+			mLastIntegral = integral;
+			return;
+		}
+
+		// find local maxima of the integral
+		if(!mTracking) {
+			// wait for integral to start rising again
+			if(integral > mLastIntegral) {
+				mTracking = true;
+				mPeakValue = integral;
+				mPeakIndex = n;
+			}
+		}
+		else if(integral > mPeakValue) {
+			mPeakValue = integral;
+			mPeakIndex = n;
+		}
+		else if(n - mPeakIndex >= mDecisionLen) {
+			// integral has been falling long enough, decide what that peak was
+			classifyPeak(mPeakValue, mPeakIndex, n);
+			mTracking = false;
+			mSlopeMax = 0;
+		}
+		mLastIntegral = integral;
+	}
+
+	private void classifyPeak(final double peak, final long peakIndex, final long now) {
+		boolean qrs = false;
+		long rIndex = -1;
+		if(peak > mThreshold) {
+			rIndex = locateR(peakIndex, now);
+			final long sinceLast = (mLastBeatIndex < 0) ? Long.MAX_VALUE : rIndex - mLastBeatIndex;
+			if(sinceLast > mRefractoryLen) {
+				// close to last beat, and much flatter than it: most likely a T-wave
+				qrs = !(sinceLast < mTWaveLen && mSlopeMax < mLastQrsSlope / 2);
+			}
+		}
+
+		if(qrs) {
+			mSignalLevel = 0.125 * peak + 0.875 * mSignalLevel;
+			mLastQrsSlope = mSlopeMax;
+			onBeat(rIndex, now);
+		}
+		else {
+			mNoiseLevel = 0.125 * peak + 0.875 * mNoiseLevel;
+		}
+		mThreshold = mNoiseLevel + 0.25 * (mSignalLevel - mNoiseLevel);
+	}
+
+	// R-peak is the highest input sample in the window ending at the integral peak
+	private long locateR(final long peakIndex, final long now) {
+		final long from = Math.max(Math.max(0, peakIndex - mRSearchLen), now - mHistory.length + 1);
+		long best = peakIndex;
+		int bestValue = Integer.MIN_VALUE;
+		for(long i = from; i <= peakIndex; i++) {
+			final int v = mHistory[(int)(i & mHistoryMask)];
+			if(v > bestValue) {
+				bestValue = v;
+				best = i;
+			}
+		}
+		return best;
+	}
+
+	private void onBeat(final long rIndex, final long now) {
+		long rrNanos = 0;
+		float hr = 0;
+		if(mLastBeatIndex >= 0) {
+			final long rr = rIndex - mLastBeatIndex;
+			rrNanos = (long)(rr * 1e9 / mSampleRate);
+			hr = (float)(60.0 * mSampleRate / rr);
+
+			// running mean of last RR intervals
+			final int slot = mRrCount % RR_AVERAGE_BEATS;
+			if(mRrCount >= RR_AVERAGE_BEATS) mRrSum -= mRrHistory[slot];
+			mRrHistory[slot] = rr;
+			mRrSum += rr;
+			mRrCount++;
+			final int beats = Math.min(mRrCount, RR_AVERAGE_BEATS);
+			mAverageHeartRate = (float)(60.0 * mSampleRate * beats / mRrSum);
+			mHeartRate = hr;
+			mLastRrNanos = rrNanos;
+		}
+		mLastBeatIndex = rIndex;
+		mLastPeakIndex = rIndex;
+		mLastLatencySamples = now - rIndex;
+		mBeatCount++;
+
+		if(mListener != null) mListener.onBeat(rIndex, rrNanos, hr);
+	}
+
+	// start over, e.g. for a new connection
+	public void reset() {
+		mBandPass.reset();
+		mBp1 = mBp2 = mBp3 = mBp4 = 0;
+		Arrays.fill(mSquares, 0);
+		mSquaresPos = 0;
+		mIntegralSum = 0;
+		mLastIntegral = 0;
+		mTracking = false;
+		mSlopeMax = 0;
+		mSignalLevel = mNoiseLevel = mThreshold = 0;
+		mLearnMax = mLearnSum = 0;
+		mLastQrsSlope = 0;
+		mSampleIndex = 0;
+		mLastBeatIndex = -1;
+		mRrCount = 0;
+		mRrSum = 0;
+		mBeatCount = 0;
+		mLastPeakIndex = -1;
+		mLastRrNanos = 0;
+		mHeartRate = 0;
+		mAverageHeartRate = 0;
+		mLastLatencySamples = 0;
+	}
+
+	private int msToSamples(int ms) {
+		return Math.round(ms * mSampleRate / 1000);
+	}
+}
@@ -0,0 +1,114 @@
+package org.bluetooth.bledemo;
+
+/******************************************************************************
+SampleRingBuffer is a bounded lock-free ring of int samples with exactly one
+producer (the GATT callback thread) and one consumer (UI or analysis stage).
+Samples are copied in and out in blocks, nothing is allocated after the ring
+is created. When the consumer falls behind, new samples that do not fit are
+dropped and counted as overruns instead of blocking the producer.
+*******************************************************************************/
+
+import java.util.concurrent.atomic.AtomicLong;
+
+public class SampleRingBuffer {
+	private final int[] mBuffer;
+	private final int mMask;
+
+	// total number of samples ever written / read. index into buffer is (seq & mMask)
+	// lazySet is enough here, each sequence only has a single writer
+	private final AtomicLong mWriteSeq = new AtomicLong(0);
+	private final AtomicLong mReadSeq = new AtomicLong(0);
+
+	// producer side only: last read sequence seen, saves a volatile read on most writes
+	private long mReadSeqCache = 0;
+
+	// written by producer only
+	private volatile long mOverrunCount = 0;
+	// written by consumer only. the ring only fills up between drains, so what is
+	// waiting when a drain starts is the peak since the last one
+	private volatile int mHighWaterMark = 0;
+
+	// capacity is rounded up to the next power of 2 so we can mask instead of modulo
+	public SampleRingBuffer(int capacity) {
+		if(capacity < 2) capacity = 2;
+		int size = Integer.highestOneBit(capacity - 1) << 1;
+		mBuffer = new int[size];
+		mMask = size - 1;
+	}
+
+	public int capacity() {
+		return mBuffer.length;
+	}
+
+	// number of samples waiting to be drained, safe to call from either side
+	public int size() {
+		return (int)(mWriteSeq.get() - mReadSeq.get());
+	}
+
+	// PRODUCER ONLY
+	// copy len samples from src[offset] into the ring. returns number of samples accepted,
+	// anything that did not fit is counted in getOverrunCount()
+	public int write(final int[] src, final int offset, final int len) {
+		final long writeSeq = mWriteSeq.get();
+		int free = mBuffer.length - (int)(writeSeq - mReadSeqCache);
+		if(free < len) {
+			// looks full with our old copy, check where consumer really is
+			mReadSeqCache = mReadSeq.get();
+			free = mBuffer.length - (int)(writeSeq - mReadSeqCache);
+		}
+
+		final int count = (len < free) ? len : free;
+		if(count < len) mOverrunCount += len - count;
+		if(count == 0) return 0;
+
+		// copy in at most two parts, wrapping around the end of the array
+		final int start = (int)(writeSeq & mMask);
+		final int first = Math.min(count, mBuffer.length - start);
+		System.arraycopy(src, offset, mBuffer, start, first);
+		if(first < count) System.arraycopy(src, offset + first, mBuffer, 0, count - first);
+
+		// publish samples to consumer
+		mWriteSeq.lazySet(writeSeq + count);
+		return count;
+	}
+
+	// CONSUMER ONLY
+	// copy up to max samples into dst[offset], returns number of samples copied
+	public int drain(final int[] dst, final int offset, final int max) {
+		final long readSeq = mReadSeq.get();
+		final int available = (int)(mWriteSeq.get() - readSeq);
+		if(available > mHighWaterMark) mHighWaterMark = available;
+		final int count = (available < max) ? available : max;
+		if(count <= 0) return 0;
+
+		final int start = (int)(readSeq & mMask);
+		final int first = Math.min(count, mBuffer.length - start);
+		System.arraycopy(mBuffer, start, dst, offset, first);
+		if(first < count) System.arraycopy(mBuffer, 0, dst, offset + first, count - first);
+
+		// hand the space back to the producer
+		mReadSeq.lazySet(readSeq + count);
+		return count;
+	}
+
+	// CONSUMER ONLY
+	// throw away everything that was not drained yet
+	public void clear() {
+		mReadSeq.lazySet(mWriteSeq.get());
+	}
+
+	// samples dropped because the ring was full
+	public long getOverrunCount() {
+		return mOverrunCount;
+	}
+
+	// maximum number of samples that were waiting in the ring at once
+	public int getHighWaterMark() {
+		return mHighWaterMark;
+	}
+
+	// total samples accepted from the producer
+	public long getWrittenCount() {
+		return mWriteSeq.get();
+	}
+}
@@ -22,6 +22,7 @@ import android.app.Activity;
 import android.app.ListActivity;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
+import android.bluetooth.le.ScanSettings;
 import android.content.Intent;
 import android.view.Menu;
 import android.view.MenuItem;
@@ -33,10 +34,16 @@ public class ScanningActivity extends ListActivity {
 	
 	private static final long SCANNING_TIMEOUT = 5 * 1000; /* 5 seconds */
 	private static final int ENABLE_BT_REQUEST_ID = 1;
+	// in low power mode results are collected by the controller and delivered once a second
+	private static final long SCAN_REPORT_DELAY = 1000;
+	// list is redrawn at most this often however many advertisements come in
+	private static final long LIST_REFRESH_INTERVAL = 250;
+	// devices not heard from for this long disappear from the list while scanning
+	private static final long DEVICE_STALE_TIMEOUT = 10 * 1000;
 	
 	private boolean mScanning = false;
 	private Handler mHandler = new Handler();
-	private DeviceListAdapter mDevicesListAdapter = null;
+	private volatile DeviceListAdapter mDevicesListAdapter = null;
 	private BleWrapper mBleWrapper = null;
 
     @Override
@@ -51,6 +58,8 @@ public class ScanningActivity extends ListActivity {
         	}
         });
         
+        applyScanSettings(false, true);
+
         // check if we have BT and BLE on board
         if(mBleWrapper.checkBleHardwareAvailable() == false) {
         	bleMissing();
@@ -76,10 +85,9 @@ public class ScanningActivity extends ListActivity {
         setListAdapter(mDevicesListAdapter);
     	
         // Automatically start scanning for devices
-    	mScanning = true;
 		// remember to add timeout for scanning to not run it forever and drain the battery
 		addScanningTimeout();    	
-		mBleWrapper.startScanning();
+		startScan();
 		
         invalidateOptionsMenu();
     };
@@ -91,6 +99,7 @@ public class ScanningActivity extends ListActivity {
     	mBleWrapper.stopScanning();
     	invalidateOptionsMenu();
     	
+    	mHandler.removeCallbacks(mRefreshList);
     	mDevicesListAdapter.clearList();
     };
     
@@ -110,6 +119,8 @@ public class ScanningActivity extends ListActivity {
             menu.findItem(R.id.scanning_stop).setVisible(false);
             menu.findItem(R.id.scanning_indicator).setActionView(null);
         }
+        menu.findItem(R.id.scanning_low_latency).setChecked(mBleWrapper.getScanMode() == ScanSettings.SCAN_MODE_LOW_LATENCY);
+        menu.findItem(R.id.scanning_ecg_only).setChecked(mBleWrapper.isScanEcgOnly());
         return true;
     }
 
@@ -117,12 +128,19 @@ public class ScanningActivity extends ListActivity {
     public boolean onOptionsItemSelected(MenuItem item) {
         switch (item.getItemId()) {
             case R.id.scanning_start:
-            	mScanning = true;
-            	mBleWrapper.startScanning();
+            	startScan();
                 break;
             case R.id.scanning_stop:
-            	mScanning = false;
-            	mBleWrapper.stopScanning();
+            	stopScan();
+                break;
+            case R.id.scanning_low_latency:
+            	applyScanSettings(!item.isChecked(), mBleWrapper.isScanEcgOnly());
+                break;
+            case R.id.scanning_ecg_only:
+            	applyScanSettings(mBleWrapper.getScanMode() == ScanSettings.SCAN_MODE_LOW_LATENCY, !item.isChecked());
+                break;
+            case R.id.scanning_monitor_all:
+            	monitorAllDevices();
                 break;
         }
         
@@ -144,14 +162,41 @@ public class ScanningActivity extends ListActivity {
         intent.putExtra(PeripheralActivity.EXTRAS_DEVICE_RSSI, mDevicesListAdapter.getRssi(position));
         
         if (mScanning) {
-            mScanning = false;
+            stopScan();
             invalidateOptionsMenu();
-            mBleWrapper.stopScanning();
         }
 
         startActivity(intent);
     }    
     
+    /* low latency finds devices fastest, low power batches results to save battery and wake-ups.
+     * a running scan is restarted with the new settings */
+    private void applyScanSettings(boolean lowLatency, boolean ecgOnly) {
+        mBleWrapper.setScanMode(lowLatency ? ScanSettings.SCAN_MODE_LOW_LATENCY : ScanSettings.SCAN_MODE_LOW_POWER);
+        mBleWrapper.setScanReportDelay(lowLatency ? 0 : SCAN_REPORT_DELAY);
+        mBleWrapper.setScanEcgOnly(ecgOnly);
+        if (mScanning) {
+            mBleWrapper.stopScanning();
+            mBleWrapper.startScanning();
+        }
+    }
+
+    /* stream from every device found so far at the same time */
+    private void monitorAllDevices() {
+        if (mDevicesListAdapter.getCount() == 0) {
+        	Toast.makeText(this, "No devices found yet", Toast.LENGTH_SHORT).show();
+        	return;
+        }
+        String[] addresses = new String[mDevicesListAdapter.getCount()];
+        for (int i = 0; i < addresses.length; i++) addresses[i] = mDevicesListAdapter.getDevice(i).getAddress();
+
+        if (mScanning) stopScan();
+
+        final Intent intent = new Intent(this, SessionsActivity.class);
+        intent.putExtra(SessionsActivity.EXTRAS_DEVICE_ADDRESSES, addresses);
+        startActivity(intent);
+    }
+
     /* check if user agreed to enable BT */
     @Override
     protected void onActivityResult(int requestCode, int resultCode, Intent data) {
@@ -171,29 +216,52 @@ public class ScanningActivity extends ListActivity {
 		Runnable timeout = new Runnable() {
             @Override
             public void run() {
-            	if(mBleWrapper == null) return;
-                mScanning = false;
-                mBleWrapper.stopScanning();
+            	if(mBleWrapper == null || !mScanning) return;
+                stopScan();
                 invalidateOptionsMenu();
             }
         };
         mHandler.postDelayed(timeout, SCANNING_TIMEOUT);
 	}    
 
+	/* scan and refresh the list every LIST_REFRESH_INTERVAL while scanning */
+	private void startScan() {
+		mScanning = true;
+		mBleWrapper.startScanning();
+		mHandler.removeCallbacks(mRefreshList);
+		mHandler.postDelayed(mRefreshList, LIST_REFRESH_INTERVAL);
+	}
+
+	/* stopping hands over the batched results, the list is refreshed once more for them
+	 * and then stays as it is until the next scan */
+	private void stopScan() {
+		mScanning = false;
+		mBleWrapper.stopScanning();
+		mHandler.removeCallbacks(mRefreshList);
+		mHandler.postDelayed(mRefreshList, LIST_REFRESH_INTERVAL);
+	}
+
 	/* add device to the current list of devices */
     private void handleFoundDevice(final BluetoothDevice device,
             final int rssi,
             final byte[] scanRecord)
 	{
-		// adding to the UI have to happen in UI thread
-		runOnUiThread(new Runnable() {
-			@Override
-			public void run() {
-				mDevicesListAdapter.addDevice(device, rssi, scanRecord);
-				mDevicesListAdapter.notifyDataSetChanged();
-			}
-		});
-	}	
+		// only noted here, mRefreshList puts it on screen with everything else found in the meantime
+		DeviceListAdapter adapter = mDevicesListAdapter;
+		if(adapter != null) adapter.offerDevice(device, rssi, scanRecord);
+	}
+
+	/* fixed rate list refresh while scanning, plus one run after the scan stopped */
+	private final Runnable mRefreshList = new Runnable() {
+		@Override
+		public void run() {
+			boolean changed = mDevicesListAdapter.applyPending();
+			// when not scanning, nothing gets refreshed so keep what is there
+			if(mScanning) changed |= mDevicesListAdapter.evictStale(DEVICE_STALE_TIMEOUT);
+			if(changed) mDevicesListAdapter.notifyDataSetChanged();
+			if(mScanning) mHandler.postDelayed(this, LIST_REFRESH_INTERVAL);
+		}
+	};
 
     private void btDisabled() {
     	Toast.makeText(this, "Sorry, BT has to be turned ON for us to work!", Toast.LENGTH_LONG).show();
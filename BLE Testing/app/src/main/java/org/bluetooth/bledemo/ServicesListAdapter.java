@@ -17,7 +17,6 @@ More important comments are above each method in the code.
 *******************************************************************************/
 
 import java.util.ArrayList;
-import java.util.Locale;
 
 import android.app.Activity;
 import android.bluetooth.BluetoothGattService;
@@ -84,12 +83,11 @@ public class ServicesListAdapter extends BaseAdapter {
 		
         // set proper values into the view
         BluetoothGattService service = mBTServices.get(position);
-        String uuid = service.getUuid().toString().toLowerCase(Locale.getDefault());
-        String name = BleNamesResolver.resolveServiceName(uuid);
+        String name = BleNamesResolver.resolveServiceName(service.getUuid());
         String type = (service.getType() == BluetoothGattService.SERVICE_TYPE_PRIMARY) ? "Primary" : "Secondary";
         
         fields.serviceName.setText(name);
-        fields.serviceUuid.setText(uuid);
+        fields.serviceUuid.setText(service.getUuid().toString());
         fields.serviceType.setText(type);
 
 		return convertView;
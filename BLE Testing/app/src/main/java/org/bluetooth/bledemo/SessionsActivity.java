@@ -0,0 +1,116 @@
+package org.bluetooth.bledemo;
+
+/******************************************************************************
+SessionsActivity streams from several ECG patches at once (see EcgSessionManager)
+and lists every one of them with its state, throughput and heart rate. The
+title shows the totals and how many streams keep up with 500Hz.
+*******************************************************************************/
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import android.app.ListActivity;
+import android.os.Bundle;
+import android.os.Handler;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
+
+public class SessionsActivity extends ListActivity {
+	public static final String EXTRAS_DEVICE_ADDRESSES = "BLE_DEVICE_ADDRESSES";
+
+	// how often rates and the list are refreshed
+	private static final long REFRESH_INTERVAL = 1000;
+
+	private String[] mAddresses;
+	private EcgSessionManager mSessionManager;
+	private SessionListAdapter mAdapter;
+	private Handler mHandler = new Handler();
+
+	private final Runnable mRefresh = new Runnable() {
+		@Override
+		public void run() {
+			mSessionManager.updateThroughput();
+			mAdapter.setSessions(mSessionManager.getSessions());
+			setTitle(String.format(Locale.US, "%d/%d streams at %d Hz, %.0f samples/s, %.1f kB/s",
+					mSessionManager.getSustainedCount(), mSessionManager.size(), EcgPipeline.NOMINAL_SAMPLE_RATE,
+					mSessionManager.getTotalSampleRate(), mSessionManager.getTotalByteRate() / 1000f));
+			mHandler.postDelayed(this, REFRESH_INTERVAL);
+		}
+	};
+
+	@Override
+	protected void onCreate(Bundle savedInstanceState) {
+		super.onCreate(savedInstanceState);
+		mAddresses = getIntent().getStringArrayExtra(EXTRAS_DEVICE_ADDRESSES);
+		if(mAddresses == null) mAddresses = new String[0];
+		mSessionManager = new EcgSessionManager(this);
+		mAdapter = new SessionListAdapter(getLayoutInflater());
+		setListAdapter(mAdapter);
+	}
+
+	@Override
+	protected void onResume() {
+		super.onResume();
+		// callbacks are not needed here, everything shown is polled from the sessions
+		for(String address : mAddresses) mSessionManager.open(address, null);
+		mHandler.post(mRefresh);
+	}
+
+	@Override
+	protected void onPause() {
+		super.onPause();
+		mHandler.removeCallbacks(mRefresh);
+		mSessionManager.closeAll();
+	}
+
+	// one two line row per session
+	private static class SessionListAdapter extends BaseAdapter {
+		private final LayoutInflater mInflater;
+		private List<EcgSession> mSessions = new ArrayList<EcgSession>();
+
+		SessionListAdapter(LayoutInflater inflater) {
+			mInflater = inflater;
+		}
+
+		void setSessions(List<EcgSession> sessions) {
+			mSessions = sessions;
+			notifyDataSetChanged();
+		}
+
+		@Override
+		public int getCount() {
+			return mSessions.size();
+		}
+
+		@Override
+		public Object getItem(int position) {
+			return mSessions.get(position);
+		}
+
+		@Override
+		public long getItemId(int position) {
+			return position;
+		}
+
+		@Override
+		public View getView(int position, View convertView, ViewGroup parent) {
+			if(convertView == null) convertView = mInflater.inflate(android.R.layout.simple_list_item_2, parent, false);
+			TextView title = (TextView) convertView.findViewById(android.R.id.text1);
+			TextView details = (TextView) convertView.findViewById(android.R.id.text2);
+
+			EcgSession session = mSessions.get(position);
+			RPeakDetector detector = session.getPipeline().getDetector();
+			title.setText(session.getAddress() + "  " + session.getStateName() + (session.isSustained() ? "" : " *"));
+			details.setText(String.format(Locale.US, "%.0f samples/s, %.1f packets/s, MTU %d, HR %.0f bpm, dropped %d, lost %.2f%%, drift %+.0f ppm",
+					session.getSampleRate(), session.getPacketRate(), session.getBleWrapper().getMtu(),
+					detector.getHeartRate(), session.getPipeline().getSamples().getOverrunCount(),
+					session.getPipeline().getGaps().getLossRate() * 100,
+					session.getPipeline().getTimebase().getDriftPpb() / 1000f));
+			return convertView;
+		}
+	}
+}
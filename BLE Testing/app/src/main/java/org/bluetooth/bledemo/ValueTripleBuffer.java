@@ -0,0 +1,46 @@
+package org.bluetooth.bledemo;
+
+/******************************************************************************
+Hands the latest ECG Wave CharacteristicValue from the GATT thread to the UI
+without allocating one per notification. Three values take turns: the
+writer fills its own one and publish() swaps it with the shared latest one,
+the reader's acquire() swaps the latest one with its own. Writer and reader
+each own one value at any time, so the writer never touches what the UI is
+still showing, and a value the UI never picked up is simply written over.
+One writer thread (GATT callback / replay) and one reader thread (UI).
+*******************************************************************************/
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ValueTripleBuffer {
+	// set in mLatest when it holds a value the reader has not taken yet
+	private static final int FRESH = 4;
+	private static final int INDEX_MASK = 3;
+
+	private final CharacteristicValue[] mValues = {
+			new CharacteristicValue(), new CharacteristicValue(), new CharacteristicValue() };
+	// index of the shared value, plus FRESH
+	private final AtomicInteger mLatest = new AtomicInteger(1);
+	// writer thread only
+	private int mWrite = 0;
+	// reader thread only
+	private int mRead = 2;
+
+	// value the writer fills, see CharacteristicValue.set(). Writer thread only
+	public CharacteristicValue getWriteValue() {
+		return mValues[mWrite];
+	}
+
+	// make the filled value the latest one, the writer gets another value to fill. Writer thread only
+	public void publish() {
+		mWrite = mLatest.getAndSet(mWrite | FRESH) & INDEX_MASK;
+	}
+
+	// newest published value, null if nothing was published since the last call
+	// it stays unchanged until the next acquire(). Reader thread only
+	public CharacteristicValue acquire() {
+		if((mLatest.get() & FRESH) == 0) return null;
+		mRead = mLatest.getAndSet(mRead) & INDEX_MASK;
+		return mValues[mRead];
+	}
+}
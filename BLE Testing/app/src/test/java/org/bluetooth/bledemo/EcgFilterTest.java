@@ -0,0 +1,93 @@
+package org.bluetooth.bledemo;
+
+/******************************************************************************
+Frequency response of EcgFilter, measured by running sine waves through it:
+-3dB at the band edges, flat in between, mains removed by the notch, and
+stable defaults at sample rates too low for the 40Hz / 50Hz defaults.
+*******************************************************************************/
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class EcgFilterTest {
+	private static final int RATE = 500;
+	private static final int AMPLITUDE = 10000;
+
+	// peak output / peak input for a sine at hz, once the filter settled
+	private static double gain(EcgFilter filter, double hz) {
+		final float rate = filter.getSampleRate();
+		final int settle = (int)(rate * Math.max(20, 10 / hz));
+		final int measure = (int)(rate * Math.max(2, 4 / hz));
+		final int[] block = new int[settle + measure];
+		for(int i = 0; i < block.length; i++) block[i] = (int)Math.round(AMPLITUDE * Math.sin(2 * Math.PI * hz * i / rate));
+		filter.process(block, 0, block.length, 0);
+		int peak = 0;
+		for(int i = settle; i < block.length; i++) peak = Math.max(peak, Math.abs(block[i]));
+		return (double)peak / AMPLITUDE;
+	}
+
+	@Test
+	public void passBandIsFlat() {
+		for(double hz : new double[] { 2, 5, 10, 20 }) {
+			assertEquals(hz + "Hz", 1.0, gain(new EcgFilter(RATE, 1), hz), 0.05);
+		}
+	}
+
+	@Test
+	public void bandEdgesAreMinus3dB() {
+		assertEquals(Math.sqrt(0.5), gain(new EcgFilter(RATE, 1), EcgFilter.DEFAULT_LOW_CUT_HZ), 0.05);
+		assertEquals(Math.sqrt(0.5), gain(new EcgFilter(RATE, 1), EcgFilter.DEFAULT_HIGH_CUT_HZ), 0.05);
+	}
+
+	@Test
+	public void notchRemovesMains() {
+		final EcgFilter filter = new EcgFilter(RATE, 1);
+		filter.setMainsFrequency(EcgFilter.MAINS_60HZ);
+		assertTrue(gain(filter, 60) < 0.01);
+		assertTrue(gain(new EcgFilter(RATE, 1), 50) < 0.01);
+	}
+
+	@Test
+	public void disabledPassesThrough() {
+		final EcgFilter filter = new EcgFilter(RATE, 1);
+		filter.setEnabled(false);
+		assertEquals(1.0, gain(filter, 0.1), 0.001);
+	}
+
+	@Test
+	public void channelsKeepTheirOwnState() {
+		final EcgFilter filter = new EcgFilter(RATE, 2);
+		final int[] a = new int[RATE];
+		final int[] b = new int[RATE];
+		for(int i = 0; i < RATE; i++) a[i] = b[i] = (int)Math.round(AMPLITUDE * Math.sin(2 * Math.PI * 10 * i / RATE));
+		// interleave the blocks, each channel has to come out as if it was alone
+		for(int i = 0; i < RATE; i += 10) {
+			filter.process(a, i, 10, 0);
+			filter.process(b, i, 10, 1);
+		}
+		for(int i = 0; i < RATE; i++) assertEquals(a[i], b[i]);
+	}
+
+	@Test
+	public void defaultsFitLowSampleRates() {
+		for(int rate : new int[] { 50, 80, 100, 125 }) {
+			final EcgFilter filter = new EcgFilter(rate, 1);
+			assertTrue(rate + "Hz: high cut " + filter.getHighCutHz(), filter.getHighCutHz() < rate / 2f);
+			assertTrue(rate + "Hz: mains " + filter.getMainsHz(), filter.getMainsHz() < rate / 2f);
+			// stable: a pass band tone neither grows nor dies out
+			assertEquals(rate + "Hz", 1.0, gain(filter, 5), 0.05);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void mainsAboveNyquistIsRejected() {
+		new EcgFilter(100, 1).setMainsFrequency(EcgFilter.MAINS_50HZ);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void bandAboveNyquistIsRejected() {
+		new EcgFilter(RATE, 1).setBandPass(0.5f, RATE / 2);
+	}
+}
@@ -0,0 +1,170 @@
+package org.bluetooth.bledemo;
+
+/******************************************************************************
+Lost packets through EcgPipeline: found exactly from the packet counter,
+found from timing alone without mistaking a stall for loss, filled so the
+live sample index stays on the sensor's timeline, kept on that timeline by
+recordings, and forgotten by reset() when a new connection comes up.
+*******************************************************************************/
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class EcgPipelineTest {
+	private static final int RATE = 500;
+	private static final long PACKET_NANOS = EcgPacketDecoder.SAMPLES_PER_PACKET * 1000000000L / RATE;
+	private static final long START_NANOS = 1000000000000L;
+	private static final long LATENCY_NANOS = 10000000L;
+
+	private final int[] mDrain = new int[1024];
+
+	// samples the UI would have drawn
+	private long drain(EcgPipeline pipeline) {
+		long drained = 0;
+		int n;
+		while((n = pipeline.getSamples().drain(mDrain, 0, mDrain.length)) > 0) drained += n;
+		return drained;
+	}
+
+	@Test
+	public void counterFindsEveryGap() {
+		final EcgPipeline pipeline = new EcgPipeline(RATE);
+		pipeline.getDecoder().setSequenceCounter(true);
+		final EcgSimulator simulator = new EcgSimulator(RATE, 1);
+		simulator.setSequenceCounter(true);
+		simulator.setPacketLoss(0.02f);
+		final byte[] packet = new byte[simulator.getPacketSize()];
+
+		long gaps = 0;
+		long drained = 0;
+		long sent = 0;
+		boolean lostLast = false;
+		for(long p = 0; p < 10 * 60 * RATE / EcgPacketDecoder.SAMPLES_PER_PACKET; p++) {
+			if(!simulator.nextPacket(packet)) {
+				if(!lostLast) gaps++;
+				lostLast = true;
+				continue;
+			}
+			lostLast = false;
+			pipeline.onPacket(packet, START_NANOS + p * PACKET_NANOS + LATENCY_NANOS);
+			drained += drain(pipeline);
+			sent = simulator.getSampleIndex();
+		}
+		// the stream may end in a gap nobody can see yet
+		if(lostLast) gaps--;
+
+		final EcgGapDetector detector = pipeline.getGaps();
+		assertEquals(gaps, detector.getGapCount());
+		assertEquals(detector.getLostPackets() * EcgPacketDecoder.SAMPLES_PER_PACKET, detector.getLostSamples());
+		// filled samples put the live index where the sensor is
+		assertEquals(pipeline.getTimebase().getSampleCount(), drained);
+		assertEquals(detector.getReceivedSamples() + detector.getLostSamples(), drained);
+		assertEquals(detector.getLostSamples(), detector.getFilledSamples());
+		assertEquals(sent, pipeline.getTimebase().getSampleCount());
+	}
+
+	@Test
+	public void timingFindsGapsButNotStalls() {
+		final EcgPipeline pipeline = new EcgPipeline(RATE);
+		final EcgSimulator simulator = new EcgSimulator(RATE, 2);
+		final Random random = new Random(2);
+		final byte[] packet = new byte[simulator.getPacketSize()];
+		final int packetsPerSecond = RATE / EcgPacketDecoder.SAMPLES_PER_PACKET;
+		// every 10s: 20 packets (400ms) lost at 3s, a 300ms stall with a catch-up burst at 8s
+		final int lostPackets = 20;
+		final int stallPackets = 15;
+
+		int gaps = 0;
+		for(long p = 0; p < 10 * 60 * packetsPerSecond; p++) {
+			simulator.nextPacket(packet);
+			final long inCycle = p % (10 * packetsPerSecond);
+			if(p >= 10 * packetsPerSecond && inCycle >= 3 * packetsPerSecond && inCycle < 3 * packetsPerSecond + lostPackets) {
+				if(inCycle == 3 * packetsPerSecond) gaps++;
+				continue;
+			}
+			long arrival = START_NANOS + p * PACKET_NANOS + LATENCY_NANOS + (long)(random.nextDouble() * 10000000L);
+			if(inCycle >= 8 * packetsPerSecond && inCycle < 8 * packetsPerSecond + stallPackets) {
+				// held back until the stall is over, then sent back to back
+				final long stallEnd = START_NANOS + (p - inCycle + 8 * packetsPerSecond + stallPackets) * PACKET_NANOS;
+				arrival = stallEnd + LATENCY_NANOS + (inCycle - 8 * packetsPerSecond) * 100000L;
+			}
+			pipeline.onPacket(packet, arrival);
+			drain(pipeline);
+		}
+
+		final EcgGapDetector detector = pipeline.getGaps();
+		assertEquals(gaps, detector.getGapCount());
+		assertEquals(gaps * lostPackets, detector.getLostPackets());
+		assertEquals(simulator.getSampleIndex(), pipeline.getTimebase().getSampleCount());
+	}
+
+	@Test
+	public void resetForgetsTheLastConnection() {
+		final EcgPipeline pipeline = new EcgPipeline(RATE);
+		final byte[] packet = new byte[EcgPacketDecoder.PACKET_SIZE];
+		EcgSimulator simulator = new EcgSimulator(RATE, 3);
+		for(int p = 0; p < 30 * RATE / EcgPacketDecoder.SAMPLES_PER_PACKET; p++) {
+			simulator.nextPacket(packet);
+			pipeline.onPacket(packet, START_NANOS + p * PACKET_NANOS + LATENCY_NANOS);
+		}
+
+		// reconnect a minute later, the sensor starts a new stream
+		pipeline.reset();
+		assertEquals(0, pipeline.getTimebase().getSampleCount());
+		assertEquals(0, pipeline.getDetector().getBeatCount());
+		simulator = new EcgSimulator(RATE, 4);
+		final long start = START_NANOS + 90 * 1000000000L;
+		for(int p = 0; p < 30 * RATE / EcgPacketDecoder.SAMPLES_PER_PACKET; p++) {
+			simulator.nextPacket(packet);
+			pipeline.onPacket(packet, start + p * PACKET_NANOS + LATENCY_NANOS);
+		}
+
+		assertEquals(0, pipeline.getGaps().getGapCount());
+		assertEquals(0, pipeline.getGaps().getLostSamples());
+		assertEquals(simulator.getSampleIndex(), pipeline.getTimebase().getSampleCount());
+		assertEquals(0, pipeline.getTimebase().getDriftPpb(), 1000);
+	}
+
+	@Test
+	public void recordingStaysOnTheLiveTimeline() throws IOException {
+		final File file = File.createTempFile("pipeline", ".ecg");
+		try {
+			final EcgPipeline pipeline = new EcgPipeline(RATE);
+			pipeline.getDecoder().setSequenceCounter(true);
+			final EcgRecorder recorder = new EcgRecorder(file, null, RATE, 0, START_NANOS);
+			pipeline.setRecorder(recorder);
+			final EcgSimulator simulator = new EcgSimulator(RATE, 5);
+			simulator.setSequenceCounter(true);
+			simulator.setPacketLoss(0.01f);
+			final byte[] packet = new byte[simulator.getPacketSize()];
+			for(long p = 0; p < 60 * RATE / EcgPacketDecoder.SAMPLES_PER_PACKET; p++) {
+				if(simulator.nextPacket(packet)) pipeline.onPacket(packet, START_NANOS + p * PACKET_NANOS + LATENCY_NANOS);
+			}
+			pipeline.setRecorder(null).close();
+			assertNull(recorder.getError());
+
+			final EcgGapDetector gaps = pipeline.getGaps();
+			assertEquals(pipeline.getTimebase().getSampleCount(), recorder.getSampleIndex());
+			assertEquals(gaps.getReceivedSamples(), recorder.getSamplesWritten());
+
+			final EcgRecordingReader reader = new EcgRecordingReader(file);
+			try {
+				long lost = 0;
+				for(int c = 0; c < reader.getChunkCount(); c++) lost += reader.getChunkGapBefore(c);
+				final int last = reader.getChunkCount() - 1;
+				assertEquals(gaps.getLostSamples(), lost);
+				assertEquals(recorder.getSampleIndex(), reader.getChunkFirstIndex(last) + reader.getChunkSampleCount(last));
+			} finally {
+				reader.close();
+			}
+		} finally {
+			file.delete();
+		}
+	}
+}
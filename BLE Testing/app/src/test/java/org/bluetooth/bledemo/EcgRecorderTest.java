@@ -0,0 +1,135 @@
+package org.bluetooth.bledemo;
+
+/******************************************************************************
+EcgRecorder files read back with EcgRecordingReader: header fields, every
+sample in both encodings (also across mapped window boundaries), packet
+arrival times and chunk lookup by sample index.
+*******************************************************************************/
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class EcgRecorderTest {
+	private static final int RATE = 500;
+	private static final String ADDRESS = "12:34:56:78:9A:BC";
+	private static final long PACKET_NANOS = 20000000L;
+
+	private File mFile;
+
+	@Before
+	public void setUp() throws IOException {
+		mFile = File.createTempFile("recorder", ".ecg");
+	}
+
+	@After
+	public void tearDown() {
+		mFile.delete();
+	}
+
+	// record packets of samplesPerPacket simulated samples, returns what was recorded
+	private short[] record(short encoding, int samples, int samplesPerPacket) throws IOException {
+		final EcgRecorder recorder = new EcgRecorder(mFile, ADDRESS, RATE, 1234L, 5678L, encoding);
+		final EcgSimulator simulator = new EcgSimulator(RATE, 1);
+		final short[] recorded = new short[samples];
+		final int[] block = new int[samplesPerPacket];
+		for(int p = 0; p * samplesPerPacket < samples; p++) {
+			final int len = Math.min(samplesPerPacket, samples - p * samplesPerPacket);
+			for(int i = 0; i < len; i++) {
+				block[i] = simulator.nextSample();
+				recorded[p * samplesPerPacket + i] = (short)block[i];
+			}
+			recorder.append(block, 0, len, p * PACKET_NANOS);
+		}
+		recorder.close();
+		assertNull(recorder.getError());
+		assertEquals(samples, recorder.getSamplesWritten());
+		assertEquals(samples, recorder.getSampleIndex());
+		return recorded;
+	}
+
+	private static void assertSamples(EcgRecordingReader reader, short[] expected) throws IOException {
+		assertEquals(expected.length, reader.getSampleCount());
+		final short[] chunk = new short[EcgRecorder.CHUNK_SAMPLES];
+		int pos = 0;
+		for(int c = 0; c < reader.getChunkCount(); c++) {
+			assertEquals("chunk " + c, pos, reader.getChunkFirstIndex(c));
+			final int count = reader.readChunk(c, chunk);
+			assertEquals(reader.getChunkSampleCount(c), count);
+			for(int i = 0; i < count; i++) assertEquals("sample " + (pos + i), expected[pos + i], chunk[i]);
+			pos += count;
+		}
+		assertEquals(expected.length, pos);
+	}
+
+	@Test
+	public void headerRoundTrips() throws IOException {
+		record(EcgRecorder.ENCODING_RICE, 100, EcgPacketDecoder.SAMPLES_PER_PACKET);
+		final EcgRecordingReader reader = new EcgRecordingReader(mFile);
+		try {
+			assertEquals(RATE, reader.getSampleRate());
+			assertEquals(1234L, reader.getStartTimeMillis());
+			assertEquals(5678L, reader.getStartElapsedNanos());
+			assertEquals(ADDRESS, reader.getDeviceAddress());
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void samplesRoundTrip() throws IOException {
+		// 20 minutes raw is more than one mapped window
+		for(short encoding : new short[] { EcgRecorder.ENCODING_RAW16, EcgRecorder.ENCODING_RICE }) {
+			final short[] recorded = record(encoding, RATE * 60 * 20, EcgPacketDecoder.SAMPLES_PER_PACKET);
+			final EcgRecordingReader reader = new EcgRecordingReader(mFile);
+			try {
+				assertSamples(reader, recorded);
+			} finally {
+				reader.close();
+			}
+		}
+	}
+
+	@Test
+	public void chunksKeepArrivalTimes() throws IOException {
+		final int perPacket = 8;
+		record(EcgRecorder.ENCODING_RICE, RATE * 10, perPacket);
+		final EcgRecordingReader reader = new EcgRecordingReader(mFile);
+		try {
+			for(int c = 0; c < reader.getChunkCount(); c++) {
+				final long first = reader.getChunkFirstIndex(c);
+				final int count = reader.getChunkSampleCount(c);
+				assertEquals(perPacket, reader.getChunkSamplesPerPacket(c));
+				assertEquals(first / perPacket * PACKET_NANOS, reader.getChunkFirstArrival(c));
+				assertEquals((first + count - 1) / perPacket * PACKET_NANOS, reader.getChunkLastArrival(c));
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void findsChunkOfSample() throws IOException {
+		final int samples = RATE * 30;
+		record(EcgRecorder.ENCODING_RICE, samples, EcgPacketDecoder.SAMPLES_PER_PACKET);
+		final EcgRecordingReader reader = new EcgRecordingReader(mFile);
+		try {
+			for(long index = 0; index < samples; index += 97) {
+				final int c = reader.findChunk(index);
+				final long first = reader.getChunkFirstIndex(c);
+				assertTrue("sample " + index, index >= first && index < first + reader.getChunkSampleCount(c));
+			}
+			assertEquals(-1, reader.findChunk(samples));
+			assertEquals(-1, reader.findChunk(-1));
+		} finally {
+			reader.close();
+		}
+	}
+}
@@ -0,0 +1,98 @@
+package org.bluetooth.bledemo;
+
+/******************************************************************************
+EcgTimebase on a simulated 500Hz stream whose sensor clock drifts against the
+phone and whose packets arrive with link latency and jitter: drift has to be
+measured, and sample times have to follow the sensor clock instead of the
+jitter.
+*******************************************************************************/
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class EcgTimebaseTest {
+	private static final int RATE = 500;
+	private static final int PER_PACKET = EcgPacketDecoder.SAMPLES_PER_PACKET;
+	private static final long START_NANOS = 1000000000000L;
+	private static final long MIN_LATENCY_NANOS = 10000000L; // 10ms
+	private static final long JITTER_NANOS = 30000000L;      // up to 30ms more
+
+	// sensor running driftPpm slow, packets arrive MIN_LATENCY_NANOS plus up to JITTER_NANOS after their last sample
+	private static void feed(EcgTimebase timebase, int seconds, double driftPpm, long seed) {
+		final Random random = new Random(seed);
+		final double period = 1e9 / RATE * (1 + driftPpm / 1e6);
+		for(long first = 0; first < (long)seconds * RATE; first += PER_PACKET) {
+			final long last = first + PER_PACKET - 1;
+			final long jitter = (long)(random.nextDouble() * JITTER_NANOS);
+			timebase.onPacket(PER_PACKET, START_NANOS + (long)(last * period) + MIN_LATENCY_NANOS + jitter);
+		}
+	}
+
+	@Test
+	public void measuresDrift() {
+		for(double ppm : new double[] { -100, 0, 50, 100 }) {
+			final EcgTimebase timebase = new EcgTimebase(RATE);
+			feed(timebase, 120, ppm, 1);
+			assertEquals(ppm + "ppm", ppm * 1000, timebase.getDriftPpb(), 5000);
+			assertEquals(RATE / (1 + ppm / 1e6), timebase.getMeasuredSampleRate(), 0.005);
+		}
+	}
+
+	@Test
+	public void sampleTimesIgnoreJitter() {
+		final double ppm = 50;
+		final EcgTimebase timebase = new EcgTimebase(RATE);
+		feed(timebase, 120, ppm, 2);
+
+		// the smallest link latency can not be seen and stays in every time, the jitter must not
+		final double period = 1e9 / RATE * (1 + ppm / 1e6);
+		final long count = timebase.getSampleCount();
+		final long[] times = new long[PER_PACKET];
+		for(long index = count - RATE * 10; index < count; index += PER_PACKET) {
+			timebase.getSampleTimesNanos(index, PER_PACKET, times, 0);
+			for(int i = 0; i < PER_PACKET; i++) {
+				final long actual = START_NANOS + (long)((index + i) * period) + MIN_LATENCY_NANOS;
+				assertEquals("sample " + (index + i), actual, times[i], 1000000);
+				assertEquals(times[i], timebase.getSampleTimeNanos(index + i));
+			}
+		}
+		assertTrue(timebase.getMaxLatencyNanos() <= JITTER_NANOS + 1000000);
+	}
+
+	@Test
+	public void indexAtTimeRoundTrips() {
+		final EcgTimebase timebase = new EcgTimebase(RATE);
+		feed(timebase, 30, 20, 3);
+		for(long index = 0; index < timebase.getSampleCount(); index += 123) {
+			assertEquals(index, timebase.getSampleIndexAt(timebase.getSampleTimeNanos(index)));
+		}
+	}
+
+	@Test
+	public void skipMovesPastLostSamples() {
+		final EcgTimebase timebase = new EcgTimebase(RATE);
+		timebase.onPacket(PER_PACKET, START_NANOS);
+		timebase.skip(3 * PER_PACKET);
+		assertEquals(4 * PER_PACKET, timebase.onPacket(PER_PACKET, START_NANOS + 80000000L));
+		assertEquals(5 * PER_PACKET, timebase.getSampleCount());
+		assertEquals(2, timebase.getPacketCount());
+	}
+
+	@Test
+	public void resetStartsOver() {
+		final EcgTimebase timebase = new EcgTimebase(RATE);
+		feed(timebase, 30, 100, 4);
+		timebase.reset();
+		assertEquals(0, timebase.getSampleCount());
+		assertEquals(0, timebase.getDriftPpb());
+
+		// a new link an hour later, the old origin must not leak into it
+		final long start = START_NANOS + 3600000000000L;
+		assertEquals(0, timebase.onPacket(PER_PACKET, start));
+		assertEquals(start, timebase.getSampleTimeNanos(PER_PACKET - 1));
+	}
+}
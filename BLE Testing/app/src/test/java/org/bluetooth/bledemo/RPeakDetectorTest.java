@@ -0,0 +1,93 @@
+package org.bluetooth.bledemo;
+
+/******************************************************************************
+RPeakDetector on a minute of EcgSimulator signal at fixed heart rates from 50
+to 180bpm, with baseline wander, mains hum and noise, filtered the way
+EcgPipeline does: every beat has to be found once, with the right RR and
+within the latency the detector promises.
+*******************************************************************************/
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class RPeakDetectorTest {
+	private static final int RATE = 500;
+	private static final int SECONDS = 60;
+	// RPeakDetector learns its thresholds over the first 2s, beats in there may be missed
+	private static final int LEARNING_SECONDS = 2;
+	// header of RPeakDetector: reported 100-200ms after the R-peak
+	private static final long MAX_LATENCY_MS = 200;
+
+	private static class Beats implements RPeakDetector.BeatListener {
+		long count = 0;
+		long maxRrErrorNanos = 0;
+		long expectedRrNanos;
+		RPeakDetector detector;
+		long maxLatency = 0;
+
+		@Override
+		public void onBeat(long peakSampleIndex, long rrNanos, float heartRate) {
+			// the first beats after learning can span a skipped beat or be decided late,
+			// judge the ones after them
+			if(++count > 2) {
+				maxRrErrorNanos = Math.max(maxRrErrorNanos, Math.abs(rrNanos - expectedRrNanos));
+				maxLatency = Math.max(maxLatency, detector.getLastLatencySamples());
+			}
+		}
+	}
+
+	private static Beats run(RPeakDetector detector, int bpm, long seed) {
+		final EcgSimulator simulator = new EcgSimulator(RATE, seed);
+		simulator.setHeartRate(bpm, 0);
+		simulator.setMainsHum(50, EcgFilter.MAINS_50HZ);
+		simulator.setNoise(10);
+		final EcgFilter filter = new EcgFilter(RATE, 1);
+
+		final Beats beats = new Beats();
+		beats.expectedRrNanos = Math.round(60e9 / bpm);
+		beats.detector = detector;
+		detector.setBeatListener(beats);
+
+		final int[] block = new int[EcgPacketDecoder.SAMPLES_PER_PACKET];
+		for(int p = 0; p < RATE * SECONDS / block.length; p++) {
+			for(int i = 0; i < block.length; i++) block[i] = simulator.nextSample();
+			filter.process(block, 0, block.length, 0);
+			detector.process(block, 0, block.length);
+		}
+		return beats;
+	}
+
+	@Test
+	public void findsEveryBeat() {
+		for(int bpm = 50; bpm <= 180; bpm += 10) {
+			final RPeakDetector detector = new RPeakDetector(RATE);
+			final Beats beats = run(detector, bpm, bpm);
+			// whole beats after learning, one more may straddle the end of learning
+			final int least = bpm * (SECONDS - LEARNING_SECONDS) / 60 - 1;
+			final int most = bpm * SECONDS / 60;
+
+			assertTrue(bpm + "bpm: " + beats.count + " beats", beats.count >= least && beats.count <= most);
+			assertEquals(bpm + "bpm", detector.getBeatCount(), beats.count);
+			// within 2 samples of the real RR
+			assertTrue(bpm + "bpm: RR off by " + beats.maxRrErrorNanos + "ns", beats.maxRrErrorNanos <= 2 * 1000000000L / RATE);
+			assertEquals(bpm + "bpm", bpm, detector.getAverageHeartRate(), bpm * 0.01);
+			assertTrue(bpm + "bpm: latency " + beats.maxLatency, beats.maxLatency * 1000 / RATE <= MAX_LATENCY_MS);
+		}
+	}
+
+	@Test
+	public void resetStartsOver() {
+		final RPeakDetector detector = new RPeakDetector(RATE);
+		run(detector, 120, 1);
+		detector.reset();
+		assertEquals(0, detector.getBeatCount());
+		assertEquals(-1, detector.getLastPeakIndex());
+		assertEquals(0, detector.getHeartRate(), 0);
+
+		// a slower heart after the reset is picked up like on a fresh detector
+		run(detector, 60, 2);
+		assertEquals(60, detector.getAverageHeartRate(), 0.6);
+	}
+}
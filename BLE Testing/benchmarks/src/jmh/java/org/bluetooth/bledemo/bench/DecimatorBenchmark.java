@@ -0,0 +1,58 @@
+package org.bluetooth.bledemo.bench;
+
+/******************************************************************************
+DecimatorBenchmark times EcgDecimator, what the UI does with the samples of one
+frame before drawing: min / max columns or LTTB, 600 points for 10s, fed
+with one frame (16ms) of samples per operation at different sample rates.
+Cost per sample should stay flat as the rate goes up, the drawing after it
+does not grow at all.
+*******************************************************************************/
+
+import org.bluetooth.bledemo.EcgDecimator;
+import org.bluetooth.bledemo.EcgSimulator;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DecimatorBenchmark {
+	@Param({"250", "500", "2000"})
+	public int sampleRate;
+
+	@Param({"minmax", "lttb"})
+	public String mode;
+
+	private int[] mTrace;
+	private int[] mFrame;
+	private int mPos = 0;
+	private EcgDecimator mDecimator;
+
+	@Setup
+	public void setup() {
+		final EcgSimulator simulator = new EcgSimulator(sampleRate, 1);
+		mTrace = new int[sampleRate * 60];
+		for(int i = 0; i < mTrace.length; i++) mTrace[i] = simulator.nextSample();
+		mFrame = new int[Math.max(1, sampleRate * 16 / 1000)];
+		mDecimator = new EcgDecimator(sampleRate, 10, 600,
+				"lttb".equals(mode) ? EcgDecimator.MODE_LTTB : EcgDecimator.MODE_MINMAX);
+	}
+
+	@Benchmark
+	public long frame() {
+		if(mPos + mFrame.length > mTrace.length) mPos = 0;
+		System.arraycopy(mTrace, mPos, mFrame, 0, mFrame.length);
+		mPos += mFrame.length;
+		mDecimator.add(mFrame, 0, mFrame.length);
+		return mDecimator.getPointsWritten();
+	}
+}
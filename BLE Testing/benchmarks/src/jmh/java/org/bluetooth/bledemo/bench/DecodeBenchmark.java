@@ -0,0 +1,68 @@
+package org.bluetooth.bledemo.bench;
+
+/******************************************************************************
+DecodeBenchmark times what the GATT thread does with every ECG Wave
+notification: EcgPacketDecoder on its own, and the whole EcgPipeline
+(decode, gap check, timebase, filter, beat detection, ring, metrics).
+Packets are 20 bytes (default MTU) or 244 bytes (MTU 247), one operation is
+one packet. The ring is emptied now and then so it never overruns.
+*******************************************************************************/
+
+import org.bluetooth.bledemo.EcgPacketDecoder;
+import org.bluetooth.bledemo.EcgPipeline;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DecodeBenchmark {
+	@Param({"synthetic", "recorded"})
+	public String trace;
+
+	@Param({"20", "244"})
+	public int packetSize;
+
+	private byte[][] mPackets;
+	private int mNext = 0;
+	private final EcgPacketDecoder mDecoder = new EcgPacketDecoder();
+	private final int[] mBlock = new int[EcgPacketDecoder.MAX_SAMPLES_PER_PACKET];
+	private final EcgPipeline mPipeline = new EcgPipeline();
+	private long mArrivalNanos = 0;
+	private long mPacketNanos;
+
+	@Setup
+	public void setup() throws IOException {
+		final int samplesPerPacket = packetSize / EcgPacketDecoder.BYTES_PER_SAMPLE;
+		mPackets = EcgTraces.packets(EcgTraces.forName(trace), samplesPerPacket);
+		mPacketNanos = samplesPerPacket * 1000000000L / EcgTraces.SAMPLE_RATE;
+	}
+
+	@Benchmark
+	public int decoder() {
+		final byte[] packet = mPackets[mNext];
+		if(++mNext == mPackets.length) mNext = 0;
+		return mDecoder.decode(packet, mBlock, 0);
+	}
+
+	@Benchmark
+	public int pipeline() {
+		final byte[] packet = mPackets[mNext];
+		if(++mNext == mPackets.length) mNext = 0;
+		mArrivalNanos += mPacketNanos;
+		final int count = mPipeline.onPacket(packet, mArrivalNanos);
+		// nobody draws here, keep the ring from filling up like the UI would
+		if(mPipeline.getSamples().size() > 2048) mPipeline.getSamples().clear();
+		return count;
+	}
+}
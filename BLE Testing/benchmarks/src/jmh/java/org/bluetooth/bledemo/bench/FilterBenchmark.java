@@ -0,0 +1,77 @@
+package org.bluetooth.bledemo.bench;
+
+/******************************************************************************
+FilterBenchmark times EcgFilter (band-pass + mains notch) and RPeakDetector on
+blocks of one packet worth of samples, 10 (default MTU) or 122 (MTU 247).
+Each operation copies the next block of the trace in and runs it through,
+time per sample is time per operation / block.
+*******************************************************************************/
+
+import org.bluetooth.bledemo.EcgFilter;
+import org.bluetooth.bledemo.EcgPacketDecoder;
+import org.bluetooth.bledemo.RPeakDetector;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FilterBenchmark {
+	@Param({"synthetic", "synthetic-noisy", "recorded"})
+	public String trace;
+
+	@Param({"10", "122"})
+	public int block;
+
+	private int[] mRaw;
+	private int[] mFiltered;
+	private int mPos = 0;
+	private final int[] mBlock = new int[EcgPacketDecoder.MAX_SAMPLES_PER_PACKET];
+	private EcgFilter mFilter;
+	private RPeakDetector mDetector;
+
+	@Setup
+	public void setup() throws IOException {
+		mRaw = EcgTraces.toInts(EcgTraces.forName(trace));
+		mFilter = new EcgFilter(EcgTraces.SAMPLE_RATE, 1);
+		mFilter.setMainsFrequency(EcgFilter.MAINS_50HZ);
+		mDetector = new RPeakDetector(EcgTraces.SAMPLE_RATE);
+
+		// detector gets filtered samples in the app, do that once up front
+		mFiltered = mRaw.clone();
+		final EcgFilter filter = new EcgFilter(EcgTraces.SAMPLE_RATE, 1);
+		filter.setMainsFrequency(EcgFilter.MAINS_50HZ);
+		filter.process(mFiltered, 0, mFiltered.length, 0);
+	}
+
+	// next block of src into mBlock, wrapping around at the end of the trace
+	private void nextBlock(final int[] src) {
+		if(mPos + block > src.length) mPos = 0;
+		System.arraycopy(src, mPos, mBlock, 0, block);
+		mPos += block;
+	}
+
+	@Benchmark
+	public int filter() {
+		nextBlock(mRaw);
+		mFilter.process(mBlock, 0, block, 0);
+		return mBlock[block - 1];
+	}
+
+	@Benchmark
+	public long rPeak() {
+		nextBlock(mFiltered);
+		mDetector.process(mBlock, 0, block);
+		return mDetector.getBeatCount();
+	}
+}
@@ -0,0 +1,73 @@
+package org.bluetooth.bledemo.bench;
+
+/******************************************************************************
+NamesBenchmark times BleNamesResolver for the UUIDs the lists show: a SIG
+assigned one (16 bit in the table), our own ECG ones and one nobody knows.
+The String overloads are timed too since older callers still use them.
+*******************************************************************************/
+
+import org.bluetooth.bledemo.BleDefinedUUIDs;
+import org.bluetooth.bledemo.BleNamesResolver;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class NamesBenchmark {
+	@Param({"sig", "ecg", "unknown"})
+	public String kind;
+
+	private UUID mService;
+	private UUID mCharacteristic;
+	private String mServiceString;
+	private String mCharacteristicString;
+
+	@Setup
+	public void setup() {
+		if("sig".equals(kind)) {
+			mService = BleDefinedUUIDs.Service.HEART_RATE;
+			mCharacteristic = UUID.fromString("00002a37-0000-1000-8000-00805f9b34fb");
+		}
+		else if("ecg".equals(kind)) {
+			mService = BleDefinedUUIDs.Service.ECG_TEST;
+			mCharacteristic = BleDefinedUUIDs.Characteristic.ECG_WAVE;
+		}
+		else {
+			mService = UUID.fromString("12345678-1234-5678-1234-56789abcdef0");
+			mCharacteristic = UUID.fromString("12345678-1234-5678-1234-56789abcdef1");
+		}
+		mServiceString = mService.toString();
+		mCharacteristicString = mCharacteristic.toString();
+	}
+
+	@Benchmark
+	public String service() {
+		return BleNamesResolver.resolveServiceName(mService);
+	}
+
+	@Benchmark
+	public String characteristic() {
+		return BleNamesResolver.resolveCharacteristicName(mCharacteristic);
+	}
+
+	@Benchmark
+	public String characteristicString() {
+		return BleNamesResolver.resolveCharacteristicName(mCharacteristicString);
+	}
+
+	@Benchmark
+	public String serviceString() {
+		return BleNamesResolver.resolveServiceName(mServiceString);
+	}
+}
@@ -0,0 +1,117 @@
+package org.bluetooth.bledemo.bench;
+
+/******************************************************************************
+RecordingBenchmark times recording I/O. append is what the GATT thread pays per
+packet while recording (raw or Rice coded), a new file is started every
+iteration so the file size stays the same. readChunk is what scrolling back
+through a recording costs, chunks are read in a fixed shuffled order.
+*******************************************************************************/
+
+import org.bluetooth.bledemo.EcgPacketDecoder;
+import org.bluetooth.bledemo.EcgRecorder;
+import org.bluetooth.bledemo.EcgRecordingReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RecordingBenchmark {
+	@Param({"synthetic", "recorded"})
+	public String trace;
+
+	@Param({"raw", "rice"})
+	public String encoding;
+
+	private int[] mSamples;
+	private int mPos = 0;
+	private long mArrivalNanos = 0;
+	private File mWriteFile;
+	private EcgRecorder mRecorder;
+
+	private File mReadFile;
+	private EcgRecordingReader mReader;
+	private int[] mOrder;
+	private int mNextChunk = 0;
+	private final short[] mChunk = new short[EcgRecorder.CHUNK_SAMPLES];
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		final short[] samples = EcgTraces.forName(trace);
+		mSamples = EcgTraces.toInts(samples);
+
+		mReadFile = File.createTempFile("ecg-read", ".ecg");
+		final EcgRecorder recorder = new EcgRecorder(mReadFile, null, EcgTraces.SAMPLE_RATE, 0, 0, encodingValue());
+		for(int p = 0; p + EcgPacketDecoder.SAMPLES_PER_PACKET <= mSamples.length; p += EcgPacketDecoder.SAMPLES_PER_PACKET) {
+			recorder.append(mSamples, p, EcgPacketDecoder.SAMPLES_PER_PACKET, p * 2000000L);
+		}
+		recorder.close();
+		if(recorder.getError() != null) throw recorder.getError();
+		mReader = new EcgRecordingReader(mReadFile);
+
+		// same shuffle every run so results compare
+		mOrder = new int[mReader.getChunkCount()];
+		for(int i = 0; i < mOrder.length; i++) mOrder[i] = i;
+		final Random random = new Random(42);
+		for(int i = mOrder.length - 1; i > 0; i--) {
+			final int j = random.nextInt(i + 1);
+			final int t = mOrder[i];
+			mOrder[i] = mOrder[j];
+			mOrder[j] = t;
+		}
+	}
+
+	@Setup(Level.Iteration)
+	public void startRecording() throws IOException {
+		mWriteFile = File.createTempFile("ecg-write", ".ecg");
+		mRecorder = new EcgRecorder(mWriteFile, null, EcgTraces.SAMPLE_RATE, 0, 0, encodingValue());
+		mPos = 0;
+		mArrivalNanos = 0;
+	}
+
+	@TearDown(Level.Iteration)
+	public void stopRecording() {
+		mRecorder.close();
+		mWriteFile.delete();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		mReader.close();
+		mReadFile.delete();
+	}
+
+	private short encodingValue() {
+		return "raw".equals(encoding) ? EcgRecorder.ENCODING_RAW16 : EcgRecorder.ENCODING_RICE;
+	}
+
+	@Benchmark
+	public long append() {
+		if(mPos + EcgPacketDecoder.SAMPLES_PER_PACKET > mSamples.length) mPos = 0;
+		mArrivalNanos += 20000000L;
+		mRecorder.append(mSamples, mPos, EcgPacketDecoder.SAMPLES_PER_PACKET, mArrivalNanos);
+		mPos += EcgPacketDecoder.SAMPLES_PER_PACKET;
+		return mRecorder.getBytesWritten();
+	}
+
+	@Benchmark
+	public int readChunk() throws IOException {
+		final int chunk = mOrder[mNextChunk];
+		if(++mNextChunk == mOrder.length) mNextChunk = 0;
+		return mReader.readChunk(chunk, mChunk);
+	}
+}
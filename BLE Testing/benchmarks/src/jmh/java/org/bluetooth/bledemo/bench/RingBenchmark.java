@@ -0,0 +1,68 @@
+package org.bluetooth.bledemo.bench;
+
+/******************************************************************************
+RingBenchmark times SampleRingBuffer, the hand-off between the GATT thread
+and the UI. writeDrain does one packet in and out on the same thread, the
+handOff group runs the writer and the reader on two threads like the app
+does, so the cost of the shared indexes bouncing between cores shows up.
+*******************************************************************************/
+
+import org.bluetooth.bledemo.SampleRingBuffer;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RingBenchmark {
+	// ring and blocks of one writer / reader pair
+	@State(Scope.Group)
+	public static class Ring {
+		@Param({"10", "122"})
+		public int block;
+
+		SampleRingBuffer ring;
+		int[] in;
+		int[] out;
+
+		@Setup
+		public void setup() {
+			// same size as the app's ring, 8s at 500Hz
+			ring = new SampleRingBuffer(4096);
+			in = new int[block];
+			out = new int[256];
+			for(int i = 0; i < block; i++) in[i] = i;
+		}
+	}
+
+	@Benchmark
+	@Group("writeDrain")
+	public int writeDrain(Ring r) {
+		r.ring.write(r.in, 0, r.block);
+		return r.ring.drain(r.out, 0, r.out.length);
+	}
+
+	@Benchmark
+	@Group("handOff")
+	@GroupThreads(1)
+	public int producer(Ring r) {
+		return r.ring.write(r.in, 0, r.block);
+	}
+
+	@Benchmark
+	@Group("handOff")
+	@GroupThreads(1)
+	public int consumer(Ring r) {
+		return r.ring.drain(r.out, 0, r.out.length);
+	}
+}
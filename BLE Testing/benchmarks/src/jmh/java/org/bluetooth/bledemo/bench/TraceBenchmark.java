@@ -0,0 +1,56 @@
+package org.bluetooth.bledemo.bench;
+
+/******************************************************************************
+TraceBenchmark times what EcgTrace costs the GATT thread per notification,
+with the trace stopped (should be next to nothing) and recording, for a
+plain record and for a characteristic value (packs the first 8 bytes).
+*******************************************************************************/
+
+import org.bluetooth.bledemo.BleDefinedUUIDs;
+import org.bluetooth.bledemo.EcgTrace;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TraceBenchmark {
+	@Param({"false", "true"})
+	public boolean enabled;
+
+	private final UUID mUuid = BleDefinedUUIDs.Characteristic.ECG_WAVE;
+	private final byte[] mPacket = new byte[20];
+	private long mArrival = 0;
+
+	@Setup
+	public void setup() {
+		if(enabled) EcgTrace.start();
+		else EcgTrace.stop();
+	}
+
+	@TearDown
+	public void tearDown() {
+		EcgTrace.stop();
+	}
+
+	@Benchmark
+	public void record() {
+		EcgTrace.record(EcgTrace.EVENT_PACKET, 10, mArrival++);
+	}
+
+	@Benchmark
+	public void recordValue() {
+		EcgTrace.recordValue(EcgTrace.EVENT_NOTIFICATION, mUuid, mPacket);
+	}
+}
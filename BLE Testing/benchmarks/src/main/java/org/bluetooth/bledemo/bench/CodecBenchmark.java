@@ -0,0 +1,94 @@
+package org.bluetooth.bledemo.bench;
+
+/******************************************************************************
+CodecBenchmark measures EcgBlockCodec on ECG traces: compression ratio against
+raw int16, encode and decode speed in MB/s of raw samples, and the time to
+decode one randomly picked block. Traces are .ecg recordings given as
+arguments, the synthetic 10 minute traces of EcgTraces are always included.
+Every block is checked to decode back to exactly the input.
+*******************************************************************************/
+
+import org.bluetooth.bledemo.EcgBlockCodec;
+import org.bluetooth.bledemo.EcgRecorder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+public class CodecBenchmark {
+	private static final int BLOCK = EcgRecorder.CHUNK_SAMPLES;
+	private static final int WARMUP_ROUNDS = 5;
+	private static final int ROUNDS = 20;
+	private static final int RANDOM_READS = 100000;
+
+	public static void main(String[] args) throws IOException {
+		System.out.println(String.format("%-24s %9s %8s %10s %10s %12s",
+				"trace", "samples", "ratio", "enc MB/s", "dec MB/s", "block us"));
+		run("synthetic 72bpm", EcgTraces.forName("synthetic"));
+		run("synthetic 150bpm noisy", EcgTraces.forName("synthetic-noisy"));
+		for(String path : args) {
+			run(new File(path).getName(), EcgTraces.load(new File(path)));
+		}
+	}
+
+	private static void run(String name, short[] samples) {
+		final int blocks = (samples.length + BLOCK - 1) / BLOCK;
+		final EcgBlockCodec codec = new EcgBlockCodec();
+		final ByteBuffer encoded = ByteBuffer.allocate(blocks * EcgBlockCodec.maxEncodedSize(BLOCK));
+		final int[] offsets = new int[blocks + 1];
+		final short[] decoded = new short[BLOCK];
+
+		// encode
+		long best = Long.MAX_VALUE;
+		for(int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+			encoded.clear();
+			final long start = System.nanoTime();
+			for(int b = 0; b < blocks; b++) {
+				offsets[b] = encoded.position();
+				codec.encode(samples, b * BLOCK, Math.min(BLOCK, samples.length - b * BLOCK), encoded);
+			}
+			final long time = System.nanoTime() - start;
+			if(round >= WARMUP_ROUNDS) best = Math.min(best, time);
+		}
+		offsets[blocks] = encoded.position();
+		final double encodeMBs = samples.length * 2.0 / best * 1000;
+		final double ratio = samples.length * 2.0 / offsets[blocks];
+
+		// check round trip once before timing decode
+		for(int b = 0; b < blocks; b++) {
+			encoded.position(offsets[b]);
+			final int count = codec.decode(encoded, decoded, 0);
+			for(int i = 0; i < count; i++) {
+				if(decoded[i] != samples[b * BLOCK + i]) {
+					throw new IllegalStateException(name + ": block " + b + " sample " + i + " does not round trip");
+				}
+			}
+		}
+
+		// sequential decode
+		best = Long.MAX_VALUE;
+		for(int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+			encoded.position(0);
+			final long start = System.nanoTime();
+			for(int b = 0; b < blocks; b++) codec.decode(encoded, decoded, 0);
+			final long time = System.nanoTime() - start;
+			if(round >= WARMUP_ROUNDS) best = Math.min(best, time);
+		}
+		final double decodeMBs = samples.length * 2.0 / best * 1000;
+
+		// random access, one whole block per read
+		final Random random = new Random(42);
+		long sink = 0;
+		final long start = System.nanoTime();
+		for(int i = 0; i < RANDOM_READS; i++) {
+			encoded.position(offsets[random.nextInt(blocks)]);
+			sink += codec.decode(encoded, decoded, 0);
+		}
+		final double blockMicros = (System.nanoTime() - start) / 1000.0 / RANDOM_READS;
+		if(sink == 0) System.out.println();
+
+		System.out.println(String.format("%-24s %9d %7.2fx %10.1f %10.1f %12.2f",
+				name, samples.length, ratio, encodeMBs, decodeMBs, blockMicros));
+	}
+}
@@ -0,0 +1,118 @@
+package org.bluetooth.bledemo.bench;
+
+/******************************************************************************
+EcgTraces makes the ECG input every benchmark runs on, so all of them see
+the same signal:
+  "synthetic"       72bpm beats from EcgSimulator, baseline wander, a little
+                    50Hz and noise
+  "synthetic-noisy" 150bpm with twice the 50Hz and noise
+  "recorded"        the .ecg recording given with -Decg.trace (gradle
+                    -Ptrace=...), without one a synthetic trace that went
+                    through EcgRecorder and EcgRecordingReader like a real one
+Samples can be cut into ECG Wave notifications exactly as the sensor sends
+them (big-endian int16).
+*******************************************************************************/
+
+import org.bluetooth.bledemo.EcgFilter;
+import org.bluetooth.bledemo.EcgPacketDecoder;
+import org.bluetooth.bledemo.EcgRecorder;
+import org.bluetooth.bledemo.EcgRecordingReader;
+import org.bluetooth.bledemo.EcgSimulator;
+
+import java.io.File;
+import java.io.IOException;
+
+public class EcgTraces {
+	public static final int SAMPLE_RATE = 500;
+	// length of the synthetic traces
+	public static final int SYNTHETIC_SECONDS = 600;
+
+	// samples of a trace by name, see above
+	public static short[] forName(String name) throws IOException {
+		if("synthetic".equals(name)) return synthetic(SAMPLE_RATE * SYNTHETIC_SECONDS, 72, 1);
+		if("synthetic-noisy".equals(name)) return synthetic(SAMPLE_RATE * SYNTHETIC_SECONDS, 150, 2);
+		if("recorded".equals(name)) return recorded();
+		return load(new File(name));
+	}
+
+	// samples cut into notifications of samplesPerPacket samples, the last one may be shorter
+	public static byte[][] packets(short[] samples, int samplesPerPacket) {
+		final int count = (samples.length + samplesPerPacket - 1) / samplesPerPacket;
+		final byte[][] packets = new byte[count][];
+		for(int p = 0; p < count; p++) {
+			final int len = Math.min(samplesPerPacket, samples.length - p * samplesPerPacket);
+			final byte[] packet = new byte[len * EcgPacketDecoder.BYTES_PER_SAMPLE];
+			for(int i = 0; i < len; i++) {
+				final short s = samples[p * samplesPerPacket + i];
+				packet[2*i] = (byte)(s >> 8);
+				packet[2*i + 1] = (byte)s;
+			}
+			packets[p] = packet;
+		}
+		return packets;
+	}
+
+	// same samples sign extended, the way the pipeline stages take them
+	public static int[] toInts(short[] samples) {
+		final int[] out = new int[samples.length];
+		for(int i = 0; i < samples.length; i++) out[i] = samples[i];
+		return out;
+	}
+
+	// all samples of a recording
+	public static short[] load(File file) throws IOException {
+		final EcgRecordingReader reader = new EcgRecordingReader(file);
+		try {
+			final short[] samples = new short[(int)reader.getSampleCount()];
+			final short[] chunk = new short[EcgRecorder.CHUNK_SAMPLES];
+			int pos = 0;
+			for(int c = 0; c < reader.getChunkCount(); c++) {
+				final int count = reader.readChunk(c, chunk);
+				System.arraycopy(chunk, 0, samples, pos, count);
+				pos += count;
+			}
+			return samples;
+		} finally {
+			reader.close();
+		}
+	}
+
+	// write a synthetic trace the way the app records it, 10 sample packets 20ms apart
+	public static File record(short[] samples, File file) throws IOException {
+		final EcgRecorder recorder = new EcgRecorder(file, "00:00:00:00:00:00", SAMPLE_RATE, 0, 0);
+		final int[] block = new int[EcgPacketDecoder.SAMPLES_PER_PACKET];
+		for(int p = 0; p * block.length < samples.length; p++) {
+			final int len = Math.min(block.length, samples.length - p * block.length);
+			for(int i = 0; i < len; i++) block[i] = samples[p * block.length + i];
+			recorder.append(block, 0, len, p * 20000000L);
+		}
+		recorder.close();
+		if(recorder.getError() != null) throw recorder.getError();
+		return file;
+	}
+
+	private static short[] recorded() throws IOException {
+		final String path = System.getProperty("ecg.trace");
+		if(path != null && path.length() > 0) return load(new File(path));
+
+		final File file = File.createTempFile("bench", ".ecg");
+		try {
+			return load(record(synthetic(SAMPLE_RATE * SYNTHETIC_SECONDS, 72, 1), file));
+		} finally {
+			file.delete();
+		}
+	}
+
+	// regular beats at bpm from EcgSimulator, with its baseline wander plus 50Hz pickup
+	// and noise scaled by noise. amplitudes roughly in BMD101 counts
+	public static short[] synthetic(int count, int bpm, int noise) {
+		final EcgSimulator simulator = new EcgSimulator(SAMPLE_RATE, bpm);
+		simulator.setHeartRate(bpm, 0);
+		simulator.setMainsHum(20 * noise, EcgFilter.MAINS_50HZ);
+		simulator.setNoise(8 * noise);
+
+		final short[] out = new short[count];
+		for(int n = 0; n < count; n++) out[n] = (short)simulator.nextSample();
+		return out;
+	}
+}
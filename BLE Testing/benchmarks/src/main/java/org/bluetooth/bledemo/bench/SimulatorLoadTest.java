@@ -0,0 +1,146 @@
+package org.bluetooth.bledemo.bench;
+
+/******************************************************************************
+SimulatorLoadTest loads the acquisition side the way many patches streaming at
+once would, but faster than real time, on a plain JVM. Every simulated
+sensor (EcgSimulator) pushes into its own MemoryTransport, with an
+EcgAcquisition (and so an EcgPipeline, optionally recording to a temp file)
+listening on it, the same acquisition code a session runs over BLE. One "UI"
+thread updates throughput and drains all rings every 16ms like the app does. At the end it prints how many times real time was kept up,
+how late the senders fell behind, overruns, gaps and beats found, and the
+metrics of the first pipeline.
+Settings are system properties (see the loadTest task in build.gradle):
+sensors, speed (multiple of real time, 0 for flat out), seconds of signal,
+threads, samplesPerPacket, interval (connection interval ms), loss (packet
+loss 0..1), counter (packet counter in front, on by default with loss, single
+lost packets are too short to be found by timing), record (true / false).
+*******************************************************************************/
+
+import org.bluetooth.bledemo.EcgAcquisition;
+import org.bluetooth.bledemo.EcgPacketDecoder;
+import org.bluetooth.bledemo.EcgPipeline;
+import org.bluetooth.bledemo.EcgRecorder;
+import org.bluetooth.bledemo.EcgSimulator;
+import org.bluetooth.bledemo.EcgSimulatorRunner;
+import org.bluetooth.bledemo.MemoryTransport;
+import org.bluetooth.bledemo.SampleRingBuffer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+public class SimulatorLoadTest {
+	private static final long UI_FRAME_NANOS = 16000000L;
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		final int sensors = Integer.getInteger("sensors", 10);
+		final float speed = Float.parseFloat(System.getProperty("speed", "10"));
+		final int seconds = Integer.getInteger("seconds", 60);
+		final int threads = Integer.getInteger("threads", 4);
+		final int samplesPerPacket = Integer.getInteger("samplesPerPacket", 10);
+		final float intervalMs = Float.parseFloat(System.getProperty("interval", "0"));
+		final float loss = Float.parseFloat(System.getProperty("loss", "0"));
+		final boolean counter = Boolean.parseBoolean(System.getProperty("counter", String.valueOf(loss > 0)));
+		final boolean record = Boolean.getBoolean("record");
+
+		final EcgSimulator[] simulators = new EcgSimulator[sensors];
+		final EcgPipeline[] pipelines = new EcgPipeline[sensors];
+		final MemoryTransport[] transports = new MemoryTransport[sensors];
+		final EcgAcquisition[] acquisitions = new EcgAcquisition[sensors];
+		final File[] files = new File[sensors];
+		for(int i = 0; i < sensors; i++) {
+			simulators[i] = new EcgSimulator(EcgPipeline.NOMINAL_SAMPLE_RATE, i);
+			// spread of patients, some noisy ones with mains pickup and movement
+			simulators[i].setHeartRate(55 + (i * 37) % 90, 0.05f);
+			if(i % 3 == 0) simulators[i].setMainsHum(200, 50);
+			if(i % 4 == 0) simulators[i].setArtifacts(6, 3000);
+			simulators[i].setSamplesPerPacket(samplesPerPacket);
+			simulators[i].setPacketLoss(loss);
+			simulators[i].setSequenceCounter(counter);
+			pipelines[i] = new EcgPipeline();
+			pipelines[i].getDecoder().setSequenceCounter(counter);
+			if(record) {
+				files[i] = File.createTempFile("load" + i + "-", ".ecg");
+				pipelines[i].setRecorder(new EcgRecorder(files[i], null, EcgPipeline.NOMINAL_SAMPLE_RATE, 0, 0));
+			}
+			transports[i] = new MemoryTransport(EcgPacketDecoder.MAX_PACKET_SIZE);
+			acquisitions[i] = new EcgAcquisition(transports[i], pipelines[i]);
+			acquisitions[i].setAutoSubscribe(true);
+			acquisitions[i].start(String.format(Locale.US, "00:00:00:00:%02X:%02X", i >> 8, i & 0xff));
+		}
+
+		final EcgSimulatorRunner runner = new EcgSimulatorRunner(simulators, new EcgSimulatorRunner.PacketSink() {
+			@Override
+			public void onPacket(int sensor, byte[] packet, long arrivalNanos) {
+				transports[sensor].deliver(packet, arrivalNanos);
+			}
+		}, speed, threads);
+		runner.setDuration(seconds * 1000000000L);
+		runner.setConnectionInterval((long)(intervalMs * 1000000));
+
+		System.out.println(String.format(Locale.US, "%d sensors x %d samples/packet, speed %s, %d s of signal, %d threads%s",
+				sensors, samplesPerPacket, (speed > 0) ? speed + "x" : "max", seconds, runner.getThreadCount(),
+				record ? ", recording" : ""));
+
+		final long start = System.nanoTime();
+		runner.start();
+		final int[] block = new int[1024];
+		long drained = 0;
+		int sustained = 0;
+		while(runner.isRunning()) {
+			Thread.sleep(UI_FRAME_NANOS / 1000000);
+			// arrival clock runs speed times faster than the wall clock
+			final long now = start + (long)((System.nanoTime() - start) * Math.max(speed, 1));
+			int count = 0;
+			for(int i = 0; i < sensors; i++) {
+				acquisitions[i].updateThroughput(now);
+				if(acquisitions[i].isSustained()) count++;
+				drained += drain(pipelines[i].getSamples(), block);
+			}
+			sustained = Math.max(sustained, count);
+		}
+		runner.join();
+		final long elapsed = System.nanoTime() - start;
+		for(int i = 0; i < sensors; i++) {
+			drained += drain(pipelines[i].getSamples(), block);
+			acquisitions[i].stop();
+		}
+
+		long samples = 0, overruns = 0, lostPackets = 0, gaps = 0, beats = 0;
+		for(int i = 0; i < sensors; i++) {
+			samples += pipelines[i].getDecoder().getSampleCount();
+			overruns += pipelines[i].getSamples().getOverrunCount();
+			gaps += pipelines[i].getGaps().getGapCount();
+			lostPackets += pipelines[i].getGaps().getLostPackets();
+			beats += pipelines[i].getDetector().getBeatCount();
+			final EcgRecorder recorder = pipelines[i].setRecorder(null);
+			if(recorder != null) {
+				recorder.close();
+				files[i].delete();
+			}
+		}
+		long dropped = 0, expectedBeats = 0;
+		for(EcgSimulator simulator : simulators) {
+			dropped += simulator.getDroppedPackets();
+			expectedBeats += Math.round(simulator.getHeartRate() * seconds / 60.0);
+		}
+
+		final double realTime = samples / (elapsed / 1e9) / (sensors * (double)EcgPipeline.NOMINAL_SAMPLE_RATE);
+		System.out.println(String.format(Locale.US, "%d packets, %d samples in %.2f s: %.0f samples/s, %.1fx real time for all sensors",
+				runner.getPacketsSent(), samples, elapsed / 1e9, samples / (elapsed / 1e9), realTime));
+		System.out.println(String.format(Locale.US, "worst sender lateness %.2f ms, ring overruns %d, drained %d, at most %d sessions sustained",
+				runner.getMaxLateNanos() / 1e6, overruns, drained, sustained));
+		System.out.println(String.format(Locale.US, "packets dropped %d, gaps found %d (%d packets), beats %d of ~%d",
+				dropped, gaps, lostPackets, beats, expectedBeats));
+		System.out.println();
+		System.out.println("sensor 0:");
+		System.out.print(pipelines[0].getMetrics().dump());
+	}
+
+	private static long drain(SampleRingBuffer ring, int[] block) {
+		long total = 0;
+		int count;
+		while((count = ring.drain(block, 0, block.length)) > 0) total += count;
+		return total;
+	}
+}